@@ -0,0 +1,109 @@
+package com.ejemplo;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks del generador DOCX con 10, 1.000 y 50.000 filas por bloque.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class DocxBenchmark {
+
+    @Param({"10", "1000", "50000"})
+    public int filas;
+
+    private String plantillaPath;
+    private String salidaPattern;
+    private byte[] plantilla;
+    private byte[] documentoGrande;
+    private HashMap<String, String> globales;
+    private List<HashMap<String, String>> incidencias;
+    private Map<String, List<HashMap<String, String>>> bloques;
+
+    @Setup(Level.Trial)
+    public void preparar() throws IOException {
+        plantilla = PlantillasSinteticas.docx();
+        documentoGrande = PlantillasSinteticas.docxGrande(filas);
+        plantillaPath = PlantillasSinteticas.temporal(plantilla, ".docx").toString();
+        Path salida = Files.createTempDirectory("benchmark-docx");
+        salida.toFile().deleteOnExit();
+        salidaPattern = salida.resolve("Informe {{Client}} {{month}} {{year}}.docx").toString();
+        globales = PlantillasSinteticas.globales();
+        incidencias = PlantillasSinteticas.incidencias(filas);
+        bloques = new HashMap<>();
+        bloques.put("incidencia", incidencias);
+        bloques.put("fila", incidencias);
+    }
+
+    /**
+     * Documento abierto de nuevo antes de cada invocación, porque los benchmarks lo modifican.
+     */
+    public abstract static class Documento {
+        XWPFDocument documento;
+
+        void cargar(byte[] contenido) throws IOException {
+            documento = new XWPFDocument(new ByteArrayInputStream(contenido));
+        }
+
+        @TearDown(Level.Invocation)
+        public void cerrar() throws IOException {
+            documento.close();
+        }
+    }
+
+    /** Copia de la plantilla con bloques. */
+    @State(Scope.Thread)
+    public static class Plantilla extends Documento {
+        @Setup(Level.Invocation)
+        public void abrir(DocxBenchmark benchmark) throws IOException {
+            cargar(benchmark.plantilla);
+        }
+    }
+
+    /** Documento sin bloques con {@code filas} párrafos y filas de tabla. */
+    @State(Scope.Thread)
+    public static class Grande extends Documento {
+        @Setup(Level.Invocation)
+        public void abrir(DocxBenchmark benchmark) throws IOException {
+            cargar(benchmark.documentoGrande);
+        }
+    }
+
+    /**
+     * Generación completa: plantilla en caché, globales, bloques de párrafos y de filas, y escritura.
+     */
+    @Benchmark
+    public String generateDocx() throws IOException {
+        return DocxGenerador.generateDocx(plantillaPath, salidaPattern, globales, bloques);
+    }
+
+    /**
+     * Sustitución global sobre un documento con {@code filas} párrafos y filas de tabla.
+     */
+    @Benchmark
+    public XWPFDocument processDocument(Grande grande) {
+        DocxGenerador.processDocument(grande.documento, globales);
+        return grande.documento;
+    }
+
+    /**
+     * Duplicación de un bloque de párrafos y tabla con la API de búsqueda de marcadores.
+     */
+    @Benchmark
+    public XWPFDocument duplicateBlock(Plantilla plantilla) {
+        DocxGenerador.duplicateBlock(plantilla.documento, "incidencia", incidencias);
+        return plantilla.documento;
+    }
+}
@@ -0,0 +1,172 @@
+package com.ejemplo;
+
+import java.awt.Rectangle;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import org.apache.poi.wp.usermodel.HeaderFooterType;
+import org.apache.poi.xslf.usermodel.XMLSlideShow;
+import org.apache.poi.xslf.usermodel.XSLFSlide;
+import org.apache.poi.xslf.usermodel.XSLFTextBox;
+import org.apache.poi.xslf.usermodel.XSLFTextParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFTable;
+
+/**
+ * Plantillas y datos sintéticos para los benchmarks, generados en código para que las
+ * mediciones no dependan de archivos externos. Imitan la estructura de las plantillas
+ * reales de cierre de mes: globales en cabecera y cuerpo, un bloque de incidencia con
+ * párrafos y tabla, y una tabla con filas marcadas.
+ */
+final class PlantillasSinteticas {
+
+    static final String[] BLOQUES_PPTX = {"incidencia", "peticion", "tarea"};
+
+    private PlantillasSinteticas() {
+    }
+
+    /**
+     * Crea la plantilla DOCX de referencia.
+     * @return Bytes del DOCX.
+     * @throws IOException Si falla la escritura en memoria.
+     */
+    static byte[] docx() throws IOException {
+        try (XWPFDocument d = new XWPFDocument()) {
+            XWPFParagraph titulo = d.createParagraph();
+            // Placeholder partido en dos runs, como los que deja Word al editar.
+            titulo.createRun().setText("Informe de {{Cli");
+            titulo.createRun().setText("ent}} - {{month}} {{year}}");
+            d.createParagraph().createRun().setText("Resumen del periodo sin placeholders.");
+
+            d.createParagraph().createRun().setText("---incidencia---");
+            d.createParagraph().createRun().setText("Incidencia {{ID}}: {{Title}}");
+            d.createParagraph().createRun().setText("{{Description}}");
+            XWPFTable detalle = d.createTable(2, 2);
+            detalle.getRow(0).getCell(0).setText("Prioridad");
+            detalle.getRow(0).getCell(1).setText("{{Priority}}");
+            detalle.getRow(1).getCell(0).setText("Estado");
+            detalle.getRow(1).getCell(1).setText("{{Status}}");
+            d.createParagraph().createRun().setText("---incidencia---");
+
+            XWPFTable resumen = d.createTable(4, 3);
+            resumen.getRow(0).getCell(0).setText("ID");
+            resumen.getRow(0).getCell(1).setText("Título");
+            resumen.getRow(0).getCell(2).setText("Estado");
+            resumen.getRow(1).getCell(0).setText("---fila---");
+            resumen.getRow(2).getCell(0).setText("{{ID}}");
+            resumen.getRow(2).getCell(1).setText("{{Title}}");
+            resumen.getRow(2).getCell(2).setText("{{Status}}");
+            resumen.getRow(3).getCell(0).setText("---fila---");
+
+            d.createHeader(HeaderFooterType.DEFAULT).createParagraph().createRun().setText("{{Client}} - {{month}} {{year}}");
+            return escribir(d);
+        }
+    }
+
+    /**
+     * Crea un DOCX grande sin bloques, con un párrafo y una fila de tabla con placeholders por cada fila,
+     * para medir el recorrido de sustitución global.
+     * @param filas Número de párrafos y filas.
+     * @return Bytes del DOCX.
+     * @throws IOException Si falla la escritura en memoria.
+     */
+    static byte[] docxGrande(int filas) throws IOException {
+        try (XWPFDocument d = new XWPFDocument()) {
+            XWPFTable tabla = d.createTable(1, 2);
+            for (int i = 0; i < filas; i++) {
+                d.createParagraph().createRun().setText("Línea " + i + " de {{Client}} en {{month}}");
+                if (i > 0) tabla.createRow();
+                tabla.getRow(i).getCell(0).setText("Texto fijo " + i);
+                tabla.getRow(i).getCell(1).setText("{{year}}");
+            }
+            return escribir(d);
+        }
+    }
+
+    /**
+     * Crea la plantilla PPTX de referencia, con un cuadro de texto por cada tipo de bloque.
+     * @return Bytes del PPTX.
+     * @throws IOException Si falla la escritura en memoria.
+     */
+    static byte[] pptx() throws IOException {
+        try (XMLSlideShow ppt = new XMLSlideShow()) {
+            XSLFSlide slide = ppt.createSlide();
+            XSLFTextBox resumen = slide.createTextBox();
+            resumen.setAnchor(new Rectangle(10, 10, 600, 60));
+            resumen.clearText();
+            XSLFTextParagraph titulo = resumen.addNewTextParagraph();
+            titulo.addNewTextRun().setText("Resumen {{mon");
+            titulo.addNewTextRun().setText("th}} {{year}}: {{incidenciaT}} incidencias");
+            int y = 80;
+            for (String bloque : BLOQUES_PPTX) {
+                XSLFTextBox caja = slide.createTextBox();
+                caja.setAnchor(new Rectangle(10, y, 600, 120));
+                caja.clearText();
+                caja.addNewTextParagraph().addNewTextRun().setText("---" + bloque + "---");
+                caja.addNewTextParagraph().addNewTextRun().setText("{{title}}");
+                caja.addNewTextParagraph().addNewTextRun().setText("{{description}}");
+                caja.addNewTextParagraph().addNewTextRun().setText("---" + bloque + "---");
+                y += 130;
+            }
+            ByteArrayOutputStream salida = new ByteArrayOutputStream();
+            ppt.write(salida);
+            return salida.toByteArray();
+        }
+    }
+
+    /**
+     * @return Datos globales comunes a DOCX y PPTX.
+     */
+    static HashMap<String, String> globales() {
+        HashMap<String, String> datos = new HashMap<>();
+        datos.put("{{Client}}", "Serveo");
+        datos.put("{{month}}", "noviembre");
+        datos.put("{{year}}", "2024");
+        datos.put("{{incidenciaT}}", "9");
+        return datos;
+    }
+
+    /**
+     * Genera las filas de un bloque de incidencias.
+     * @param filas Número de filas.
+     * @return Lista de datos por fila.
+     */
+    static List<HashMap<String, String>> incidencias(int filas) {
+        List<HashMap<String, String>> lista = new ArrayList<>(filas);
+        for (int i = 1; i <= filas; i++) {
+            HashMap<String, String> fila = new HashMap<>();
+            fila.put("{{ID}}", String.valueOf(i));
+            fila.put("{{Title}}", "I241119_" + i);
+            fila.put("{{Description}}", "Descripción de la incidencia " + i + " reportada por el cliente.");
+            fila.put("{{Priority}}", i % 3 == 0 ? "Alta" : "Normal");
+            fila.put("{{Status}}", i % 2 == 0 ? "Completado" : "Pendiente");
+            fila.put("{{title}}", "Título " + i);
+            fila.put("{{description}}", "Descripción " + i);
+            lista.add(fila);
+        }
+        return lista;
+    }
+
+    /**
+     * Guarda unos bytes en un archivo temporal que se borra al salir.
+     * @param contenido Bytes a guardar.
+     * @param sufijo    Extensión del archivo.
+     * @return Ruta del archivo.
+     * @throws IOException Si no se puede escribir el archivo.
+     */
+    static Path temporal(byte[] contenido, String sufijo) throws IOException {
+        Path ruta = Files.createTempFile("plantilla", sufijo);
+        ruta.toFile().deleteOnExit();
+        return Files.write(ruta, contenido);
+    }
+
+    private static byte[] escribir(XWPFDocument d) throws IOException {
+        ByteArrayOutputStream salida = new ByteArrayOutputStream();
+        d.write(salida);
+        return salida.toByteArray();
+    }
+}
@@ -0,0 +1,52 @@
+package com.ejemplo;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks del generador PPTX con varios tipos de bloque en la misma diapositiva.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PptxBenchmark {
+
+    @Param({"10", "1000", "50000"})
+    public int filas;
+
+    private final PptxGenerador generador = new PptxGenerador();
+    private String plantillaPath;
+    private String salidaPattern;
+    private Map<String, String> globales;
+    private Map<String, List<Map<String, String>>> bloques;
+
+    @Setup(Level.Trial)
+    public void preparar() throws IOException {
+        plantillaPath = PlantillasSinteticas.temporal(PlantillasSinteticas.pptx(), ".pptx").toString();
+        Path salida = Files.createTempDirectory("benchmark-pptx");
+        salida.toFile().deleteOnExit();
+        salidaPattern = salida.resolve("Resumen {{month}}_{{year}}.pptx").toString();
+        globales = PlantillasSinteticas.globales();
+        List<Map<String, String>> filasBloque = new ArrayList<>(PlantillasSinteticas.incidencias(filas));
+        bloques = new HashMap<>();
+        for (String bloque : PlantillasSinteticas.BLOQUES_PPTX) {
+            bloques.put(bloque, filasBloque);
+        }
+    }
+
+    /**
+     * Generación completa con los tres tipos de bloque de la plantilla.
+     */
+    @Benchmark
+    public String generar() throws IOException {
+        return generador.generarPptx(plantillaPath, salidaPattern, globales, bloques);
+    }
+}
@@ -0,0 +1,26 @@
+package com.ejemplo;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmark de la construcción de la ruta de salida, que se ejecuta una vez por informe.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RutaSalidaBenchmark {
+
+    private final String patron = "C:\\Informes Automatizados\\{{Client}}\\Test {{Client}} {{month}} {{year}}.docx";
+    private final HashMap<String, String> globales = PlantillasSinteticas.globales();
+
+    @Benchmark
+    public String buildOutputPath() {
+        return DocxGenerador.buildOutputPath(patron, globales);
+    }
+}
@@ -0,0 +1,208 @@
+package com.ejemplo;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.xmlbeans.XmlCursor;
+import org.apache.xmlbeans.XmlObject;
+
+/**
+ * Caché de fragmentos de bloque ya renderizados, compartida por todos los informes del proceso.
+ * <p>
+ * Muchas filas de un bloque producen exactamente el mismo párrafo o fila de tabla para buena parte
+ * del bloque (la misma prioridad, el mismo estado, la misma cabecera...). {@link IndiceBloques} guarda
+ * aquí cada elemento del bloque ya sustituido, con una clave formada por el elemento de la plantilla,
+ * sus textos antes de sustituir y los valores de los placeholders que contiene, y cuando otra fila (de
+ * este informe o de otro de la misma plantilla) da los mismos valores copia el elemento guardado en
+ * lugar de copiar el de la plantilla y volver a sustituirlo.
+ * <p>
+ * La caché está acotada por una estimación de la memoria que ocupan los fragmentos
+ * ({@link #setCapacidad(long)}) y descarta primero los menos usados.
+ */
+public final class CacheFragmentos {
+
+    /**
+     * Identifica un fragmento renderizado.
+     */
+    static final class Clave {
+        private final Object plantilla;
+        private final int indice;
+        private final String textos;
+        private final String[] valores;
+        private final int hash;
+
+        /**
+         * @param plantilla Elemento de la plantilla que contiene el fragmento (su nodo en el índice de bloques).
+         * @param indice    Posición del fragmento entre los hijos de ese elemento.
+         * @param textos    Textos del fragmento antes de sustituir.
+         * @param valores   Valores de los placeholders del fragmento, en orden de aparición.
+         */
+        Clave(Object plantilla, int indice, String textos, String[] valores) {
+            this.plantilla = plantilla;
+            this.indice = indice;
+            this.textos = textos;
+            this.valores = valores;
+            int h = System.identityHashCode(plantilla);
+            h = h * 31 + indice;
+            h = h * 31 + textos.hashCode();
+            this.hash = h * 31 + Arrays.hashCode(valores);
+        }
+
+        String[] valores() {
+            return valores;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Clave)) return false;
+            Clave otra = (Clave) o;
+            return plantilla == otra.plantilla && indice == otra.indice && hash == otra.hash
+                    && textos.equals(otra.textos) && Arrays.equals(valores, otra.valores);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Entrada {
+        private final XmlObject fragmento;
+        private final long bytes;
+
+        private Entrada(XmlObject fragmento, long bytes) {
+            this.fragmento = fragmento;
+            this.bytes = bytes;
+        }
+    }
+
+    private static final Map<Clave, Entrada> ENTRADAS = new LinkedHashMap<>(256, 0.75f, true);
+    private static volatile long capacidad = 16L * 1024 * 1024;
+    private static long ocupados;
+    private static final AtomicLong ACIERTOS = new AtomicLong();
+    private static final AtomicLong FALLOS = new AtomicLong();
+
+    private CacheFragmentos() {
+    }
+
+    /**
+     * Copia delante de {@code destino} el fragmento guardado con la clave indicada, si lo hay.
+     * @param clave   Clave del fragmento.
+     * @param destino Posición donde se inserta la copia; queda detrás de ella.
+     * @return {@code true} si el fragmento estaba en la caché y se ha copiado.
+     */
+    static boolean copiar(Clave clave, XmlCursor destino) {
+        Entrada entrada;
+        synchronized (ENTRADAS) {
+            entrada = ENTRADAS.get(clave);
+        }
+        if (entrada == null) {
+            FALLOS.incrementAndGet();
+            return false;
+        }
+        ACIERTOS.incrementAndGet();
+        try (XmlCursor origen = entrada.fragmento.newCursor()) {
+            origen.copyXml(destino);
+        }
+        return true;
+    }
+
+    /**
+     * Guarda una copia de un fragmento ya renderizado.
+     * @param clave      Clave del fragmento.
+     * @param renderizado Fragmento renderizado; se copia, de modo que el documento puede seguir modificándose.
+     * @param bytes      Memoria estimada que ocupa el fragmento.
+     */
+    static void guardar(Clave clave, XmlObject renderizado, long bytes) {
+        if (bytes > getCapacidad()) return;
+        // La copia vive en su propio documento XML, independiente del informe que la ha generado.
+        XmlObject fragmento;
+        try (XmlCursor cursor = XmlObject.Factory.newInstance().newCursor()) {
+            cursor.toEndDoc();
+            try (XmlCursor origen = renderizado.newCursor()) {
+                origen.copyXml(cursor);
+            }
+            cursor.toStartDoc();
+            cursor.toFirstChild();
+            fragmento = cursor.getObject();
+        }
+        synchronized (ENTRADAS) {
+            Entrada anterior = ENTRADAS.put(clave, new Entrada(fragmento, bytes));
+            if (anterior != null) {
+                ocupados -= anterior.bytes;
+            }
+            ocupados += bytes;
+            recortar();
+        }
+    }
+
+    /**
+     * Cambia la memoria máxima estimada que ocupan los fragmentos de la caché (16 MB por defecto).
+     * @param bytes Capacidad en bytes; 0 desactiva la caché.
+     */
+    public static void setCapacidad(long bytes) {
+        if (bytes < 0) throw new IllegalArgumentException("La capacidad no puede ser negativa: " + bytes);
+        synchronized (ENTRADAS) {
+            capacidad = bytes;
+            recortar();
+        }
+    }
+
+    public static long getCapacidad() {
+        return capacidad;
+    }
+
+    /**
+     * @return La memoria estimada que ocupan ahora los fragmentos de la caché.
+     */
+    public static long getOcupados() {
+        synchronized (ENTRADAS) {
+            return ocupados;
+        }
+    }
+
+    /**
+     * @return Las veces que un fragmento se ha copiado de la caché en lugar de renderizarse.
+     */
+    public static long getAciertos() {
+        return ACIERTOS.get();
+    }
+
+    /**
+     * @return Las veces que se ha buscado un fragmento que no estaba en la caché.
+     */
+    public static long getFallos() {
+        return FALLOS.get();
+    }
+
+    /**
+     * @return Proporción de búsquedas resueltas desde la caché (0 si no ha habido ninguna).
+     */
+    public static double getTasaAciertos() {
+        long aciertos = ACIERTOS.get();
+        long total = aciertos + FALLOS.get();
+        return total == 0 ? 0 : (double) aciertos / total;
+    }
+
+    /**
+     * Elimina todos los fragmentos de la caché.
+     */
+    public static void limpiar() {
+        synchronized (ENTRADAS) {
+            ENTRADAS.clear();
+            ocupados = 0;
+        }
+    }
+
+    private static void recortar() {
+        Iterator<Entrada> it = ENTRADAS.values().iterator();
+        while (ocupados > capacidad && it.hasNext()) {
+            ocupados -= it.next().bytes;
+            it.remove();
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package com.ejemplo;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.apache.poi.poifs.filesystem.FileMagic;
+import org.apache.poi.sl.usermodel.PictureData.PictureType;
+
+/**
+ * Caché de imágenes compartida por todos los informes del proceso, para los placeholders
+ * {@code {{img:nombre}}}. Cada imagen se lee, se identifica su formato y se decodifica su cabecera
+ * (dimensiones) una sola vez, y la misma {@link Imagen} se entrega a todos los informes que la usan:
+ * el logo de un cliente se lee una vez por lote, no una vez por informe ni por bloque.
+ * <p>
+ * Las entradas se indexan por ruta absoluta y se validan contra la fecha de modificación y el tamaño
+ * del archivo, como en {@link CachePlantillas}. La caché está acotada por el total de bytes de las
+ * imágenes que conserva ({@link #setCapacidad(long)}) y descarta primero las menos usadas; una imagen
+ * mayor que la capacidad se devuelve sin guardarla.
+ */
+public final class CacheImagenes {
+
+    /** Resolución con la que se calcula el tamaño de una imagen a partir de sus píxeles. */
+    static final int PPP = 96;
+
+    /** EMU (unidad de medida de OOXML) por píxel a {@link #PPP} puntos por pulgada. */
+    static final long EMU_POR_PIXEL = 914_400L / PPP;
+
+    /**
+     * Imagen leída y decodificada, lista para añadirse a un documento o presentación.
+     */
+    public static final class Imagen {
+        private final String ruta;
+        private final byte[] contenido;
+        private final PictureType tipo;
+        private final int anchoPx;
+        private final int altoPx;
+        private final byte[] huella;
+
+        private Imagen(String ruta, byte[] contenido, PictureType tipo, int anchoPx, int altoPx) {
+            this.ruta = ruta;
+            this.contenido = contenido;
+            this.tipo = tipo;
+            this.anchoPx = anchoPx;
+            this.altoPx = altoPx;
+            this.huella = CachePlantillas.huella(contenido);
+        }
+
+        /**
+         * @return La ruta absoluta del archivo de la imagen.
+         */
+        public String getRuta() {
+            return ruta;
+        }
+
+        /**
+         * @return El formato de la imagen.
+         */
+        public PictureType getTipo() {
+            return tipo;
+        }
+
+        public int getAnchoPx() {
+            return anchoPx;
+        }
+
+        public int getAltoPx() {
+            return altoPx;
+        }
+
+        /**
+         * @return El ancho de la imagen en EMU a {@value CacheImagenes#PPP} ppp.
+         */
+        public long getAnchoEmu() {
+            return anchoPx * EMU_POR_PIXEL;
+        }
+
+        /**
+         * @return El alto de la imagen en EMU a {@value CacheImagenes#PPP} ppp.
+         */
+        public long getAltoEmu() {
+            return altoPx * EMU_POR_PIXEL;
+        }
+
+        /**
+         * Contenido del archivo, compartido entre todos los usuarios de la imagen: no debe modificarse.
+         */
+        byte[] contenido() {
+            return contenido;
+        }
+
+        /**
+         * Huella SHA-256 del contenido, compartida: no debe modificarse.
+         */
+        byte[] huella() {
+            return huella;
+        }
+    }
+
+    private static final class Entrada {
+        private final long modificacion;
+        private final long tamano;
+        private final Imagen imagen;
+
+        private Entrada(long modificacion, long tamano, Imagen imagen) {
+            this.modificacion = modificacion;
+            this.tamano = tamano;
+            this.imagen = imagen;
+        }
+    }
+
+    private static final Map<Path, Entrada> ENTRADAS = new LinkedHashMap<>(16, 0.75f, true);
+    private static long capacidad = 64L * 1024 * 1024;
+    private static long ocupados;
+    private static final AtomicLong ACIERTOS = new AtomicLong();
+    private static final AtomicLong LECTURAS = new AtomicLong();
+
+    private CacheImagenes() {
+    }
+
+    /**
+     * Devuelve la imagen de la ruta indicada, leyéndola solo si no está en la caché o si el archivo ha cambiado.
+     * @param ruta Ruta del archivo de la imagen (PNG, JPEG, GIF, BMP o TIFF).
+     * @return La imagen.
+     * @throws IOException Si el archivo no se puede leer o no es una imagen de un formato admitido.
+     */
+    public static Imagen obtener(String ruta) throws IOException {
+        Path path = Paths.get(ruta).toAbsolutePath().normalize();
+        BasicFileAttributes atributos;
+        try {
+            atributos = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            throw new IOException("No existe la imagen: " + path, e);
+        }
+        long modificacion = atributos.lastModifiedTime().toMillis();
+        long tamano = atributos.size();
+        synchronized (ENTRADAS) {
+            Entrada entrada = ENTRADAS.get(path);
+            if (entrada != null && entrada.modificacion == modificacion && entrada.tamano == tamano) {
+                ACIERTOS.incrementAndGet();
+                return entrada.imagen;
+            }
+        }
+
+        // La lectura y la decodificación se hacen fuera del cerrojo, para no bloquear a los demás informes.
+        Imagen imagen = leer(path);
+        LECTURAS.incrementAndGet();
+        synchronized (ENTRADAS) {
+            Entrada anterior = ENTRADAS.remove(path);
+            if (anterior != null) {
+                ocupados -= anterior.imagen.contenido.length;
+            }
+            if (imagen.contenido.length <= capacidad) {
+                ENTRADAS.put(path, new Entrada(modificacion, tamano, imagen));
+                ocupados += imagen.contenido.length;
+                recortar();
+            }
+        }
+        return imagen;
+    }
+
+    /**
+     * Cambia el máximo de bytes de imagen que conserva la caché (64 MB por defecto).
+     * @param bytes Capacidad en bytes; 0 desactiva la caché.
+     */
+    public static void setCapacidad(long bytes) {
+        if (bytes < 0) throw new IllegalArgumentException("La capacidad no puede ser negativa: " + bytes);
+        synchronized (ENTRADAS) {
+            capacidad = bytes;
+            recortar();
+        }
+    }
+
+    public static long getCapacidad() {
+        synchronized (ENTRADAS) {
+            return capacidad;
+        }
+    }
+
+    /**
+     * @return Los bytes de imagen que conserva ahora la caché.
+     */
+    public static long getOcupados() {
+        synchronized (ENTRADAS) {
+            return ocupados;
+        }
+    }
+
+    /**
+     * @return Las veces que una imagen se ha servido desde la caché sin leer el archivo.
+     */
+    public static long getAciertos() {
+        return ACIERTOS.get();
+    }
+
+    /**
+     * @return Las veces que se ha tenido que leer y decodificar un archivo de imagen.
+     */
+    public static long getLecturas() {
+        return LECTURAS.get();
+    }
+
+    /**
+     * Elimina todas las imágenes de la caché.
+     */
+    public static void limpiar() {
+        synchronized (ENTRADAS) {
+            ENTRADAS.clear();
+            ocupados = 0;
+        }
+    }
+
+    private static void recortar() {
+        Iterator<Entrada> it = ENTRADAS.values().iterator();
+        while (ocupados > capacidad && it.hasNext()) {
+            ocupados -= it.next().imagen.contenido.length;
+            it.remove();
+        }
+    }
+
+    private static Imagen leer(Path path) throws IOException {
+        byte[] contenido = Files.readAllBytes(path);
+        PictureType tipo = tipo(contenido);
+        if (tipo == null) {
+            throw new IOException("Formato de imagen no admitido (se espera PNG, JPEG, GIF, BMP o TIFF): " + path);
+        }
+        // Solo se decodifica la cabecera: basta para conocer las dimensiones sin cargar los píxeles.
+        try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(contenido))) {
+            Iterator<ImageReader> lectores = ImageIO.getImageReaders(in);
+            if (!lectores.hasNext()) {
+                throw new IOException("No se puede decodificar la imagen: " + path);
+            }
+            ImageReader lector = lectores.next();
+            try {
+                lector.setInput(in, true, true);
+                return new Imagen(path.toString(), contenido, tipo, lector.getWidth(0), lector.getHeight(0));
+            } finally {
+                lector.dispose();
+            }
+        }
+    }
+
+    private static PictureType tipo(byte[] contenido) {
+        switch (FileMagic.valueOf(contenido)) {
+            case PNG: return PictureType.PNG;
+            case JPEG: return PictureType.JPEG;
+            case GIF: return PictureType.GIF;
+            case BMP: return PictureType.BMP;
+            case TIFF: return PictureType.TIFF;
+            default: return null;
+        }
+    }
+}
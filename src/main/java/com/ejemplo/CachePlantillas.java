@@ -0,0 +1,205 @@
+package com.ejemplo;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caché acotada (LRU) de plantillas compiladas, indexada por la ruta absoluta del archivo.
+ * Cada entrada se valida contra la fecha de modificación y el tamaño del archivo; si cambian,
+ * se vuelve a leer el archivo y solo se recompila cuando su huella SHA-256 es distinta.
+ * Con una {@link Persistencia}, las plantillas compiladas sobreviven al proceso (ver {@link ManifiestoPlantillas}).
+ *
+ * @param <T> Tipo de la plantilla compilada.
+ */
+public class CachePlantillas<T> {
+
+    /**
+     * Función que compila el contenido binario de una plantilla.
+     * @param <T> Tipo de la plantilla compilada.
+     */
+    public interface Compilador<T> {
+        T compilar(byte[] contenido) throws IOException;
+    }
+
+    /**
+     * Guarda las plantillas compiladas fuera del proceso para no tener que recompilarlas en el próximo arranque.
+     * @param <T> Tipo de la plantilla compilada.
+     */
+    public interface Persistencia<T> {
+        /**
+         * @param ruta   Ruta absoluta de la plantilla.
+         * @param huella Huella SHA-256 del contenido actual de la plantilla.
+         * @return La plantilla compilada guardada para ese contenido, o {@code null} si no hay ninguna válida.
+         */
+        T leer(Path ruta, byte[] huella);
+
+        /**
+         * @param ruta      Ruta absoluta de la plantilla.
+         * @param huella    Huella SHA-256 del contenido compilado.
+         * @param plantilla Plantilla recién compilada.
+         */
+        void guardar(Path ruta, byte[] huella, T plantilla);
+    }
+
+    private static final class Entrada<T> {
+        private final long modificacion;
+        private final long tamano;
+        private final byte[] huella;
+        private final T plantilla;
+
+        private Entrada(long modificacion, long tamano, byte[] huella, T plantilla) {
+            this.modificacion = modificacion;
+            this.tamano = tamano;
+            this.huella = huella;
+            this.plantilla = plantilla;
+        }
+    }
+
+    private final Compilador<T> compilador;
+    private final Persistencia<T> persistencia;
+    private final Map<Path, Entrada<T>> entradas;
+    private final ConcurrentHashMap<Path, CompletableFuture<Entrada<T>>> cargas = new ConcurrentHashMap<>();
+
+    /**
+     * Crea una caché con la capacidad indicada.
+     * @param capacidad  Número máximo de plantillas compiladas que se conservan.
+     * @param compilador Función que compila el contenido de una plantilla.
+     */
+    public CachePlantillas(int capacidad, Compilador<T> compilador) {
+        this(capacidad, compilador, null);
+    }
+
+    /**
+     * Crea una caché con la capacidad indicada que guarda las plantillas compiladas fuera del proceso.
+     * @param capacidad    Número máximo de plantillas compiladas que se conservan.
+     * @param compilador   Función que compila el contenido de una plantilla.
+     * @param persistencia Almacén de plantillas compiladas; {@code null} para compilarlas siempre.
+     */
+    public CachePlantillas(int capacidad, Compilador<T> compilador, Persistencia<T> persistencia) {
+        this.compilador = compilador;
+        this.persistencia = persistencia;
+        this.entradas = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, Entrada<T>> eldest) {
+                return size() > capacidad;
+            }
+        };
+    }
+
+    /**
+     * Devuelve la plantilla compilada para la ruta indicada, compilándola si no está en la caché
+     * o si el archivo ha cambiado desde la última compilación.
+     * <p>
+     * La lectura y la compilación se hacen fuera del bloqueo de la caché, así que recompilar una plantilla
+     * no detiene los informes de las demás. Si varios hilos piden a la vez una plantilla que hay que
+     * (re)compilar, solo uno la compila y el resto espera su resultado.
+     * @param ruta Ruta del archivo plantilla.
+     * @return La plantilla compilada.
+     * @throws IOException Si ocurre un error al leer o compilar la plantilla.
+     */
+    public T obtener(String ruta) throws IOException {
+        Path path = Paths.get(ruta).toAbsolutePath().normalize();
+        while (true) {
+            BasicFileAttributes atributos = Files.readAttributes(path, BasicFileAttributes.class);
+            long modificacion = atributos.lastModifiedTime().toMillis();
+            long tamano = atributos.size();
+
+            Entrada<T> entrada = vigente(path);
+            if (entrada != null && entrada.modificacion == modificacion && entrada.tamano == tamano) {
+                return entrada.plantilla;
+            }
+
+            CompletableFuture<Entrada<T>> carga = new CompletableFuture<>();
+            CompletableFuture<Entrada<T>> otra = cargas.putIfAbsent(path, carga);
+            if (otra != null) {
+                // Otro hilo ya está cargando la plantilla: se espera y se vuelve a comprobar el archivo,
+                // por si ha cambiado mientras tanto.
+                Entrada<T> cargada = esperar(otra);
+                if (cargada.modificacion == modificacion && cargada.tamano == tamano) {
+                    return cargada.plantilla;
+                }
+                continue;
+            }
+            try {
+                Entrada<T> cargada = cargar(path, modificacion, tamano, entrada);
+                carga.complete(cargada);
+                return cargada.plantilla;
+            } catch (IOException | RuntimeException | Error e) {
+                carga.completeExceptionally(e);
+                throw e;
+            } finally {
+                cargas.remove(path, carga);
+            }
+        }
+    }
+
+    private Entrada<T> cargar(Path path, long modificacion, long tamano, Entrada<T> anterior) throws IOException {
+        byte[] contenido = Files.readAllBytes(path);
+        byte[] huella = huella(contenido);
+        if (anterior != null && Arrays.equals(anterior.huella, huella)) {
+            // El archivo se ha tocado pero su contenido es el mismo: basta con actualizar la marca.
+            return guardar(path, new Entrada<>(modificacion, tamano, huella, anterior.plantilla));
+        }
+
+        T plantilla = persistencia != null ? persistencia.leer(path, huella) : null;
+        if (plantilla == null) {
+            plantilla = compilador.compilar(contenido);
+            if (persistencia != null) {
+                persistencia.guardar(path, huella, plantilla);
+            }
+        }
+        return guardar(path, new Entrada<>(modificacion, tamano, huella, plantilla));
+    }
+
+    private synchronized Entrada<T> vigente(Path path) {
+        return entradas.get(path);
+    }
+
+    private synchronized Entrada<T> guardar(Path path, Entrada<T> entrada) {
+        entradas.put(path, entrada);
+        return entrada;
+    }
+
+    private static <T> Entrada<T> esperar(CompletableFuture<Entrada<T>> carga) throws IOException {
+        try {
+            return carga.join();
+        } catch (CompletionException e) {
+            Throwable causa = e.getCause();
+            if (causa instanceof IOException) throw new IOException(causa.getMessage(), causa);
+            if (causa instanceof RuntimeException) throw (RuntimeException) causa;
+            if (causa instanceof Error) throw (Error) causa;
+            throw e;
+        }
+    }
+
+    /**
+     * Elimina todas las plantillas compiladas de la caché.
+     */
+    public synchronized void limpiar() {
+        entradas.clear();
+    }
+
+    /**
+     * Calcula la huella SHA-256 de un contenido binario.
+     * @param contenido Bytes de los que se calcula la huella.
+     * @return La huella SHA-256.
+     */
+    static byte[] huella(byte[] contenido) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(contenido);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no está disponible en esta JVM.", e);
+        }
+    }
+}
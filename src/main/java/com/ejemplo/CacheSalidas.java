@@ -0,0 +1,305 @@
+package com.ejemplo;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Caché en disco de informes generados, direccionada por contenido.
+ * <p>
+ * La clave de cada informe es la huella SHA-256 del tipo de generador, el contenido de la plantilla,
+ * los datos globales y las filas de todos los bloques. Si un informe con la misma clave ya se generó,
+ * se copia el archivo guardado a la ruta de salida en lugar de volver a renderizarlo; así, al relanzar
+ * un lote completo solo se regeneran los clientes cuyos datos o plantilla han cambiado.
+ * <p>
+ * Se activa para todos los generadores con {@link #setActiva(CacheSalidas)}. Solo la usan los métodos
+ * que escriben en una ruta ({@link DocxGenerador#generateDocx}, {@link PptxGenerador#generarPptx},
+ * {@link DocxStreamingGenerador#generateDocx} y {@link XlsxGenerador#generateXlsx(String, String, Map, Map)});
+ * los informes con alguna {@link FuenteFilas} no se cachean, porque calcular la huella consumiría sus filas.
+ * Las imágenes de los placeholders {@code {{img:nombre}}} entran en la clave por su contenido, no por su ruta.
+ * Si cambia la forma de renderizar los informes hay que vaciar la caché con {@link #limpiar()}.
+ */
+public final class CacheSalidas {
+
+    /**
+     * Resultado de la consulta a la caché para un informe.
+     */
+    public enum Resultado {
+        /** El informe se ha copiado de la caché sin renderizarlo. */
+        REUTILIZADO,
+        /** El informe se ha renderizado y guardado en la caché. */
+        GENERADO,
+        /** No había caché activa o el informe no se puede cachear. */
+        SIN_CACHE
+    }
+
+    /**
+     * Genera el informe en su ruta de salida.
+     */
+    @FunctionalInterface
+    interface Generacion {
+        void generar() throws IOException;
+    }
+
+    /** Se incluye en la huella para invalidar las entradas si cambia su formato o la forma de generar los informes. */
+    private static final int VERSION_FORMATO = 4;
+
+    private static volatile CacheSalidas activa;
+
+    private static final ThreadLocal<Resultado> ULTIMO = new ThreadLocal<>();
+
+    private static final class HuellaPlantilla {
+        private final long modificacion;
+        private final long tamano;
+        private final byte[] huella;
+
+        private HuellaPlantilla(long modificacion, long tamano, byte[] huella) {
+            this.modificacion = modificacion;
+            this.tamano = tamano;
+            this.huella = huella;
+        }
+    }
+
+    private final Path directorio;
+    private final Map<Path, HuellaPlantilla> plantillas = new HashMap<>();
+    private final AtomicLong reutilizados = new AtomicLong();
+    private final AtomicLong generados = new AtomicLong();
+
+    /**
+     * Crea una caché que guarda los informes en el directorio indicado (se crea si no existe).
+     * @param directorio Directorio de la caché.
+     * @throws IOException Si no se puede crear el directorio.
+     */
+    public CacheSalidas(Path directorio) throws IOException {
+        this.directorio = Files.createDirectories(directorio);
+    }
+
+    /**
+     * Activa una caché para todos los generadores.
+     * @param cache Caché a usar; {@code null} para desactivarla.
+     */
+    public static void setActiva(CacheSalidas cache) {
+        activa = cache;
+    }
+
+    /**
+     * @return La caché activa, o {@code null} si no hay ninguna.
+     */
+    public static CacheSalidas getActiva() {
+        return activa;
+    }
+
+    /**
+     * @return El resultado de la última consulta a la caché hecha en el hilo actual, o {@code null} si no hubo ninguna.
+     */
+    static Resultado ultimoResultado() {
+        return ULTIMO.get();
+    }
+
+    static void reiniciarResultado() {
+        ULTIMO.remove();
+    }
+
+    /**
+     * Copia el informe de la caché activa si ya se generó con los mismos datos; si no, lo genera y lo guarda.
+     * @param tipo          Identificador del generador (los DOCX de distintos generadores no son intercambiables).
+     * @param plantillaPath Ruta de la plantilla.
+     * @param globales      Datos globales.
+     * @param bloques       Filas de los bloques.
+     * @param salida        Ruta final del informe.
+     * @param generacion    Generación del informe en {@code salida}.
+     * @throws IOException Si falla la generación o el acceso a la caché.
+     */
+    static void generar(String tipo, String plantillaPath, Map<String, String> globales,
+                        Map<String, ? extends Iterable<? extends Map<String, String>>> bloques,
+                        String salida, Generacion generacion) throws IOException {
+        CacheSalidas cache = activa;
+        String clave = cache != null ? cache.clave(tipo, Paths.get(plantillaPath), globales, bloques) : null;
+        if (clave == null) {
+            generacion.generar();
+            ULTIMO.set(Resultado.SIN_CACHE);
+            return;
+        }
+        Path guardado = cache.ruta(clave, salida);
+        if (Files.isRegularFile(guardado)) {
+            Files.copy(guardado, Paths.get(salida), StandardCopyOption.REPLACE_EXISTING);
+            cache.reutilizados.incrementAndGet();
+            ULTIMO.set(Resultado.REUTILIZADO);
+            Metricas.getOyente().informeReutilizado(salida);
+            return;
+        }
+        generacion.generar();
+        cache.guardar(Paths.get(salida), guardado);
+        cache.generados.incrementAndGet();
+        ULTIMO.set(Resultado.GENERADO);
+    }
+
+    /**
+     * @return Informes copiados de la caché desde que se creó.
+     */
+    public long getReutilizados() {
+        return reutilizados.get();
+    }
+
+    /**
+     * @return Informes renderizados y guardados en la caché desde que se creó.
+     */
+    public long getGenerados() {
+        return generados.get();
+    }
+
+    /**
+     * Elimina todos los informes guardados.
+     * @throws IOException Si no se puede borrar algún archivo.
+     */
+    public void limpiar() throws IOException {
+        List<Path> rutas;
+        try (Stream<Path> archivos = Files.walk(directorio)) {
+            rutas = new ArrayList<>();
+            archivos.filter(p -> !p.equals(directorio)).forEach(rutas::add);
+        }
+        Collections.reverse(rutas);
+        for (Path ruta : rutas) {
+            Files.deleteIfExists(ruta);
+        }
+        synchronized (plantillas) {
+            plantillas.clear();
+        }
+    }
+
+    /**
+     * Calcula la clave de un informe.
+     * @return La huella en hexadecimal, o {@code null} si algún bloque es una {@link FuenteFilas}.
+     */
+    String clave(String tipo, Path plantilla, Map<String, String> globales,
+                 Map<String, ? extends Iterable<? extends Map<String, String>>> bloques) throws IOException {
+        for (Iterable<?> filas : bloques.values()) {
+            if (filas instanceof FuenteFilas) return null;
+        }
+        MessageDigest md = sha256();
+        actualizar(md, VERSION_FORMATO);
+        actualizar(md, tipo);
+        md.update(huellaPlantilla(plantilla));
+        actualizar(md, globales);
+        Map<String, ? extends Iterable<? extends Map<String, String>>> ordenados = new TreeMap<>(bloques);
+        actualizar(md, ordenados.size());
+        for (Map.Entry<String, ? extends Iterable<? extends Map<String, String>>> bloque : ordenados.entrySet()) {
+            actualizar(md, bloque.getKey());
+            int filas = 0;
+            for (Map<String, String> fila : bloque.getValue()) {
+                actualizar(md, fila);
+                filas++;
+            }
+            actualizar(md, filas);
+        }
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : md.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Huella del contenido de la plantilla; solo se vuelve a leer el archivo si cambian su fecha o su tamaño.
+     */
+    private byte[] huellaPlantilla(Path plantilla) throws IOException {
+        Path path = plantilla.toAbsolutePath().normalize();
+        BasicFileAttributes atributos = Files.readAttributes(path, BasicFileAttributes.class);
+        long modificacion = atributos.lastModifiedTime().toMillis();
+        synchronized (plantillas) {
+            HuellaPlantilla huella = plantillas.get(path);
+            if (huella != null && huella.modificacion == modificacion && huella.tamano == atributos.size()) {
+                return huella.huella;
+            }
+        }
+        HuellaPlantilla nueva = new HuellaPlantilla(modificacion, atributos.size(),
+                CachePlantillas.huella(Files.readAllBytes(path)));
+        synchronized (plantillas) {
+            plantillas.put(path, nueva);
+        }
+        return nueva.huella;
+    }
+
+    private Path ruta(String clave, String salida) {
+        String nombre = Paths.get(salida).getFileName().toString();
+        int punto = nombre.lastIndexOf('.');
+        String extension = punto < 0 ? "" : nombre.substring(punto);
+        return directorio.resolve(clave.substring(0, 2)).resolve(clave + extension);
+    }
+
+    /**
+     * Guarda una copia del informe generado. Se escribe en un temporal y se mueve a su sitio, para que otro
+     * proceso o hilo que genere el mismo informe nunca lea un archivo a medias.
+     */
+    private void guardar(Path salida, Path guardado) throws IOException {
+        Files.createDirectories(guardado.getParent());
+        Path temporal = Files.createTempFile(guardado.getParent(), "tmp", null);
+        try {
+            Files.copy(salida, temporal, StandardCopyOption.REPLACE_EXISTING);
+            try {
+                Files.move(temporal, guardado, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporal, guardado, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporal);
+        }
+    }
+
+    private static void actualizar(MessageDigest md, Map<String, String> datos) throws IOException {
+        Map<String, String> ordenados = datos instanceof TreeMap ? datos : new TreeMap<>(datos);
+        actualizar(md, ordenados.size());
+        for (Map.Entry<String, String> entrada : ordenados.entrySet()) {
+            actualizar(md, entrada.getKey());
+            actualizar(md, entrada.getValue());
+            // Si el logo cambia en disco con la misma ruta, el informe también debe regenerarse.
+            if (MotorSustitucion.esPlaceholderImagen(entrada.getKey()) && entrada.getValue() != null
+                    && !entrada.getValue().isBlank()) {
+                md.update(CacheImagenes.obtener(entrada.getValue().trim()).huella());
+            }
+        }
+    }
+
+    /**
+     * Cada texto se precede de su longitud para que ("ab", "c") y ("a", "bc") tengan huellas distintas.
+     */
+    private static void actualizar(MessageDigest md, String texto) {
+        if (texto == null) {
+            actualizar(md, -1);
+            return;
+        }
+        byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+        actualizar(md, bytes.length);
+        md.update(bytes);
+    }
+
+    private static void actualizar(MessageDigest md, int n) {
+        md.update((byte) (n >>> 24));
+        md.update((byte) (n >>> 16));
+        md.update((byte) (n >>> 8));
+        md.update((byte) n);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no está disponible en esta JVM.", e);
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package com.ejemplo;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Modo de vigilancia de carpeta: un proceso que se queda en marcha junto a la carpeta compartida donde
+ * se dejan las exportaciones de datos y las plantillas, y genera cada informe en cuanto llega su archivo
+ * de datos, con la JVM y las plantillas compiladas ya en caliente.
+ * <p>
+ * Cada {@link Regla} asocia un patrón de nombre de archivo de datos ({@code .json}, {@code .csv} o
+ * {@code .jsonl}, con el formato de {@link InformesCli}) con una plantilla y un patrón de salida, que se
+ * resuelve con {@link DocxGenerador#buildOutputPath}. Además de los globales del archivo y de la regla,
+ * {@code {{archivo}}} contiene el nombre del archivo de datos sin extensión.
+ * <p>
+ * Un archivo se procesa cuando lleva un tiempo sin cambios ({@code espera}), para no leer una exportación
+ * a medio copiar, y solo si su fecha o su tamaño han cambiado desde la última vez. Los archivos de datos se
+ * buscan solo en la carpeta vigilada, no en sus subcarpetas; las plantillas pueden estar en otra carpeta, que
+ * se vigila también. El resto de archivos (entre ellos, los informes generados) se ignoran. Los informes se
+ * generan en un pool acotado; cuando el pool y su cola están llenos, la vigilancia espera a que quede sitio en
+ * lugar de acumular trabajo sin límite. Si cambia una de las plantillas de las reglas, se vuelve a compilar en ese
+ * momento (con {@link CachePlantillas}, que solo recompila si el contenido es distinto), de modo que el
+ * siguiente informe no paga la compilación.
+ */
+public final class CarpetaVigilada implements AutoCloseable {
+
+    /**
+     * Informe que se genera para cada archivo de datos cuyo nombre coincide con un patrón.
+     */
+    public static final class Regla {
+        private final PathMatcher patron;
+        private final String descripcion;
+        private final Path plantilla;
+        private final String salida;
+        private final String bloque;
+        private final Map<String, String> globales;
+
+        /**
+         * @param patronDatos Patrón glob del nombre de los archivos de datos, por ejemplo {@code "incidencias_*.csv"}.
+         * @param plantilla   Ruta de la plantilla; si es relativa, respecto a la carpeta vigilada. Su carpeta se
+         *                    vigila también, aunque sea una subcarpeta o esté fuera.
+         * @param salida      Ruta (con placeholders) del informe; si es relativa, dentro de la carpeta vigilada.
+         * @param bloque      Bloque al que pertenecen las filas de un .csv o .jsonl.
+         * @param globales    Datos globales fijos, con la forma completa del placeholder ("{{Client}}");
+         *                    tienen prioridad sobre los del archivo.
+         */
+        public Regla(String patronDatos, String plantilla, String salida, String bloque, Map<String, String> globales) {
+            this.patron = FileSystems.getDefault().getPathMatcher("glob:" + patronDatos);
+            this.descripcion = patronDatos;
+            this.plantilla = Path.of(plantilla);
+            this.salida = salida;
+            this.bloque = bloque;
+            this.globales = new HashMap<>(globales);
+        }
+    }
+
+    private final Path carpeta;
+    private final List<Regla> reglas;
+    private final long esperaNanos;
+    private final ThreadPoolExecutor executor;
+    /** Plazas del pool más su cola: se ocupan al encolar un informe y se liberan al terminarlo. */
+    private final Semaphore plazas;
+    private final Map<Path, Long> pendientes = new LinkedHashMap<>();
+    /** Firma (fecha y tamaño) con la que se procesó por última vez cada plantilla o archivo de datos que sigue existiendo. */
+    private final Map<Path, String> procesados = new HashMap<>();
+    private final AtomicLong generados = new AtomicLong();
+    private final AtomicLong errores = new AtomicLong();
+    private WatchService vigilancia;
+    private Thread hilo;
+
+    /**
+     * Crea la vigilancia con un hilo por núcleo, una cola de 64 informes y una espera de 1 s.
+     * @param carpeta Carpeta vigilada.
+     * @param reglas  Reglas que deciden qué informe se genera con cada archivo de datos.
+     */
+    public CarpetaVigilada(Path carpeta, List<Regla> reglas) {
+        this(carpeta, reglas, Runtime.getRuntime().availableProcessors(), 64, 1000);
+    }
+
+    /**
+     * Crea la vigilancia.
+     * @param carpeta       Carpeta vigilada.
+     * @param reglas        Reglas que deciden qué informe se genera con cada archivo de datos.
+     * @param hilos         Número de informes que se generan a la vez.
+     * @param capacidadCola Informes que pueden esperar turno antes de que la vigilancia se detenga a esperar.
+     * @param esperaMillis  Tiempo sin cambios tras el que un archivo se da por completo.
+     */
+    public CarpetaVigilada(Path carpeta, List<Regla> reglas, int hilos, int capacidadCola, long esperaMillis) {
+        this.carpeta = carpeta.toAbsolutePath().normalize();
+        this.reglas = new ArrayList<>(reglas);
+        this.esperaNanos = TimeUnit.MILLISECONDS.toNanos(esperaMillis);
+        this.executor = new ThreadPoolExecutor(hilos, hilos, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+        this.plazas = new Semaphore(hilos + capacidadCola);
+    }
+
+    /**
+     * Compila las plantillas de las reglas y empieza a vigilar la carpeta. Solo se procesan los archivos
+     * que se crean o modifican a partir de este momento.
+     * @throws IOException Si la carpeta no se puede vigilar o alguna plantilla no se puede compilar.
+     */
+    public void iniciar() throws IOException {
+        for (Regla regla : reglas) {
+            compilar(plantilla(regla));
+        }
+        vigilancia = carpeta.getFileSystem().newWatchService();
+        // WatchService no es recursivo: se registra también la carpeta de cada plantilla que está en otro sitio.
+        Set<Path> carpetas = new LinkedHashSet<>();
+        carpetas.add(carpeta);
+        for (Regla regla : reglas) {
+            carpetas.add(plantilla(regla).getParent());
+        }
+        for (Path registrada : carpetas) {
+            registrada.register(vigilancia, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        }
+        hilo = new Thread(this::vigilar, "carpeta-vigilada");
+        hilo.start();
+    }
+
+    /**
+     * @return Informes generados desde el inicio.
+     */
+    public long getGenerados() {
+        return generados.get();
+    }
+
+    /**
+     * @return Archivos de datos o plantillas cuyo procesamiento ha fallado.
+     */
+    public long getErrores() {
+        return errores.get();
+    }
+
+    /**
+     * Deja de vigilar la carpeta y espera a que terminen los informes en curso o en cola (hasta 30 s).
+     */
+    @Override
+    public void close() {
+        if (vigilancia != null) {
+            try {
+                vigilancia.close();
+                hilo.join();
+            } catch (IOException e) {
+                Metricas.avisar("No se pudo cerrar la vigilancia de " + carpeta + ": " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void vigilar() {
+        try {
+            while (true) {
+                WatchKey clave = pendientes.isEmpty()
+                        ? vigilancia.take()
+                        : vigilancia.poll(esperaNanos, TimeUnit.NANOSECONDS);
+                if (clave != null) {
+                    Path directorio = (Path) clave.watchable();
+                    for (WatchEvent<?> evento : clave.pollEvents()) {
+                        if (evento.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            // Se han perdido eventos: se revisa la carpeta (lo que no ha cambiado se descarta).
+                            revisar(directorio);
+                            continue;
+                        }
+                        Path archivo = directorio.resolve((Path) evento.context());
+                        if (!relevante(archivo)) continue;
+                        if (evento.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                            pendientes.remove(archivo);
+                            procesados.remove(archivo);
+                        } else {
+                            pendientes.put(archivo, System.nanoTime());
+                        }
+                    }
+                    if (!clave.reset()) {
+                        Metricas.avisar("La carpeta vigilada ya no existe: " + directorio);
+                        if (directorio.equals(carpeta)) return;
+                    }
+                }
+                despachar();
+            }
+        } catch (ClosedWatchServiceException e) {
+            // Cierre normal.
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void revisar(Path directorio) {
+        try (var archivos = Files.list(directorio)) {
+            long ahora = System.nanoTime();
+            archivos.filter(this::relevante).forEach(archivo -> pendientes.put(archivo, ahora));
+        } catch (IOException e) {
+            Metricas.avisar("No se pudo revisar la carpeta " + directorio + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return {@code true} si el archivo es la plantilla de alguna regla, o un archivo de datos de la carpeta
+     *         vigilada cuyo nombre coincide con alguna regla.
+     */
+    private boolean relevante(Path archivo) {
+        boolean enCarpeta = carpeta.equals(archivo.getParent());
+        for (Regla regla : reglas) {
+            if (archivo.equals(plantilla(regla))) return true;
+            if (enCarpeta && regla.patron.matches(archivo.getFileName())) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Procesa los archivos pendientes que llevan el tiempo de espera sin cambios.
+     */
+    private void despachar() throws InterruptedException {
+        long ahora = System.nanoTime();
+        Iterator<Map.Entry<Path, Long>> it = pendientes.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Path, Long> pendiente = it.next();
+            if (ahora - pendiente.getValue() < esperaNanos) continue;
+            it.remove();
+            Path archivo = pendiente.getKey();
+            String firma;
+            try {
+                BasicFileAttributes atributos = Files.readAttributes(archivo, BasicFileAttributes.class);
+                if (!atributos.isRegularFile()) continue;
+                firma = atributos.lastModifiedTime().toMillis() + ":" + atributos.size();
+            } catch (NoSuchFileException e) {
+                // Archivo temporal que ya se ha renombrado o borrado.
+                procesados.remove(archivo);
+                continue;
+            } catch (IOException e) {
+                errores.incrementAndGet();
+                Metricas.getOyente().error(archivo.toString(), e);
+                continue;
+            }
+            if (firma.equals(procesados.put(archivo, firma))) continue;
+            procesar(archivo);
+        }
+    }
+
+    private void procesar(Path archivo) throws InterruptedException {
+        for (Regla regla : reglas) {
+            if (archivo.equals(plantilla(regla))) {
+                try {
+                    compilar(archivo);
+                    Metricas.avisar("Plantilla recargada: " + archivo);
+                } catch (IOException | RuntimeException e) {
+                    errores.incrementAndGet();
+                    Metricas.getOyente().error(archivo.toString(), e);
+                }
+                return;
+            }
+        }
+        if (!carpeta.equals(archivo.getParent())) return;
+        for (Regla regla : reglas) {
+            if (regla.patron.matches(archivo.getFileName())) {
+                // Con el pool y la cola llenos, la vigilancia espera aquí: los eventos se acumulan en el WatchService.
+                plazas.acquire();
+                try {
+                    executor.execute(() -> generar(regla, archivo));
+                } catch (RuntimeException e) {
+                    plazas.release();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private void generar(Regla regla, Path archivo) {
+        try {
+            String nombre = archivo.getFileName().toString();
+            int punto = nombre.lastIndexOf('.');
+            HashMap<String, String> globales = new HashMap<>();
+            globales.put("{{archivo}}", punto > 0 ? nombre.substring(0, punto) : nombre);
+            Map<String, Iterable<? extends Map<String, String>>> bloques = new HashMap<>();
+            InformesCli.leerDatos(archivo.toString(), regla.bloque, globales, bloques);
+            globales.putAll(regla.globales);
+            try {
+                InformesCli.generar(plantilla(regla).toString(), carpeta.resolve(regla.salida).toString(), globales, bloques);
+                generados.incrementAndGet();
+            } finally {
+                InformesCli.cerrar(bloques);
+            }
+        } catch (Exception e) {
+            errores.incrementAndGet();
+            Metricas.getOyente().error(archivo + " (" + regla.descripcion + ")", e);
+        } finally {
+            plazas.release();
+        }
+    }
+
+    private Path plantilla(Regla regla) {
+        return carpeta.resolve(regla.plantilla).normalize();
+    }
+
+    private static void compilar(Path plantilla) throws IOException {
+        String ruta = plantilla.toString();
+        String minusculas = ruta.toLowerCase();
+        if (minusculas.endsWith(".pptx")) PlantillaPptx.cargar(ruta);
+        else if (!minusculas.endsWith(".xlsx")) PlantillaDocx.cargar(ruta);
+    }
+}
@@ -1,25 +1,33 @@
 package com.ejemplo;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.*;
 
-import org.apache.poi.xwpf.usermodel.BodyElementType;
-import org.apache.poi.xwpf.usermodel.IBodyElement;
+import javax.xml.namespace.QName;
+
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
 import org.apache.poi.xwpf.usermodel.XWPFDocument;
 import org.apache.poi.xwpf.usermodel.XWPFParagraph;
-import org.apache.poi.xwpf.usermodel.XWPFHeader;
-import org.apache.poi.xwpf.usermodel.XWPFFooter;
 import org.apache.poi.xwpf.usermodel.XWPFRun;
 import org.apache.poi.xwpf.usermodel.XWPFTable;
-import org.apache.poi.xwpf.usermodel.XWPFTableCell;
-import org.apache.poi.xwpf.usermodel.XWPFTableRow;
-import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTBody;
-import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTP;
+import org.apache.xmlbeans.XmlObject;
 
 public class DocxGenerador {
-    
+
+    static final String NS_W = "http://schemas.openxmlformats.org/wordprocessingml/2006/main";
+
+    static final QName W_T = new QName(NS_W, "t");
+
     /**
      * Constructor por defecto.
      */
@@ -30,9 +38,14 @@ public class DocxGenerador {
      * Método principal que orquesta la generación del documento.
      * Lee la plantilla DOCX, realiza las sustituciones globales, duplica los bloques según
      * los datos proporcionados y genera el documento final en la ruta especificada.
-     * @param args No se utilizan argumentos en línea de comandos.
+     * Con argumentos, se comporta como {@link InformesCli}.
+     * @param args Argumentos de {@link InformesCli}; sin argumentos se genera el ejemplo con las rutas de abajo.
      */
     public static void main(String[] args) {
+        if (args.length > 0) {
+            InformesCli.main(args);
+            return;
+        }
         // Rutas de archivo (ajusta según tu entorno)
         String plantillaPath = "C:\\Users\\carlos.mari\\OneDrive - Avvale S.p.A\\Documentos\\Informes Automatizados\\Plantilla.docx";
         String salidaPattern = "C:\\Users\\carlos.mari\\OneDrive - Avvale S.p.A\\Documentos\\Informes Automatizados\\Test {{Client}} {{month}} {{year}}.docx";
@@ -82,7 +95,7 @@ public class DocxGenerador {
         try {
             generateDocx(plantillaPath, salidaPattern, datosGlobales, duplicableBlocks);
         } catch (IOException e) {
-            e.printStackTrace();
+            Metricas.getOyente().error(salidaPattern, e);
         }
     }
 
@@ -94,37 +107,114 @@ public class DocxGenerador {
      *   - Duplica los bloques identificados (por ejemplo, incidencias) según los datos proporcionados.
      *   - Construye la ruta de salida reemplazando los placeholders.
      *   - Guarda el documento final en el sistema de archivos.
+     * Si hay una {@link CacheSalidas} activa y los datos no han cambiado, copia el informe guardado.
      *
      * @param plantillaPath   Ruta del archivo plantilla DOCX.
      * @param salidaPattern   Ruta (con placeholders) para el archivo de salida.
      * @param datosGlobales   Mapa de datos globales a reemplazar en todo el documento.
      * @param duplicableBlocks Map con los bloques a duplicar. La clave es el identificador del bloque
      *                         (por ejemplo, "" para bloques delimitados por '---' o "Incidencias" para '---Incidencias---'),
-     *                         y el valor es la lista de HashMap con los datos para cada duplicado.
+     *                         y el valor es la lista de HashMap con los datos para cada duplicado, o una
+     *                         {@link FuenteFilas} que se lee fila a fila durante la expansión.
+     * @return La ruta final del documento generado.
      * @throws IOException Si ocurre un error de lectura o escritura.
      */
-    public static void generateDocx(String plantillaPath, String salidaPattern, 
+    public static String generateDocx(String plantillaPath, String salidaPattern, 
                                     HashMap<String, String> datosGlobales,
-                                    Map<String, List<HashMap<String, String>>> duplicableBlocks) throws IOException {
-        // 1. Leer el documento plantilla
-        XWPFDocument documento = readDocx(plantillaPath);
-
-        // 2. Procesar el documento para realizar sustituciones globales
-        processDocument(documento, datosGlobales);
-
-        // 3. Para cada bloque duplicable, invocar la función correspondiente.
-        for (Map.Entry<String, List<HashMap<String, String>>> entry : duplicableBlocks.entrySet()) {
-            String blockId = entry.getKey(); // Si es "", se buscarán marcadores que sean exactamente "---"
-            List<HashMap<String, String>> listaDatos = entry.getValue();
-            duplicateBlock(documento, blockId, listaDatos);
-        }
-
-        // 4. Construir la ruta de salida reemplazando los placeholders con los datos globales
+                                    Map<String, ? extends Iterable<? extends Map<String, String>>> duplicableBlocks) throws IOException {
+        // La ruta de salida se construye reemplazando los placeholders con los datos globales
         String salidaPathFinal = buildOutputPath(salidaPattern, datosGlobales);
+        // Si hay una caché activa y el informe ya se generó con los mismos datos, se copia en lugar de renderizarlo
+        CacheSalidas.generar("DOCX", plantillaPath, datosGlobales, duplicableBlocks, salidaPathFinal,
+                () -> generar(plantillaPath, datosGlobales, duplicableBlocks, salidaPathFinal,
+                        () -> new BufferedOutputStream(new FileOutputStream(salidaPathFinal))));
+        return salidaPathFinal;
+    }
 
-        // 5. Guardar el documento final
-        writeDocx(documento, salidaPathFinal);
-        System.out.println("Documento generado correctamente: " + salidaPathFinal);
+    /**
+     * Genera el documento DOCX y lo escribe en un flujo, sin pasar por un archivo temporal
+     * (por ejemplo, en la respuesta de una petición HTTP). El flujo no se cierra.
+     *
+     * @param plantillaPath    Ruta del archivo plantilla DOCX.
+     * @param datosGlobales    Mapa de datos globales a reemplazar en todo el documento.
+     * @param duplicableBlocks Map con los bloques a duplicar y sus datos.
+     * @param salida           Flujo donde se escribe el documento generado.
+     * @throws IOException Si ocurre un error de lectura o escritura.
+     */
+    public static void generateDocx(String plantillaPath, Map<String, String> datosGlobales,
+                                    Map<String, ? extends Iterable<? extends Map<String, String>>> duplicableBlocks,
+                                    OutputStream salida) throws IOException {
+        generar(plantillaPath, datosGlobales, duplicableBlocks, "flujo de salida", () -> Flujos.noCerrar(salida));
+    }
+
+    /**
+     * Genera el documento DOCX y lo escribe en un canal (por ejemplo, un socket o un FileChannel).
+     * El canal no se cierra.
+     *
+     * @param plantillaPath    Ruta del archivo plantilla DOCX.
+     * @param datosGlobales    Mapa de datos globales a reemplazar en todo el documento.
+     * @param duplicableBlocks Map con los bloques a duplicar y sus datos.
+     * @param salida           Canal donde se escribe el documento generado.
+     * @throws IOException Si ocurre un error de lectura o escritura.
+     */
+    public static void generateDocx(String plantillaPath, Map<String, String> datosGlobales,
+                                    Map<String, ? extends Iterable<? extends Map<String, String>>> duplicableBlocks,
+                                    WritableByteChannel salida) throws IOException {
+        generar(plantillaPath, datosGlobales, duplicableBlocks, "canal de salida", () -> Flujos.salida(salida));
+    }
+
+    /**
+     * Genera el documento y lo escribe en el destino indicado, midiendo cada fase.
+     * El destino solo se abre cuando el documento ya está generado.
+     */
+    @SuppressWarnings("try")
+    private static void generar(String plantillaPath, Map<String, String> datosGlobales,
+                                Map<String, ? extends Iterable<? extends Map<String, String>>> duplicableBlocks,
+                                String nombreSalida, Flujos.Destino destino) throws IOException {
+        MetricasInforme metricas = Metricas.iniciar("DOCX");
+        try {
+            // 1. Obtener la plantilla compilada (se analiza una sola vez y se reutiliza entre llamadas)
+            PlantillaDocx plantilla;
+            XWPFDocument documento;
+            try (MetricasInforme.Cronometro ignorado = metricas.medir(FaseInforme.LECTURA)) {
+                plantilla = PlantillaDocx.cargar(plantillaPath);
+                documento = plantilla.nuevaCopia();
+            }
+
+            try (documento) {
+                // 2. Realizar las sustituciones globales solo en los párrafos registrados en la plantilla
+                try (MetricasInforme.Cronometro ignorado = metricas.medir(FaseInforme.SUSTITUCION)) {
+                    plantilla.aplicarGlobales(documento, datosGlobales);
+                }
+
+                // 3. Expandir todos los bloques (de párrafos, tablas o filas, incluidos los anidados) en un solo recorrido
+                try (MetricasInforme.Cronometro ignorado = metricas.medir(FaseInforme.BLOQUES)) {
+                    Set<String> blockIds = plantilla.getBlockIds();
+                    for (String clave : duplicableBlocks.keySet()) {
+                        if (!blockIds.contains(Marcadores.idDeClave(clave))) {
+                            Metricas.avisar("No se encontraron los dos marcadores necesarios para el bloque.");
+                        }
+                    }
+                    plantilla.expandirBloques(documento, duplicableBlocks);
+                }
+
+                // 4. Incrustar las imágenes de los placeholders {{img:nombre}}, una sola vez por parte cada una
+                try (MetricasInforme.Cronometro ignorado = metricas.medir(FaseInforme.IMAGENES)) {
+                    plantilla.incrustarImagenes(documento);
+                }
+
+                // 5. Guardar el documento final
+                Flujos.Contador contador;
+                try (MetricasInforme.Cronometro ignorado = metricas.medir(FaseInforme.ESCRITURA);
+                     Flujos.Contador salida = new Flujos.Contador(destino.abrir())) {
+                    contador = salida;
+                    writeDocx(documento, salida);
+                }
+                Metricas.terminar(metricas, nombreSalida, contador.getBytes());
+            }
+        } finally {
+            Metricas.descartar();
+        }
     }
 
     /**
@@ -149,93 +239,116 @@ public class DocxGenerador {
      */
     public static void writeDocx(XWPFDocument document, String path) throws IOException {
         try (FileOutputStream fos = new FileOutputStream(path)) {
-            document.write(fos);
+            EmpaquetadoZip.escribir(document, fos);
+        }
+    }
+
+    /**
+     * Abre un archivo DOCX en modo solo lectura directamente desde el sistema de archivos, sin copiar
+     * el ZIP completo en memoria. Es la forma más ligera de inspeccionar una plantilla, pero el
+     * documento no puede guardarse: para modificarlo y escribirlo use {@link #readDocx(InputStream)}.
+     *
+     * @param file Archivo DOCX.
+     * @return El documento abierto en solo lectura; debe cerrarse para liberar el archivo.
+     * @throws IOException Si ocurre un error al leer el archivo.
+     */
+    public static XWPFDocument readDocx(File file) throws IOException {
+        OPCPackage paquete;
+        try {
+            paquete = OPCPackage.open(file, PackageAccess.READ);
+        } catch (InvalidFormatException e) {
+            throw new IOException("El archivo no es un DOCX válido: " + file, e);
+        }
+        try {
+            return new XWPFDocument(paquete);
+        } catch (IOException | RuntimeException e) {
+            paquete.revert();
+            throw e;
         }
     }
 
     /**
-     * Procesa el documento realizando sustituciones de texto en párrafos y tablas.     * 
-     * Recorre todos los párrafos y celdas de tabla, llamando a {@link #replaceTextInParagraph(XWPFParagraph, Map)}
-     * para reemplazar los placeholders según el mapa de datos proporcionado.     
+     * Lee un DOCX desde un flujo. El flujo no se cierra.
+     *
+     * @param in Flujo con el contenido del DOCX.
+     * @return Un objeto XWPFDocument que representa el contenido del DOCX.
+     * @throws IOException Si ocurre un error al leer el flujo.
+     */
+    public static XWPFDocument readDocx(InputStream in) throws IOException {
+        return new XWPFDocument(Flujos.noCerrar(in));
+    }
+
+    /**
+     * Lee un DOCX desde un buffer en memoria (por ejemplo, el cuerpo de una petición o un archivo
+     * mapeado). La posición del buffer no se modifica.
+     *
+     * @param contenido Buffer con el contenido del DOCX.
+     * @return Un objeto XWPFDocument que representa el contenido del DOCX.
+     * @throws IOException Si el contenido no es un DOCX válido.
+     */
+    public static XWPFDocument readDocx(ByteBuffer contenido) throws IOException {
+        return new XWPFDocument(Flujos.entrada(contenido));
+    }
+
+    /**
+     * Escribe un objeto XWPFDocument en un flujo. El flujo no se cierra.
+     *
+     * @param document Objeto XWPFDocument a guardar.
+     * @param out      Flujo de destino.
+     * @throws IOException Si ocurre un error al escribir.
+     */
+    public static void writeDocx(XWPFDocument document, OutputStream out) throws IOException {
+        EmpaquetadoZip.escribir(document, out);
+    }
+
+    /**
+     * Escribe un objeto XWPFDocument en un canal. El canal no se cierra.
+     *
+     * @param document Objeto XWPFDocument a guardar.
+     * @param canal    Canal de destino.
+     * @throws IOException Si ocurre un error al escribir.
+     */
+    public static void writeDocx(XWPFDocument document, WritableByteChannel canal) throws IOException {
+        try (OutputStream out = Flujos.salida(canal)) {
+            EmpaquetadoZip.escribir(document, out);
+        }
+    }
+
+    /**
+     * Procesa el documento realizando sustituciones de texto en párrafos y tablas.
+     * Recorre una sola vez todas las partes (cuerpo, cabeceras, pies y notas) y, dentro de ellas, todos
+     * los párrafos a cualquier profundidad: tablas anidadas, controles de contenido y cuadros de texto.
+     * Los párrafos con placeholders se normalizan y se pasan a {@link #replaceTextInParagraph(XWPFParagraph, Map)}.
      * @param document Objeto XWPFDocument a procesar.
      * @param datos    Mapa de datos con placeholders y sus valores.
      */
     public static void processDocument(XWPFDocument document, HashMap<String, String> datos) {
-        // Procesar párrafos del cuerpo principal
-        for (XWPFParagraph parrafo : document.getParagraphs()) {
+        RecorridoDocx.recorrer(document, (parte, indiceParte, ctp, ruta) -> {
+            Metricas.contarParrafos(1);
+            if (!MotorSustitucion.contienePlaceholder(TextoXml.texto(ctp, W_T))) return;
+            // Se reutiliza el párrafo de la parte si es de primer nivel, para que sus runs sigan al día.
+            XWPFParagraph parrafo = parte.getParagraph(ctp);
+            if (parrafo == null) {
+                parrafo = new XWPFParagraph(ctp, parte);
+            }
             mergeRunsWithSameStyle(parrafo);
             replaceTextInParagraph(parrafo, datos);
-        }
-        // Procesar párrafos en tablas
-        for (XWPFTable tabla : document.getTables()) {
-            for (XWPFTableRow fila : tabla.getRows()) {
-                for (XWPFTableCell celda : fila.getTableCells()) {
-                    for (XWPFParagraph parrafo : celda.getParagraphs()) {
-                        mergeRunsWithSameStyle(parrafo);
-                        replaceTextInParagraph(parrafo, datos);
-                    }
-                }
-            }
-        }
-        // Procesar cabeceras (headers)
-        for (XWPFHeader header : document.getHeaderList()) {
-            // Procesar párrafos de la cabecera
-            for (XWPFParagraph parrafo : header.getParagraphs()) {
-                mergeRunsWithSameStyle(parrafo);
-                replaceTextInParagraph(parrafo, datos);
-            }
-            // Procesar tablas de la cabecera
-            for (XWPFTable tabla : header.getTables()) {
-                for (XWPFTableRow fila : tabla.getRows()) {
-                    for (XWPFTableCell celda : fila.getTableCells()) {
-                        for (XWPFParagraph parrafo : celda.getParagraphs()) {
-                            mergeRunsWithSameStyle(parrafo);
-                            replaceTextInParagraph(parrafo, datos);
-                        }
-                    }
-                }
-            }
-        }
-        
-        // Procesar pies de página (footers)
-        for (XWPFFooter footer : document.getFooterList()) {
-            // Procesar párrafos del pie de página
-            for (XWPFParagraph parrafo : footer.getParagraphs()) {
-                mergeRunsWithSameStyle(parrafo);
-                replaceTextInParagraph(parrafo, datos);
-            }
-            // Procesar tablas del pie de página
-            for (XWPFTable tabla : footer.getTables()) {
-                for (XWPFTableRow fila : tabla.getRows()) {
-                    for (XWPFTableCell celda : fila.getTableCells()) {
-                        for (XWPFParagraph parrafo : celda.getParagraphs()) {
-                            mergeRunsWithSameStyle(parrafo);
-                            replaceTextInParagraph(parrafo, datos);
-                        }
-                    }
-                }
-            }
-        }
+        });
     }
 
     /**
      * Reemplaza los placeholders en un párrafo usando el mapa de datos proporcionado.
      * Recorre cada "run" del párrafo y, si encuentra un placeholder (por ejemplo, "{{Client}}"),
-     * lo sustituye por el valor correspondiente.
+     * lo sustituye por el valor correspondiente mediante {@link MotorSustitucion}.
      * @param parrafo Objeto XWPFParagraph a procesar.
      * @param datos   Mapa que contiene los placeholders y sus valores de reemplazo.
      */
     public static void replaceTextInParagraph(XWPFParagraph parrafo, Map<String, String> datos) {
         for (XWPFRun run : parrafo.getRuns()) {
             String text = run.getText(0);
-            if (text == null) continue;
-            for (Map.Entry<String, String> entry : datos.entrySet()) {
-                String marcador = entry.getKey();
-                String valor = entry.getValue();
-                if (text.contains(marcador)) {
-                    text = text.replace(marcador, valor);
-                    run.setText(text, 0);
-                }
+            String sustituido = MotorSustitucion.sustituir(text, datos);
+            if (sustituido != text) {
+                run.setText(sustituido, 0);
             }
         }
     }
@@ -247,51 +360,55 @@ public class DocxGenerador {
      * @return La ruta final con los placeholders sustituidos por sus respectivos valores.
      */
     public static String buildOutputPath(String pathPattern, Map<String, String> datos) {
-        String outputPath = pathPattern;
-        for (Map.Entry<String, String> entry : datos.entrySet()) {
-            outputPath = outputPath.replace(entry.getKey(), entry.getValue());
-        }
-        return outputPath;
+        return MotorSustitucion.sustituir(pathPattern, datos);
     }
 
     /**
      * Fusiona los "runs" contiguos dentro de un párrafo que tengan el mismo estilo.
      * Esto ayuda a evitar problemas al realizar sustituciones, uniendo textos que comparten
      * atributos de estilo idénticos (como negrita, cursiva, color y tamaño de fuente).
+     * Solo se fusionan los runs por los que pasa un placeholder partido: el resto del párrafo
+     * no se toca, y el estilo de cada run se calcula como mucho una vez.
      *
      * @param paragraph Párrafo (XWPFParagraph) cuyo contenido se desea fusionar.
      */
-    private static void mergeRunsWithSameStyle(XWPFParagraph paragraph) {
-        if (paragraph.getRuns().size() < 2) return;
-        int i = 0;
-        while (i < paragraph.getRuns().size() - 1) {
-            XWPFRun current = paragraph.getRuns().get(i);
-            XWPFRun next = paragraph.getRuns().get(i + 1);
-            if (haveSameStyle(current, next)) {
-                String combinedText = safeGetText(current) + safeGetText(next);
-                current.setText(combinedText, 0);
-                paragraph.removeRun(i + 1);
-            } else {
-                i++;
+    static void mergeRunsWithSameStyle(XWPFParagraph paragraph) {
+        List<XWPFRun> runs = paragraph.getRuns();
+        if (runs.size() < 2) return;
+        String[] textos = new String[runs.size()];
+        for (int i = 0; i < textos.length; i++) {
+            textos[i] = safeGetText(runs.get(i));
+        }
+        List<int[]> tramos = MotorSustitucion.placeholdersPartidos(textos);
+        if (tramos.isEmpty()) return;
+
+        List<?>[] estilos = new List<?>[textos.length];
+        int fusionados = 0;
+        // De atrás hacia delante, para que los índices de los tramos pendientes sigan siendo válidos.
+        for (int t = tramos.size() - 1; t >= 0; t--) {
+            int[] tramo = tramos.get(t);
+            for (int i = tramo[1]; i > tramo[0]; i--) {
+                if (estilo(paragraph.getRuns(), i, estilos).equals(estilo(paragraph.getRuns(), i - 1, estilos))) {
+                    textos[i - 1] = textos[i - 1] + textos[i];
+                    paragraph.getRuns().get(i - 1).setText(textos[i - 1], 0);
+                    paragraph.removeRun(i);
+                    fusionados++;
+                }
             }
         }
+        Metricas.contarRunsFusionados(fusionados);
     }
 
     /**
-     * Compara el estilo de dos "runs" para determinar si son iguales.
-     * Se comparan atributos como negrita, cursiva, color y tamaño de fuente.     *
-     * @param r1 Primer run.
-     * @param r2 Segundo run.
-     * @return {@code true} si ambos runs tienen el mismo estilo; {@code false} en caso contrario.
+     * Devuelve la huella de estilo de un run (negrita, cursiva, color y tamaño de fuente),
+     * calculándola solo la primera vez que se pide.
      */
-    private static boolean haveSameStyle(XWPFRun r1, XWPFRun r2) {
-        if (r1.isBold() != r2.isBold()) return false;
-        if (r1.isItalic() != r2.isItalic()) return false;
-        String c1 = r1.getColor();
-        String c2 = r2.getColor();
-        if ((c1 != null && !c1.equals(c2)) || (c1 == null && c2 != null)) return false;
-        if (r1.getFontSize() != r2.getFontSize()) return false;
-        return true;
+    private static List<?> estilo(List<XWPFRun> runs, int indice, List<?>[] estilos) {
+        if (estilos[indice] == null) {
+            XWPFRun run = runs.get(indice);
+            estilos[indice] = Arrays.asList(run.isBold(), run.isItalic(), run.getColor(), run.getFontSize());
+        }
+        return estilos[indice];
     }
 
     /**
@@ -312,79 +429,56 @@ public class DocxGenerador {
      *   - Si se usa identificador (por ejemplo, "Incidencias"): "---Incidencias---"
      * El bloque (incluyendo los marcadores) se elimina y se inserta un nuevo bloque por cada entrada
      * en la lista de datos, donde en cada duplicado se sustituyen los placeholders con los valores del HashMap.
+     * <p>
+     * El bloque se expande con {@link IndiceBloques}, igual que en {@link #generateDocx}: se localiza y se
+     * modifica directamente en el XML del documento, así que el método puede llamarse varias veces sobre el
+     * mismo documento (una por bloque). Las copias solo existen en el XML: {@link XWPFDocument#getBodyElements()}
+     * no refleja el cambio.
      * @param document   Objeto XWPFDocument sobre el que se realizará la operación.
      * @param blockId    Identificador del bloque. Si es cadena vacía o {@code null}, se buscarán marcadores con el texto "---".
      * @param listaDatos Lista de HashMap, donde cada HashMap contiene los datos para reemplazar los placeholders en un duplicado del bloque.
      */
     public static void duplicateBlock(XWPFDocument document, String blockId, List<HashMap<String, String>> listaDatos) {
-        // Obtiene el cuerpo del documento para manipular la estructura XML.
-        CTBody body = document.getDocument().getBody();
-        List<IBodyElement> bodyElements = document.getBodyElements();
-        List<Integer> markerIndices = new ArrayList<>();
-    
-        // Buscar los párrafos que sean marcadores
-        for (int i = 0; i < bodyElements.size(); i++) {
-            IBodyElement element = bodyElements.get(i);
-            if (element.getElementType() == BodyElementType.PARAGRAPH) {
-                XWPFParagraph p = (XWPFParagraph) element;
-                String text = p.getText().trim();
-                if (blockId != null && !blockId.isEmpty()) {
-                    // Ejemplo: "---Incidencias---" si se pasó "Incidencias"
-                    if (text.equals("---" + blockId + "---")) {
-                        markerIndices.add(i);
-                    }
-                } else {
-                    // Sin identificador, se espera exactamente "---"
-                    if (text.equals("---")) {
-                        markerIndices.add(i);
-                    }
-                }
-            }
-        }
-    
-        // Se requieren al menos dos marcadores para delimitar el bloque.
-        if (markerIndices.size() < 2) {
-            System.out.println("No se encontraron los dos marcadores necesarios para el bloque.");
-            return;
-        }
-    
-        int startMarkerIndex = markerIndices.get(0);
-        int endMarkerIndex = markerIndices.get(1);
-    
-        // --- Clonar el contenido XML de los párrafos del bloque (entre los dos marcadores) ---
-        List<CTP> originalBlockCTPs = new ArrayList<>();
-        for (int i = startMarkerIndex + 1; i < endMarkerIndex; i++) {
-            IBodyElement element = bodyElements.get(i);
-            if (element.getElementType() == BodyElementType.PARAGRAPH) {
-                XWPFParagraph p = (XWPFParagraph) element;
-                // Se hace un cast para que el objeto sea de tipo CTP
-                originalBlockCTPs.add((CTP) p.getCTP().copy());
-            }
-        }
-    
-        // --- Eliminar los elementos del bloque (incluyendo los marcadores) ---
-        // Se elimina de abajo hacia arriba para no alterar los índices.
-        for (int i = endMarkerIndex; i >= startMarkerIndex; i--) {
-            document.removeBodyElement(i);
+        if (!expandirBloque(document.getDocument(), blockId, listaDatos)) {
+            Metricas.avisar("No se encontraron los dos marcadores necesarios para el bloque.");
         }
-    
-        // --- Insertar el bloque tantas veces como elementos haya en listaDatos ---
-        // Con "duplicar n veces menos 1" se entiende que si hay un único HashMap se inserta un bloque;
-        // si hay 2, se insertan 2 bloques; etc.
-        int insertionPos = startMarkerIndex; // Posición de inserción en el cuerpo del documento.
-        for (HashMap<String, String> datos : listaDatos) {
-            for (CTP originalCTP : originalBlockCTPs) {
-                // Crear una copia fresca del párrafo original.
-                CTP newCTP = (CTP) originalCTP.copy();
-                // Insertar un nuevo párrafo en la posición deseada.
-                CTP insertedCTP = body.insertNewP(insertionPos);
-                // Asignar el contenido de la copia recién creada al párrafo insertado.
-                insertedCTP.set(newCTP);
-                XWPFParagraph newParagraph = new XWPFParagraph(insertedCTP, document);
-                // Realizar la sustitución de las etiquetas en este párrafo según el HashMap actual.
-                replaceTextInParagraph(newParagraph, datos);
-                insertionPos++; // Incrementar la posición para el siguiente párrafo.
-            }
+    }
+
+    /**
+     * Duplica las filas de una tabla delimitadas por dos filas marcador (filas cuyo texto, tras
+     * aplicar trim, es "---id---" o "---"), de modo que un bloque puede representarse como filas
+     * de una tabla sin clonar la tabla completa por cada elemento. Como {@link #duplicateBlock}, trabaja
+     * sobre el XML de la tabla: puede llamarse una vez por bloque, y {@link XWPFTable#getRows()} no refleja el cambio.
+     * @param tabla      Tabla sobre la que se realizará la operación.
+     * @param blockId    Identificador del bloque. Si es cadena vacía o {@code null}, se buscarán filas con el texto "---".
+     * @param listaDatos Lista de HashMap con los datos de cada fila duplicada.
+     */
+    public static void duplicateTableRows(XWPFTable tabla, String blockId, List<HashMap<String, String>> listaDatos) {
+        if (!expandirBloque(tabla.getCTTbl(), blockId, listaDatos)) {
+            Metricas.avisar("No se encontraron las dos filas marcador necesarias para el bloque.");
         }
-    }      
+    }
+
+    /**
+     * Expande un bloque bajo un elemento indexando sus marcadores en ese momento, de modo que las copias
+     * de llamadas anteriores y los elementos que ya se han eliminado no afectan a la búsqueda.
+     * @return {@code false} si no hay ningún par de marcadores con ese identificador.
+     */
+    private static boolean expandirBloque(XmlObject raiz, String blockId, List<HashMap<String, String>> listaDatos) {
+        String id = blockId != null ? blockId : "";
+        IndiceBloques indice = IndiceBloques.indexar(raiz, NS_W);
+        if (!indice.getBlockIds().contains(id)) return false;
+        indice.expandir(raiz, Collections.singletonMap(id, listaDatos));
+        return true;
+    }
+
+    /**
+     * Sustituye los placeholders de todos los textos (w:t) contenidos en un elemento XML,
+     * incluidos los de tablas anidadas, hipervínculos o controles de contenido.
+     * @param elemento Elemento XML a procesar (párrafo, tabla, fila...).
+     * @param datos    Mapa que contiene los placeholders y sus valores de reemplazo.
+     */
+    static void replaceTextInXml(XmlObject elemento, Map<String, String> datos) {
+        TextoXml.sustituir(elemento, W_T, datos);
+    }
 }
@@ -0,0 +1,379 @@
+package com.ejemplo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * Generador DOCX en modo streaming: copia la plantilla ZIP entrada a entrada y reescribe
+ * {@code word/document.xml}, las cabeceras y los pies con StAX, sustituyendo los placeholders
+ * y expandiendo los bloques "---id---" sobre la marcha. A diferencia de {@link DocxGenerador}
+ * no construye el DOM de XWPFDocument: en memoria solo se mantiene el párrafo en curso y la
+ * plantilla del bloque que se está expandiendo, por lo que el consumo es prácticamente
+ * constante con independencia del número de filas.
+ * <p>
+ * Solo se expanden los bloques delimitados por párrafos del cuerpo del documento, sin anidar. Los
+ * bloques de filas de tabla, los bloques dentro de tablas o cuadros de texto y los bloques anidados
+ * ({@code "padre[i].hijo"}) que admite {@link IndiceBloques} no se expanden: sus marcadores y
+ * placeholders se dejan tal cual y se notifica un aviso ({@link Metricas#avisar(String)}) por cada uno.
+ * Para esas plantillas debe usarse {@link DocxGenerador}.
+ */
+public class DocxStreamingGenerador {
+
+    private static final Pattern PARTES_CON_TEXTO =
+            Pattern.compile("word/(document|header\\d*|footer\\d*)\\.xml");
+
+    private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+    private static final XMLEventFactory EVENT_FACTORY = XMLEventFactory.newInstance();
+
+    static {
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    }
+
+    /**
+     * Constructor por defecto.
+     */
+    public DocxStreamingGenerador() {
+    }
+
+    /**
+     * Genera el documento DOCX en modo streaming.
+     * Si hay una {@link CacheSalidas} activa y los datos no han cambiado, copia el documento guardado.
+     *
+     * @param plantillaPath    Ruta del archivo plantilla DOCX.
+     * @param salidaPattern    Ruta (con placeholders) para el archivo de salida.
+     * @param datosGlobales    Mapa de datos globales a reemplazar en todo el documento.
+     * @param duplicableBlocks Map con los bloques a duplicar. La clave es el identificador del bloque
+     *                         y el valor la lista de mapas con los datos de cada duplicado.
+     * @return La ruta final del documento generado.
+     * @throws IOException Si ocurre un error de lectura o escritura.
+     */
+    public static String generateDocx(String plantillaPath, String salidaPattern,
+                                      Map<String, String> datosGlobales,
+                                      Map<String, ? extends Iterable<? extends Map<String, String>>> duplicableBlocks) throws IOException {
+        String salidaPathFinal = DocxGenerador.buildOutputPath(salidaPattern, datosGlobales);
+        CacheSalidas.generar("DOCX-streaming", plantillaPath, datosGlobales, duplicableBlocks, salidaPathFinal,
+                () -> generar(plantillaPath, datosGlobales, duplicableBlocks, salidaPathFinal));
+        return salidaPathFinal;
+    }
+
+    private static void generar(String plantillaPath, Map<String, String> datosGlobales,
+                                Map<String, ? extends Iterable<? extends Map<String, String>>> duplicableBlocks,
+                                String salidaPathFinal) throws IOException {
+        MetricasInforme metricas = Metricas.iniciar("DOCX");
+        try {
+            try (InputStream in = new BufferedInputStream(new FileInputStream(plantillaPath));
+                 OutputStream out = new BufferedOutputStream(new FileOutputStream(salidaPathFinal))) {
+                render(in, out, datosGlobales, duplicableBlocks);
+            }
+            Metricas.terminar(metricas, salidaPathFinal, new File(salidaPathFinal).length());
+        } finally {
+            Metricas.descartar();
+        }
+    }
+
+    /**
+     * Renderiza la plantilla leída de {@code plantilla} y escribe el DOCX resultante en {@code salida}.
+     * Ninguno de los dos flujos se cierra.
+     *
+     * @param plantilla        Flujo con el contenido de la plantilla DOCX.
+     * @param salida           Flujo donde se escribe el documento generado.
+     * @param datosGlobales    Mapa de datos globales a reemplazar en todo el documento.
+     * @param duplicableBlocks Map con los bloques a duplicar y sus datos.
+     * @throws IOException Si ocurre un error de lectura o escritura, o la plantilla no es XML válido.
+     */
+    @SuppressWarnings("try")
+    public static void render(InputStream plantilla, OutputStream salida,
+                              Map<String, String> datosGlobales,
+                              Map<String, ? extends Iterable<? extends Map<String, String>>> duplicableBlocks) throws IOException {
+        ZipInputStream zin = new ZipInputStream(plantilla);
+        ZipOutputStream zout = new ZipOutputStream(salida);
+        byte[] buffer = new byte[8192];
+        ZipEntry entrada;
+        while ((entrada = zin.getNextEntry()) != null) {
+            zout.putNextEntry(new ZipEntry(entrada.getName()));
+            // En streaming la lectura, la sustitución y la escritura ocurren a la vez: las partes con texto
+            // se cuentan como sustitución (o bloques, si es el cuerpo) y el resto de entradas como escritura.
+            boolean conTexto = PARTES_CON_TEXTO.matcher(entrada.getName()).matches();
+            FaseInforme fase = !conTexto ? FaseInforme.ESCRITURA
+                    : entrada.getName().equals("word/document.xml") && !duplicableBlocks.isEmpty() ? FaseInforme.BLOQUES
+                    : FaseInforme.SUSTITUCION;
+            try (MetricasInforme.Cronometro ignorado = Metricas.medir(fase)) {
+                copiarEntrada(zin, zout, entrada, conTexto, datosGlobales, duplicableBlocks, buffer);
+            }
+            zout.closeEntry();
+        }
+        zout.finish();
+    }
+
+    /**
+     * Copia una entrada del ZIP, transformando con StAX las partes con texto.
+     */
+    private static void copiarEntrada(ZipInputStream zin, ZipOutputStream zout, ZipEntry entrada, boolean conTexto,
+                                      Map<String, String> datosGlobales,
+                                      Map<String, ? extends Iterable<? extends Map<String, String>>> duplicableBlocks,
+                                      byte[] buffer) throws IOException {
+        if (conTexto) {
+            Map<String, ? extends Iterable<? extends Map<String, String>>> bloques =
+                    entrada.getName().equals("word/document.xml") ? duplicableBlocks : Collections.emptyMap();
+            // El writer StAX emite escrituras muy pequeñas: se agrupan antes de llegar al compresor.
+            OutputStream destino = new BufferedOutputStream(Flujos.noCerrar(zout), 1 << 16);
+            try {
+                new Transformador(Flujos.noCerrar(zin), destino, datosGlobales, bloques).transformar();
+                destino.flush();
+            } catch (XMLStreamException e) {
+                throw new IOException("Error al procesar " + entrada.getName(), e);
+            }
+        } else {
+            int leidos;
+            while ((leidos = zin.read(buffer)) != -1) {
+                zout.write(buffer, 0, leidos);
+            }
+        }
+    }
+
+    /**
+     * Reescribe una parte XML de WordprocessingML evento a evento.
+     */
+    private static final class Transformador {
+        private static final QName P = new QName(DocxGenerador.NS_W, "p");
+        private static final QName T = new QName(DocxGenerador.NS_W, "t");
+        private static final QName BODY = new QName(DocxGenerador.NS_W, "body");
+        private static final QName XML_SPACE = new QName(XMLConstants.XML_NS_URI, "space", "xml");
+
+        private final XMLEventReader reader;
+        private final XMLEventWriter writer;
+        private final Map<String, String> globales;
+        private final Map<String, ? extends Iterable<? extends Map<String, String>>> bloques;
+        /** Identificadores de todos los bloques con datos, incluidos los anidados ("tarea" para "incidencia[0].tarea"). */
+        private final Set<String> identificadores = new HashSet<>();
+        private final Set<String> avisados = new HashSet<>();
+
+        private Transformador(InputStream in, OutputStream out, Map<String, String> globales,
+                              Map<String, ? extends Iterable<? extends Map<String, String>>> bloques) throws XMLStreamException {
+            this.reader = INPUT_FACTORY.createXMLEventReader(in);
+            this.writer = OUTPUT_FACTORY.createXMLEventWriter(out, "UTF-8");
+            this.globales = globales;
+            this.bloques = bloques;
+            for (String clave : bloques.keySet()) {
+                identificadores.add(Marcadores.idDeClave(clave));
+            }
+        }
+
+        private void transformar() throws XMLStreamException {
+            int profundidad = 0;
+            int profundidadCuerpo = -1;
+            String bloqueAbierto = null;
+            List<XMLEvent> marcadorInicio = null;
+            List<XMLEvent> captura = new ArrayList<>();
+
+            while (reader.hasNext()) {
+                XMLEvent evento = reader.nextEvent();
+                if (evento.isStartElement() && evento.asStartElement().getName().equals(P)) {
+                    List<XMLEvent> parrafo = leerParrafo(evento, reader);
+                    boolean enCuerpo = profundidad == profundidadCuerpo;
+                    String blockId = enCuerpo || !identificadores.isEmpty() ? Marcadores.idDe(textoDe(parrafo)) : null;
+                    if (blockId != null && (!enCuerpo || bloqueAbierto != null && !bloqueAbierto.equals(blockId))) {
+                        // Marcador en una tabla, un cuadro de texto o dentro de otro bloque: no se expande aquí.
+                        avisarNoSoportado(blockId);
+                        blockId = null;
+                    }
+                    if (bloqueAbierto != null) {
+                        if (bloqueAbierto.equals(blockId)) {
+                            // Marcador de cierre: se escribe el bloque una vez por fila y se descartan los marcadores.
+                            // Las filas se leen de una en una mientras se escriben (ver FuenteFilas).
+                            int copias = 0;
+                            for (Map<String, String> fila : bloques.get(bloqueAbierto)) {
+                                reproducir(captura, fila);
+                                copias++;
+                            }
+                            Metricas.contarBloques(copias);
+                            bloqueAbierto = null;
+                            captura.clear();
+                        } else {
+                            captura.addAll(parrafo);
+                        }
+                    } else if (blockId != null && bloques.containsKey(blockId)) {
+                        bloqueAbierto = blockId;
+                        marcadorInicio = parrafo;
+                    } else {
+                        escribirParrafo(parrafo, null);
+                    }
+                    continue;
+                }
+
+                if (evento.isStartElement()) {
+                    profundidad++;
+                    if (evento.asStartElement().getName().equals(BODY)) {
+                        profundidadCuerpo = profundidad;
+                    }
+                } else if (evento.isEndElement()) {
+                    if (bloqueAbierto != null && evento.asEndElement().getName().equals(BODY)) {
+                        // Falta el marcador de cierre: el contenido se deja tal cual, como en DocxGenerador.
+                        Metricas.avisar("No se encontraron los dos marcadores necesarios para el bloque.");
+                        escribirParrafo(marcadorInicio, null);
+                        reproducir(captura, null);
+                        bloqueAbierto = null;
+                        captura.clear();
+                    }
+                    profundidad--;
+                }
+
+                if (bloqueAbierto != null) {
+                    captura.add(evento);
+                } else {
+                    writer.add(evento);
+                }
+            }
+            writer.flush();
+            writer.close();
+        }
+
+        private void avisarNoSoportado(String blockId) {
+            if (identificadores.contains(blockId) && avisados.add(blockId)) {
+                Metricas.avisar("El bloque \"" + blockId + "\" está en una tabla o dentro de otro bloque y el modo"
+                        + " streaming no lo expande; use DocxGenerador para esta plantilla.");
+            }
+        }
+
+        /**
+         * Lee un párrafo completo (incluidos los párrafos anidados, por ejemplo en cuadros de texto).
+         */
+        private static List<XMLEvent> leerParrafo(XMLEvent inicio, Iterator<?> eventos) {
+            List<XMLEvent> parrafo = new ArrayList<>();
+            parrafo.add(inicio);
+            int anidados = 1;
+            while (anidados > 0) {
+                XMLEvent evento = (XMLEvent) eventos.next();
+                parrafo.add(evento);
+                if (evento.isStartElement() && evento.asStartElement().getName().equals(P)) {
+                    anidados++;
+                } else if (evento.isEndElement() && evento.asEndElement().getName().equals(P)) {
+                    anidados--;
+                }
+            }
+            return parrafo;
+        }
+
+        private static String textoDe(List<XMLEvent> parrafo) {
+            StringBuilder sb = new StringBuilder();
+            boolean enTexto = false;
+            for (XMLEvent evento : parrafo) {
+                if (evento.isStartElement() && evento.asStartElement().getName().equals(T)) {
+                    enTexto = true;
+                } else if (evento.isEndElement() && evento.asEndElement().getName().equals(T)) {
+                    enTexto = false;
+                } else if (enTexto && evento.isCharacters()) {
+                    sb.append(evento.asCharacters().getData());
+                }
+            }
+            return sb.toString();
+        }
+
+        /**
+         * Escribe los eventos capturados de un bloque sustituyendo los placeholders de cada párrafo.
+         */
+        private void reproducir(List<XMLEvent> captura, Map<String, String> fila) throws XMLStreamException {
+            Iterator<XMLEvent> eventos = captura.iterator();
+            while (eventos.hasNext()) {
+                XMLEvent evento = eventos.next();
+                if (evento.isStartElement() && evento.asStartElement().getName().equals(P)) {
+                    escribirParrafo(leerParrafo(evento, eventos), fila);
+                } else {
+                    writer.add(evento);
+                }
+            }
+        }
+
+        /**
+         * Escribe un párrafo sustituyendo sus placeholders, aunque estén partidos entre varios runs.
+         * Los textos de cada párrafo (y de cada párrafo anidado) se sustituyen como un grupo de segmentos.
+         */
+        private void escribirParrafo(List<XMLEvent> parrafo, Map<String, String> fila) throws XMLStreamException {
+            Metricas.contarParrafos(1);
+            String[] textos = new String[parrafo.size()];
+            Map<Integer, List<Integer>> grupos = new LinkedHashMap<>();
+            Deque<Integer> abiertos = new ArrayDeque<>();
+            boolean enTexto = false;
+            for (int i = 0; i < parrafo.size(); i++) {
+                XMLEvent evento = parrafo.get(i);
+                if (evento.isStartElement()) {
+                    QName nombre = evento.asStartElement().getName();
+                    if (nombre.equals(P)) abiertos.push(i);
+                    else if (nombre.equals(T)) enTexto = true;
+                } else if (evento.isEndElement()) {
+                    QName nombre = evento.asEndElement().getName();
+                    if (nombre.equals(P)) abiertos.pop();
+                    else if (nombre.equals(T)) enTexto = false;
+                } else if (enTexto && evento.isCharacters()) {
+                    grupos.computeIfAbsent(abiertos.peek(), k -> new ArrayList<>()).add(i);
+                }
+            }
+
+            for (List<Integer> grupo : grupos.values()) {
+                String[] segmentos = new String[grupo.size()];
+                for (int j = 0; j < segmentos.length; j++) {
+                    segmentos[j] = parrafo.get(grupo.get(j)).asCharacters().getData();
+                }
+                String[] sustituidos = MotorSustitucion.sustituirSegmentos(segmentos, globales);
+                if (fila != null) {
+                    sustituidos = MotorSustitucion.sustituirSegmentos(sustituidos, fila);
+                }
+                if (sustituidos == segmentos) continue;
+                for (int j = 0; j < segmentos.length; j++) {
+                    textos[grupo.get(j)] = sustituidos[j];
+                }
+            }
+
+            for (int i = 0; i < parrafo.size(); i++) {
+                XMLEvent evento = parrafo.get(i);
+                if (textos[i] != null) {
+                    writer.add(EVENT_FACTORY.createCharacters(textos[i]));
+                } else if (evento.isStartElement() && evento.asStartElement().getName().equals(T)
+                        && i + 1 < parrafo.size() && textos[i + 1] != null) {
+                    writer.add(conEspaciosPreservados(evento.asStartElement()));
+                } else {
+                    writer.add(evento);
+                }
+            }
+        }
+
+        /**
+         * Añade xml:space="preserve" a un w:t cuyo texto sustituido podría empezar o acabar en blanco.
+         */
+        private static StartElement conEspaciosPreservados(StartElement t) {
+            if (t.getAttributeByName(XML_SPACE) != null) return t;
+            List<Attribute> atributos = new ArrayList<>();
+            for (Iterator<Attribute> it = t.getAttributes(); it.hasNext(); ) {
+                atributos.add(it.next());
+            }
+            atributos.add(EVENT_FACTORY.createAttribute(XML_SPACE, "preserve"));
+            return EVENT_FACTORY.createStartElement(t.getName(), atributos.iterator(), t.getNamespaces());
+        }
+    }
+}
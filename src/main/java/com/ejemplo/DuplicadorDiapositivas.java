@@ -0,0 +1,140 @@
+package com.ejemplo;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import javax.xml.namespace.QName;
+
+import org.apache.poi.ooxml.POIXMLDocumentPart;
+import org.apache.poi.ooxml.POIXMLRelation;
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.openxml4j.opc.PackageRelationship;
+import org.apache.poi.openxml4j.opc.TargetMode;
+import org.apache.poi.xslf.usermodel.XMLSlideShow;
+import org.apache.poi.xslf.usermodel.XSLFComments;
+import org.apache.poi.xslf.usermodel.XSLFFactory;
+import org.apache.poi.xslf.usermodel.XSLFNotes;
+import org.apache.poi.xslf.usermodel.XSLFRelation;
+import org.apache.poi.xslf.usermodel.XSLFSheet;
+import org.apache.poi.xslf.usermodel.XSLFSlide;
+import org.apache.poi.xslf.usermodel.XSLFSlideLayout;
+import org.apache.xmlbeans.XmlCursor;
+import org.apache.xmlbeans.XmlObject;
+
+/**
+ * Duplica diapositivas completas para los bloques de diapositiva de {@link PlantillaPptx}.
+ * <p>
+ * La copia usa el mismo diseño que la original y comparte con ella las partes del paquete a las que
+ * hace referencia (imágenes, fondos, audio, vídeo...): en lugar de copiar sus bytes, se añade a la
+ * copia una relación a la misma parte, de modo que una presentación con cientos de diapositivas
+ * duplicadas sigue guardando cada imagen una sola vez.
+ */
+final class DuplicadorDiapositivas {
+
+    private static final String NS_R = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+
+    private DuplicadorDiapositivas() {
+    }
+
+    /**
+     * Añade a la presentación una copia de la diapositiva (y de sus notas, si las tiene) en la posición indicada.
+     * @param ppt      Presentación que contiene la diapositiva.
+     * @param origen   Diapositiva a copiar.
+     * @param posicion Posición de la copia entre las diapositivas de la presentación.
+     * @return La diapositiva copiada.
+     */
+    static XSLFSlide duplicar(XMLSlideShow ppt, XSLFSlide origen, int posicion) {
+        XSLFSlide copia = ppt.createSlide(origen.getSlideLayout());
+        copiar(origen, copia, parte -> parte instanceof XSLFSlideLayout || parte instanceof XSLFNotes
+                || parte instanceof XSLFComments);
+        XSLFNotes notas = origen.getNotes();
+        if (notas != null) {
+            // Sin ppt.getNotesSlide, que rellenaría las notas nuevas importando el patrón de notas
+            // para que a continuación se sobrescriban.
+            int numero = copia.getNextPartNumber(XSLFRelation.NOTES, ppt.getSlides().size());
+            XSLFNotes notasCopia = (XSLFNotes) copia.createRelationship(XSLFRelation.NOTES, XSLFFactory.getInstance(), numero);
+            String idDiapositiva = notas.getRelationId(origen);
+            notasCopia.addRelation(idDiapositiva, XSLFRelation.SLIDE, copia);
+            copiar(notas, notasCopia, parte -> parte == origen);
+        }
+        ppt.setSlideOrder(copia, posicion);
+        return copia;
+    }
+
+    /**
+     * Copia el XML de una parte en otra recién creada y comparte con ella sus relaciones, salvo las omitidas.
+     */
+    private static void copiar(XSLFSheet origen, XSLFSheet copia, Predicate<POIXMLDocumentPart> omitir) {
+        Map<String, String> renombradas = compartirRelaciones(origen, copia, omitir);
+        copia.getXmlObject().set(origen.getXmlObject());
+        if (!renombradas.isEmpty()) {
+            renombrar(copia.getXmlObject(), renombradas);
+        }
+    }
+
+    /**
+     * Da a la copia las mismas relaciones que el original, salvo las omitidas: en una diapositiva, el diseño
+     * (que ya tiene), las notas y los comentarios (que son propios de cada diapositiva). Se conservan los
+     * identificadores para que el XML copiado siga siendo válido; los que ya están ocupados en la copia se
+     * sustituyen por otros nuevos.
+     * @return Identificadores renombrados: del original al de la copia.
+     */
+    private static Map<String, String> compartirRelaciones(XSLFSheet origen, XSLFSheet copia,
+                                                           Predicate<POIXMLDocumentPart> omitir) {
+        Map<String, String> renombradas = new HashMap<>();
+        PackagePart parteCopia = copia.getPackagePart();
+        for (POIXMLDocumentPart.RelationPart relacion : origen.getRelationParts()) {
+            POIXMLDocumentPart destino = relacion.getDocumentPart();
+            if (omitir.test(destino)) continue;
+            PackageRelationship original = relacion.getRelationship();
+            String id = parteCopia.getRelationship(original.getId()) == null ? original.getId() : null;
+            String nuevo = copia.addRelation(id, tipo(original.getRelationshipType()), destino).getRelationship().getId();
+            if (!nuevo.equals(original.getId())) {
+                renombradas.put(original.getId(), nuevo);
+            }
+        }
+        try {
+            for (PackageRelationship original : origen.getPackagePart().getRelationships()) {
+                if (original.getTargetMode() != TargetMode.EXTERNAL) continue;
+                // Hipervínculos y otros destinos externos: no son partes del paquete.
+                String destino = original.getTargetURI().toString();
+                PackageRelationship nueva = parteCopia.getRelationship(original.getId()) == null
+                        ? parteCopia.addExternalRelationship(destino, original.getRelationshipType(), original.getId())
+                        : parteCopia.addExternalRelationship(destino, original.getRelationshipType());
+                if (!nueva.getId().equals(original.getId())) {
+                    renombradas.put(original.getId(), nueva.getId());
+                }
+            }
+        } catch (InvalidFormatException e) {
+            throw new IllegalStateException("No se pueden leer las relaciones de " + origen.getPackagePart().getPartName(), e);
+        }
+        return renombradas;
+    }
+
+    private static POIXMLRelation tipo(String relacion) {
+        XSLFRelation conocida = XSLFRelation.getInstance(relacion);
+        if (conocida != null) return conocida;
+        // Relaciones que POI no modela (vídeo, controles ActiveX...): basta con el tipo de la relación.
+        return new POIXMLRelation(null, relacion, null) {
+        };
+    }
+
+    /**
+     * Sustituye los identificadores de relación renombrados en los atributos {@code r:*} del XML copiado.
+     */
+    private static void renombrar(XmlObject raiz, Map<String, String> renombradas) {
+        try (XmlCursor cursor = raiz.newCursor()) {
+            while (cursor.hasNextToken()) {
+                if (cursor.toNextToken().isAttr()) {
+                    QName nombre = cursor.getName();
+                    String nuevo = NS_R.equals(nombre.getNamespaceURI()) ? renombradas.get(cursor.getTextValue()) : null;
+                    if (nuevo != null) {
+                        cursor.setTextValue(nuevo);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.ejemplo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.poi.ooxml.POIXMLDocument;
+
+/**
+ * Empaquetado ZIP de los informes DOCX y PPTX. POI comprime todas las partes del paquete una detrás
+ * de otra y con el nivel por defecto, incluidas las imágenes, que ya vienen comprimidas: en una
+ * presentación con mucha multimedia es la mayor parte del tiempo de escritura.
+ * <p>
+ * Con el empaquetado activo, POI sigue generando el contenido de cada parte y su orden en el paquete,
+ * pero las partes se recogen sin comprimir, se comprimen a la vez en el pool fork-join común, cada
+ * una con el nivel que corresponde a su tipo (su extensión), y se escriben ya comprimidas en el mismo
+ * orden. Las partes con nivel 0 se guardan sin comprimir: por defecto, las imágenes PNG, JPEG, GIF y EMF.
+ * <p>
+ * Está desactivado por defecto: se activa con {@link #setActivo(boolean)} o con la propiedad del sistema
+ * {@code -Dinformes.empaquetado=true}. Los niveles se cambian con {@link #setNivel(String, int)} o con
+ * {@code -Dinformes.empaquetado.niveles=xml:1,rels:1,png:0}. Las hojas XLSX se escriben en streaming
+ * ({@link XlsxGenerador}) y no pasan por aquí.
+ */
+public final class EmpaquetadoZip {
+
+    private static volatile boolean activo = Boolean.getBoolean("informes.empaquetado");
+
+    private static volatile int nivelPorDefecto = Deflater.DEFAULT_COMPRESSION;
+
+    private static final Map<String, Integer> NIVELES = new ConcurrentHashMap<>();
+
+    static {
+        for (String extension : new String[] {"png", "jpg", "jpeg", "gif", "emf"}) {
+            NIVELES.put(extension, Deflater.NO_COMPRESSION);
+        }
+        String niveles = System.getProperty("informes.empaquetado.niveles");
+        if (niveles != null && !niveles.isBlank()) {
+            for (String nivel : niveles.split(",")) {
+                String[] partes = nivel.trim().split(":");
+                if (partes.length != 2) {
+                    throw new IllegalArgumentException("Nivel de compresión no válido (extension:nivel): " + nivel);
+                }
+                setNivel(partes[0].trim(), Integer.parseInt(partes[1].trim()));
+            }
+        }
+    }
+
+    /**
+     * Parte del paquete recogida sin comprimir.
+     */
+    private static final class Parte {
+        private final ZipArchiveEntry entrada;
+        private final byte[] datos;
+        private final int nivel;
+        private byte[] comprimidos;
+        private long crc;
+
+        private Parte(ZipArchiveEntry entrada, byte[] datos, int nivel) {
+            this.entrada = entrada;
+            this.datos = datos;
+            this.nivel = nivel;
+        }
+
+        private void comprimir() {
+            CRC32 suma = new CRC32();
+            suma.update(datos);
+            crc = suma.getValue();
+            if (nivel == Deflater.NO_COMPRESSION) {
+                comprimidos = datos;
+                return;
+            }
+            Deflater deflater = new Deflater(nivel, true);
+            try {
+                deflater.setInput(datos);
+                deflater.finish();
+                ByteArrayOutputStream salida = new ByteArrayOutputStream(datos.length / 4 + 64);
+                byte[] buffer = new byte[8192];
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(buffer);
+                    salida.write(buffer, 0, n);
+                }
+                // Una parte que no se reduce al comprimirla se guarda tal cual, como haría zip.
+                comprimidos = salida.size() < datos.length ? salida.toByteArray() : datos;
+            } finally {
+                deflater.end();
+            }
+        }
+    }
+
+    /**
+     * Flujo ZIP que POI recibe en lugar del de salida ({@code ZipPackage} escribe directamente en un
+     * {@link ZipArchiveOutputStream} si se le pasa uno): en vez de comprimir, guarda cada parte en memoria.
+     */
+    private static final class Recolector extends ZipArchiveOutputStream {
+        private final List<Parte> partes = new ArrayList<>();
+        private ZipArchiveEntry entrada;
+        private ByteArrayOutputStream datos;
+
+        private Recolector() {
+            super(OutputStream.nullOutputStream());
+        }
+
+        @Override
+        public void putArchiveEntry(ArchiveEntry archiveEntry) {
+            entrada = (ZipArchiveEntry) archiveEntry;
+            datos = new ByteArrayOutputStream();
+        }
+
+        @Override
+        public void write(byte[] b, int offset, int length) {
+            datos.write(b, offset, length);
+        }
+
+        @Override
+        public void closeArchiveEntry() {
+            partes.add(new Parte(entrada, datos.toByteArray(), nivel(entrada.getName())));
+            entrada = null;
+            datos = null;
+        }
+    }
+
+    private EmpaquetadoZip() {
+    }
+
+    /**
+     * Activa o desactiva el empaquetado para los informes que se escriban a partir de ahora.
+     * @param activar {@code true} para empaquetar aquí; {@code false} para dejar que POI escriba el paquete.
+     */
+    public static void setActivo(boolean activar) {
+        activo = activar;
+    }
+
+    /**
+     * @return {@code true} si el empaquetado está activo.
+     */
+    public static boolean isActivo() {
+        return activo;
+    }
+
+    /**
+     * Cambia el nivel de compresión de un tipo de parte.
+     * @param extension Extensión de las partes, sin punto ("xml", "rels", "png"...).
+     * @param nivel     Nivel de compresión de 1 a 9, 0 para guardarlas sin comprimir o -1 para el nivel por defecto.
+     */
+    public static void setNivel(String extension, int nivel) {
+        validar(nivel);
+        NIVELES.put(extension.toLowerCase(Locale.ROOT), nivel);
+    }
+
+    /**
+     * Cambia el nivel de compresión de las partes cuyo tipo no tiene un nivel propio.
+     * @param nivel Nivel de compresión de 1 a 9, 0 para no comprimir o -1 para el nivel por defecto de zlib.
+     */
+    public static void setNivelPorDefecto(int nivel) {
+        validar(nivel);
+        nivelPorDefecto = nivel;
+    }
+
+    /**
+     * Escribe un documento o una presentación en un flujo, con el empaquetado si está activo y, si no,
+     * con el de POI. El flujo no se cierra.
+     * @param documento Documento a guardar.
+     * @param out       Flujo de destino.
+     * @throws IOException Si ocurre un error al escribir.
+     */
+    static void escribir(POIXMLDocument documento, OutputStream out) throws IOException {
+        if (!activo) {
+            documento.write(out);
+            return;
+        }
+        List<Parte> partes;
+        try (Recolector recolector = new Recolector()) {
+            documento.write(recolector);
+            partes = recolector.partes;
+        }
+        List<ForkJoinTask<?>> tareas = new ArrayList<>(partes.size());
+        for (Parte parte : partes) {
+            tareas.add(ForkJoinPool.commonPool().submit(parte::comprimir));
+        }
+        for (ForkJoinTask<?> tarea : tareas) {
+            tarea.join();
+        }
+        try (ZipArchiveOutputStream zip = new ZipArchiveOutputStream(Flujos.noCerrar(out))) {
+            for (Parte parte : partes) {
+                ZipArchiveEntry entrada = new ZipArchiveEntry(parte.entrada.getName());
+                if (parte.entrada.getTime() != -1) {
+                    entrada.setTime(parte.entrada.getTime());
+                }
+                entrada.setMethod(parte.comprimidos == parte.datos ? ZipEntry.STORED : ZipEntry.DEFLATED);
+                entrada.setSize(parte.datos.length);
+                entrada.setCompressedSize(parte.comprimidos.length);
+                entrada.setCrc(parte.crc);
+                zip.addRawArchiveEntry(entrada, new ByteArrayInputStream(parte.comprimidos));
+            }
+        }
+    }
+
+    private static int nivel(String nombre) {
+        int punto = nombre.lastIndexOf('.');
+        Integer nivel = punto >= 0 ? NIVELES.get(nombre.substring(punto + 1).toLowerCase(Locale.ROOT)) : null;
+        return nivel != null ? nivel : nivelPorDefecto;
+    }
+
+    private static void validar(int nivel) {
+        if (nivel < Deflater.DEFAULT_COMPRESSION || nivel > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Nivel de compresión no válido: " + nivel);
+        }
+    }
+}
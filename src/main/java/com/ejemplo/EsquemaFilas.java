@@ -0,0 +1,157 @@
+package com.ejemplo;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Esquema de las filas de un bloque: asigna una posición fija a cada placeholder ("{{ID}}" -> 0,
+ * "{{Title}}" -> 1...) para que las filas se guarden como arrays de valores ({@link FilaCompacta})
+ * en lugar de un HashMap por fila con las mismas claves repetidas.
+ * <p>
+ * El motor de sustitución resuelve los placeholders de una fila compacta directamente sobre el texto
+ * de la plantilla, sin extraer la clave ni crear entradas de mapa. Además, los valores cortos que se
+ * repiten entre filas (prioridades, estados, responsables...) se guardan una sola vez por esquema.
+ * Un esquema puede compartirse entre hilos.
+ */
+public final class EsquemaFilas {
+
+    /** Longitud máxima de los valores que se deduplican; los textos largos rara vez se repiten. */
+    private static final int MAX_LONGITUD_DEDUPLICADA = 64;
+    /** Número máximo de valores distintos que se deduplican, para no retener datos de filas ya liberadas. */
+    private static final int MAX_VALORES_DEDUPLICADOS = 4096;
+
+    private final String[] claves;
+    // Tabla hash de direccionamiento abierto: posición + 1 de la clave, o 0 si la celda está libre.
+    private final int[] tabla;
+    private final Map<String, String> valores = new ConcurrentHashMap<>();
+
+    private EsquemaFilas(String[] claves) {
+        this.claves = claves;
+        this.tabla = new int[Integer.highestOneBit(Math.max(claves.length, 1) * 4)];
+        for (int i = 0; i < claves.length; i++) {
+            int celda = hash(claves[i], 0, claves[i].length()) & (tabla.length - 1);
+            while (tabla[celda] != 0) {
+                if (claves[tabla[celda] - 1].equals(claves[i])) {
+                    throw new IllegalArgumentException("Placeholder repetido en el esquema: " + claves[i]);
+                }
+                celda = (celda + 1) & (tabla.length - 1);
+            }
+            tabla[celda] = i + 1;
+        }
+    }
+
+    /**
+     * Crea un esquema con los campos indicados, en orden.
+     * @param nombres Nombres de los campos ("ID") o placeholders completos ("{{ID}}").
+     * @return El esquema.
+     * @throws IllegalArgumentException Si un campo está repetido.
+     */
+    public static EsquemaFilas de(String... nombres) {
+        String[] claves = new String[nombres.length];
+        for (int i = 0; i < nombres.length; i++) {
+            claves[i] = MotorSustitucion.placeholder(nombres[i]);
+        }
+        return new EsquemaFilas(claves);
+    }
+
+    /**
+     * @return Número de campos del esquema.
+     */
+    public int getTamano() {
+        return claves.length;
+    }
+
+    /**
+     * @param posicion Posición de un campo.
+     * @return El placeholder completo del campo ("{{ID}}").
+     */
+    public String getClave(int posicion) {
+        return claves[posicion];
+    }
+
+    /**
+     * @param clave Placeholder completo ("{{ID}}").
+     * @return La posición del campo, o -1 si no pertenece al esquema.
+     */
+    public int indice(String clave) {
+        return indice(clave, 0, clave.length());
+    }
+
+    /**
+     * Busca un placeholder que aparece en un tramo de un texto, sin extraerlo.
+     * @param texto Texto que contiene el placeholder.
+     * @param desde Inicio del placeholder ("{{").
+     * @param hasta Fin del placeholder, excluido (tras "}}").
+     * @return La posición del campo, o -1 si no pertenece al esquema.
+     */
+    int indice(CharSequence texto, int desde, int hasta) {
+        int celda = hash(texto, desde, hasta) & (tabla.length - 1);
+        int posicion;
+        while ((posicion = tabla[celda]) != 0) {
+            if (coincide(claves[posicion - 1], texto, desde, hasta)) return posicion - 1;
+            celda = (celda + 1) & (tabla.length - 1);
+        }
+        return -1;
+    }
+
+    /**
+     * Crea una fila con los valores de cada campo, en el orden del esquema.
+     * @param valores Valores de la fila; si hay menos que campos, el resto quedan sin valor
+     *                (sus placeholders se dejan tal cual, como con una clave ausente en un Map).
+     * @return La fila.
+     * @throws IllegalArgumentException Si hay más valores que campos.
+     */
+    public FilaCompacta fila(String... valores) {
+        if (valores.length > claves.length) {
+            throw new IllegalArgumentException("La fila tiene " + valores.length + " valores y el esquema "
+                    + claves.length + " campos");
+        }
+        String[] fila = Arrays.copyOf(valores, claves.length);
+        for (int i = 0; i < valores.length; i++) {
+            fila[i] = deduplicar(fila[i]);
+        }
+        return new FilaCompacta(this, fila);
+    }
+
+    /**
+     * Convierte una fila en forma de Map a este esquema. Las claves que no pertenecen al esquema se descartan.
+     * @param datos Fila con claves de placeholder completas.
+     * @return La fila compacta.
+     */
+    public FilaCompacta fila(Map<String, String> datos) {
+        String[] fila = new String[claves.length];
+        for (int i = 0; i < claves.length; i++) {
+            fila[i] = deduplicar(datos.get(claves[i]));
+        }
+        return new FilaCompacta(this, fila);
+    }
+
+    private String deduplicar(String valor) {
+        if (valor == null || valor.length() > MAX_LONGITUD_DEDUPLICADA) return valor;
+        String existente = valores.get(valor);
+        if (existente != null) return existente;
+        if (valores.size() >= MAX_VALORES_DEDUPLICADOS) return valor;
+        existente = valores.putIfAbsent(valor, valor);
+        return existente != null ? existente : valor;
+    }
+
+    /**
+     * Mismo hash que {@link String#hashCode()}, calculado sobre un tramo de texto.
+     */
+    private static int hash(CharSequence texto, int desde, int hasta) {
+        int h = 0;
+        for (int i = desde; i < hasta; i++) {
+            h = 31 * h + texto.charAt(i);
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean coincide(String clave, CharSequence texto, int desde, int hasta) {
+        if (clave.length() != hasta - desde) return false;
+        for (int i = 0; i < clave.length(); i++) {
+            if (clave.charAt(i) != texto.charAt(desde + i)) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,23 @@
+package com.ejemplo;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Evento JFR con la duración de una fase de generación de un informe.
+ */
+@Name("com.ejemplo.FaseInforme")
+@Label("Fase de informe")
+@Category("InformesTeams")
+@Description("Duración de una fase (lectura, normalización, sustitución, bloques o escritura) de un informe")
+final class EventoFaseInforme extends Event {
+
+    @Label("Tipo")
+    String tipo;
+
+    @Label("Fase")
+    String fase;
+}
@@ -0,0 +1,40 @@
+package com.ejemplo;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Evento JFR con la generación completa de un informe y sus contadores.
+ */
+@Name("com.ejemplo.Informe")
+@Label("Informe generado")
+@Category("InformesTeams")
+@Description("Generación completa de un informe DOCX o PPTX")
+final class EventoInforme extends Event {
+
+    @Label("Tipo")
+    String tipo;
+
+    @Label("Salida")
+    String salida;
+
+    @Label("Párrafos visitados")
+    int parrafos;
+
+    @Label("Runs fusionados")
+    int runsFusionados;
+
+    @Label("Placeholders sustituidos")
+    long placeholders;
+
+    @Label("Copias de bloque")
+    int bloques;
+
+    @Label("Bytes escritos")
+    @DataAmount
+    long bytesEscritos;
+}
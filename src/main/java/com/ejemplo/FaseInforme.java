@@ -0,0 +1,19 @@
+package com.ejemplo;
+
+/**
+ * Fases en las que se reparte el tiempo de generación de un informe.
+ */
+public enum FaseInforme {
+    /** Lectura de la plantilla (o de la caché) y apertura de la copia de trabajo. */
+    LECTURA,
+    /** Fusión de runs de los párrafos con placeholders; solo ocurre al compilar una plantilla nueva o modificada. */
+    NORMALIZACION,
+    /** Sustitución de los placeholders globales. */
+    SUSTITUCION,
+    /** Expansión de los bloques duplicables. */
+    BLOQUES,
+    /** Incrustación de las imágenes de los placeholders {@code {{img:nombre}}}. */
+    IMAGENES,
+    /** Serialización y compresión ZIP del documento generado. */
+    ESCRITURA
+}
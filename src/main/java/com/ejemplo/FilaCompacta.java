@@ -0,0 +1,101 @@
+package com.ejemplo;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Fila de un bloque guardada como array de valores según un {@link EsquemaFilas}.
+ * <p>
+ * Se comporta como un Map inmutable de placeholders a valores, por lo que puede usarse en cualquier
+ * sitio donde se acepta una fila ({@code Map<String, String>}); el motor de sustitución la reconoce
+ * y resuelve cada placeholder por su posición en el esquema.
+ */
+public final class FilaCompacta extends AbstractMap<String, String> {
+
+    private final EsquemaFilas esquema;
+    private final String[] valores;
+
+    FilaCompacta(EsquemaFilas esquema, String[] valores) {
+        this.esquema = esquema;
+        this.valores = valores;
+    }
+
+    /**
+     * @return El esquema de la fila.
+     */
+    public EsquemaFilas getEsquema() {
+        return esquema;
+    }
+
+    /**
+     * @param posicion Posición del campo en el esquema.
+     * @return El valor del campo, o {@code null} si no tiene.
+     */
+    public String get(int posicion) {
+        return valores[posicion];
+    }
+
+    /**
+     * Valor del placeholder que ocupa un tramo de un texto, sin extraerlo.
+     * @return El valor, o {@code null} si el placeholder no pertenece al esquema o no tiene valor.
+     */
+    String valor(CharSequence texto, int desde, int hasta) {
+        int posicion = esquema.indice(texto, desde, hasta);
+        return posicion < 0 ? null : valores[posicion];
+    }
+
+    @Override
+    public String get(Object clave) {
+        if (!(clave instanceof String)) return null;
+        int posicion = esquema.indice((String) clave);
+        return posicion < 0 ? null : valores[posicion];
+    }
+
+    @Override
+    public boolean containsKey(Object clave) {
+        return get(clave) != null;
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return new AbstractSet<Entry<String, String>>() {
+            @Override
+            public Iterator<Entry<String, String>> iterator() {
+                return new Iterator<Entry<String, String>>() {
+                    private int siguiente = avanzar(0);
+
+                    private int avanzar(int desde) {
+                        while (desde < valores.length && valores[desde] == null) desde++;
+                        return desde;
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return siguiente < valores.length;
+                    }
+
+                    @Override
+                    public Entry<String, String> next() {
+                        if (siguiente >= valores.length) throw new NoSuchElementException();
+                        int actual = siguiente;
+                        siguiente = avanzar(actual + 1);
+                        return new SimpleImmutableEntry<>(esquema.getClave(actual), valores[actual]);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                int n = 0;
+                for (String valor : valores) {
+                    if (valor != null) n++;
+                }
+                return n;
+            }
+        };
+    }
+}
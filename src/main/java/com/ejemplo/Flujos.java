@@ -0,0 +1,122 @@
+package com.ejemplo;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Adaptadores de flujos compartidos por los generadores, para leer plantillas y escribir informes
+ * sin pasar por archivos temporales.
+ */
+final class Flujos {
+
+    /**
+     * Abre el flujo donde se escribe un informe. Se invoca solo cuando el documento ya está generado,
+     * para no dejar archivos vacíos si la generación falla.
+     */
+    @FunctionalInterface
+    interface Destino {
+        OutputStream abrir() throws IOException;
+    }
+
+    private Flujos() {
+    }
+
+    /**
+     * Devuelve un flujo que lee el contenido restante de un buffer sin modificar su posición.
+     * @param buffer Buffer con el contenido (por ejemplo, un archivo mapeado en memoria).
+     * @return Flujo de lectura sobre una vista del buffer.
+     */
+    static InputStream entrada(ByteBuffer buffer) {
+        ByteBuffer vista = buffer.duplicate();
+        return new InputStream() {
+            @Override
+            public int read() {
+                return vista.hasRemaining() ? vista.get() & 0xFF : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (len == 0) return 0;
+                if (!vista.hasRemaining()) return -1;
+                int leidos = Math.min(len, vista.remaining());
+                vista.get(b, off, leidos);
+                return leidos;
+            }
+
+            @Override
+            public int available() {
+                return vista.remaining();
+            }
+        };
+    }
+
+    /**
+     * Devuelve un flujo que escribe en un canal. El canal no se cierra al cerrar el flujo.
+     * @param canal Canal de destino (por ejemplo, un socket o un FileChannel).
+     * @return Flujo de escritura sobre el canal.
+     */
+    static OutputStream salida(WritableByteChannel canal) {
+        return noCerrar(Channels.newOutputStream(canal));
+    }
+
+    /**
+     * Envuelve un flujo de entrada para que {@code close()} no cierre el flujo original.
+     */
+    static InputStream noCerrar(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * Envuelve un flujo de salida para que {@code close()} solo vacíe el buffer y no cierre el flujo original.
+     */
+    static OutputStream noCerrar(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+    }
+
+    /**
+     * Flujo de salida que cuenta los bytes escritos, para las métricas.
+     */
+    static final class Contador extends FilterOutputStream {
+        private long bytes;
+
+        Contador(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            bytes += len;
+        }
+
+        long getBytes() {
+            return bytes;
+        }
+    }
+}
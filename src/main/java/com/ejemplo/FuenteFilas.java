@@ -0,0 +1,133 @@
+package com.ejemplo;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.stream.Stream;
+
+/**
+ * Origen de las filas de un bloque que se leen de una en una, en lugar de cargarlas todas en una lista.
+ * <p>
+ * La expansión de bloques recorre la fuente a la vez que renderiza: cada fila se lee, se sustituye
+ * en su copia del bloque y deja de estar referenciada antes de leer la siguiente. Con
+ * {@link DocxStreamingGenerador} el consumo de memoria no depende del número de filas; con los
+ * generadores DOM se evita al menos mantener todos los datos además del documento.
+ * <p>
+ * Una fuente solo puede recorrerse una vez. Si un mismo bloque aparece varias veces en la plantilla,
+ * o se trata de un bloque anidado cuyos datos no dependen de la fila del bloque que lo contiene
+ * (clave sin {@code "padre[i]."}), sus filas deben pasarse en una lista.
+ * Hay que cerrar la fuente (try-with-resources) para liberar el archivo o el stream de origen.
+ */
+public final class FuenteFilas implements Iterable<Map<String, String>>, AutoCloseable {
+
+    /**
+     * Cierre del recurso de origen de una fuente.
+     */
+    @FunctionalInterface
+    private interface Cierre {
+        void cerrar() throws IOException;
+    }
+
+    private final Iterator<? extends Map<String, String>> filas;
+    private final Cierre cierre;
+    private boolean recorrida;
+
+    private FuenteFilas(Iterator<? extends Map<String, String>> filas, Cierre cierre) {
+        this.filas = filas;
+        this.cierre = cierre;
+    }
+
+    /**
+     * Crea una fuente a partir de un iterador, por ejemplo uno que pagina una consulta.
+     * @param filas Iterador de filas; las claves deben tener la forma completa del placeholder ("{{ID}}").
+     * @return La fuente.
+     */
+    public static FuenteFilas de(Iterator<? extends Map<String, String>> filas) {
+        return new FuenteFilas(filas, () -> { });
+    }
+
+    /**
+     * Crea una fuente a partir de un stream. El stream se cierra al cerrar la fuente.
+     * @param filas Stream de filas; las claves deben tener la forma completa del placeholder ("{{ID}}").
+     * @return La fuente.
+     */
+    public static FuenteFilas de(Stream<? extends Map<String, String>> filas) {
+        return new FuenteFilas(filas.iterator(), filas::close);
+    }
+
+    /**
+     * Abre un CSV exportado (UTF-8, con o sin BOM). La primera línea es la cabecera y da nombre a los
+     * placeholders ("ID" se sustituye en "{{ID}}"); el separador (',' o ';') se detecta en ella.
+     * @param archivo Ruta del CSV.
+     * @return La fuente, que lee el archivo a medida que se recorre.
+     * @throws IOException Si el archivo no se puede abrir o no tiene cabecera.
+     */
+    public static FuenteFilas csv(Path archivo) throws IOException {
+        LectorCsv lector = new LectorCsv(Files.newBufferedReader(archivo, StandardCharsets.UTF_8), (char) 0);
+        return new FuenteFilas(lector, lector::close);
+    }
+
+    /**
+     * Abre un CSV exportado (UTF-8, con o sin BOM) con un separador concreto.
+     * @param archivo    Ruta del CSV.
+     * @param separador  Separador de campos.
+     * @return La fuente, que lee el archivo a medida que se recorre.
+     * @throws IOException Si el archivo no se puede abrir o no tiene cabecera.
+     */
+    public static FuenteFilas csv(Path archivo, char separador) throws IOException {
+        LectorCsv lector = new LectorCsv(Files.newBufferedReader(archivo, StandardCharsets.UTF_8), separador);
+        return new FuenteFilas(lector, lector::close);
+    }
+
+    /**
+     * Abre un archivo JSON Lines (UTF-8): un objeto JSON plano por línea, cuyas propiedades dan nombre
+     * a los placeholders ({@code {"ID": 7}} se sustituye en "{{ID}}"). Las líneas en blanco se ignoran.
+     * @param archivo Ruta del archivo.
+     * @return La fuente, que lee el archivo a medida que se recorre.
+     * @throws IOException Si el archivo no se puede abrir.
+     */
+    public static FuenteFilas jsonLineas(Path archivo) throws IOException {
+        LectorJsonLineas lector = new LectorJsonLineas(Files.newBufferedReader(archivo, StandardCharsets.UTF_8));
+        return new FuenteFilas(lector, lector::close);
+    }
+
+    /**
+     * Devuelve el iterador de las filas. Los errores de lectura del origen se lanzan como
+     * {@link UncheckedIOException} al avanzar.
+     * @throws IllegalStateException Si la fuente ya se ha recorrido.
+     */
+    @Override
+    public Iterator<Map<String, String>> iterator() {
+        if (recorrida) {
+            throw new IllegalStateException("Las filas de una FuenteFilas solo pueden recorrerse una vez; "
+                    + "use una lista si el bloque aparece varias veces en la plantilla.");
+        }
+        recorrida = true;
+        return new Iterator<Map<String, String>>() {
+            @Override
+            public boolean hasNext() {
+                return filas.hasNext();
+            }
+
+            @Override
+            public Map<String, String> next() {
+                if (!filas.hasNext()) throw new NoSuchElementException();
+                return filas.next();
+            }
+        };
+    }
+
+    /**
+     * Cierra el recurso de origen (archivo o stream).
+     * @throws IOException Si ocurre un error al cerrarlo.
+     */
+    @Override
+    public void close() throws IOException {
+        cierre.cerrar();
+    }
+}
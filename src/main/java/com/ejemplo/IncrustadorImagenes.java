@@ -0,0 +1,251 @@
+package com.ejemplo;
+
+import java.awt.geom.Rectangle2D;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.poi.ooxml.POIXMLDocumentPart;
+import org.apache.poi.ooxml.util.POIXMLUnits;
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.xslf.usermodel.XMLSlideShow;
+import org.apache.poi.xslf.usermodel.XSLFGroupShape;
+import org.apache.poi.xslf.usermodel.XSLFPictureData;
+import org.apache.poi.xslf.usermodel.XSLFShape;
+import org.apache.poi.xslf.usermodel.XSLFShapeContainer;
+import org.apache.poi.xslf.usermodel.XSLFSlide;
+import org.apache.poi.xslf.usermodel.XSLFTextShape;
+import org.apache.poi.xwpf.usermodel.IBody;
+import org.apache.poi.xwpf.usermodel.XWPFAbstractFootnoteEndnote;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFRun;
+import org.apache.xmlbeans.XmlCursor;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTDrawing;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTSectPr;
+
+/**
+ * Convierte las referencias {@code {{img=ruta}}} que deja {@link MotorSustitucion} al sustituir los
+ * placeholders {@code {{img:nombre}}} en imágenes incrustadas, una vez sustituidos los globales y
+ * expandidos los bloques.
+ * <p>
+ * Cada imagen se añade al paquete una sola vez por parte (documento, cabecera, pie...) o por presentación:
+ * el resto de apariciones, por ejemplo el logo de cada copia de un bloque, reutilizan el mismo identificador
+ * de relación y solo añaden el XML del dibujo. Las imágenes se obtienen de {@link CacheImagenes}.
+ */
+final class IncrustadorImagenes {
+
+    private static final String FIN_REFERENCIA = "}}";
+
+    private IncrustadorImagenes() {
+    }
+
+    /**
+     * Estado de una pasada sobre un documento DOCX.
+     */
+    private static final class PasadaDocx {
+        private final XWPFDocument documento;
+        private final long anchoMaximo;
+        private final Map<POIXMLDocumentPart, Map<CacheImagenes.Imagen, CTDrawing>> dibujos = new HashMap<>();
+        private long siguienteId = -1;
+
+        private PasadaDocx(XWPFDocument documento) {
+            this.documento = documento;
+            this.anchoMaximo = anchoTexto(documento);
+        }
+    }
+
+    /**
+     * Incrusta las imágenes referenciadas en todas las partes del documento. Cada imagen se muestra a su
+     * tamaño natural ({@value CacheImagenes#PPP} ppp), reducida si hace falta al ancho de texto de la página.
+     * @param documento Documento con los placeholders ya sustituidos.
+     * @throws IOException Si alguna imagen no se puede leer.
+     */
+    static void incrustar(XWPFDocument documento) throws IOException {
+        PasadaDocx pasada = new PasadaDocx(documento);
+        try {
+            RecorridoDocx.recorrer(documento, (parte, indiceParte, ctp, ruta) -> {
+                if (!TextoXml.texto(ctp, DocxGenerador.W_T).contains(MotorSustitucion.REFERENCIA_IMAGEN)) return;
+                XWPFParagraph parrafo = parte.getParagraph(ctp);
+                if (parrafo == null) {
+                    parrafo = new XWPFParagraph(ctp, parte);
+                }
+                try {
+                    incrustar(pasada, parte, parrafo);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Parte los runs con referencias en: texto anterior, run con la imagen y run con el texto restante
+     * (con el mismo formato), que se vuelve a examinar por si contiene más referencias.
+     */
+    private static void incrustar(PasadaDocx pasada, IBody parte, XWPFParagraph parrafo) throws IOException {
+        for (int r = 0; r < parrafo.getRuns().size(); r++) {
+            XWPFRun run = parrafo.getRuns().get(r);
+            String texto = run.getText(0);
+            int inicio = texto == null ? -1 : texto.indexOf(MotorSustitucion.REFERENCIA_IMAGEN);
+            if (inicio < 0) continue;
+            int fin = texto.indexOf(FIN_REFERENCIA, inicio + MotorSustitucion.REFERENCIA_IMAGEN.length());
+            if (fin < 0) continue;
+            String ruta = texto.substring(inicio + MotorSustitucion.REFERENCIA_IMAGEN.length(), fin).trim();
+            String resto = texto.substring(fin + FIN_REFERENCIA.length());
+
+            run.setText(texto.substring(0, inicio), 0);
+            int siguiente = r + 1;
+            if (!ruta.isEmpty()) {
+                if (parte instanceof XWPFAbstractFootnoteEndnote) {
+                    Metricas.avisar("No se admiten imágenes en las notas al pie o al final: " + ruta);
+                } else {
+                    dibujar(pasada, parte.getPart(), parrafo.insertNewRun(siguiente++), CacheImagenes.obtener(ruta));
+                }
+            }
+            if (!resto.isEmpty()) {
+                XWPFRun continuacion = parrafo.insertNewRun(siguiente);
+                if (run.getCTR().isSetRPr()) {
+                    continuacion.getCTR().setRPr(run.getCTR().getRPr());
+                }
+                continuacion.setText(resto, 0);
+            }
+            r = siguiente - 1;
+        }
+    }
+
+    /**
+     * Dibuja la imagen en un run vacío. La primera aparición de la imagen en la parte la añade al paquete;
+     * las siguientes copian el XML de aquel dibujo, que apunta a la misma relación.
+     */
+    private static void dibujar(PasadaDocx pasada, POIXMLDocumentPart parte, XWPFRun run,
+                                CacheImagenes.Imagen imagen) throws IOException {
+        Map<CacheImagenes.Imagen, CTDrawing> dibujosParte = pasada.dibujos.computeIfAbsent(parte, p -> new HashMap<>());
+        CTDrawing dibujo = dibujosParte.get(imagen);
+        if (dibujo == null) {
+            long ancho = imagen.getAnchoEmu();
+            long alto = imagen.getAltoEmu();
+            if (ancho > pasada.anchoMaximo) {
+                alto = alto * pasada.anchoMaximo / ancho;
+                ancho = pasada.anchoMaximo;
+            }
+            try {
+                run.addPicture(new ByteArrayInputStream(imagen.contenido()), imagen.getTipo().ooxmlId,
+                        nombreArchivo(imagen), (int) ancho, (int) alto);
+            } catch (InvalidFormatException e) {
+                throw new IOException("No se puede añadir la imagen " + imagen.getRuta(), e);
+            }
+            dibujo = run.getCTR().getDrawingArray(0);
+            dibujosParte.put(imagen, dibujo);
+        } else {
+            dibujo = run.getCTR().addNewDrawing();
+            dibujo.set(dibujosParte.get(imagen));
+        }
+        // Cada dibujo del documento necesita un identificador propio.
+        dibujo.getInlineArray(0).getDocPr().setId(siguienteId(pasada));
+    }
+
+    private static long siguienteId(PasadaDocx pasada) {
+        if (pasada.siguienteId < 0) {
+            long maximo = 0;
+            for (IBody parte : RecorridoDocx.partes(pasada.documento)) {
+                try (XmlCursor cursor = RecorridoDocx.raiz(parte).newCursor()) {
+                    cursor.selectPath("declare namespace wp='http://schemas.openxmlformats.org/drawingml/2006/wordprocessingDrawing' .//wp:docPr/@id");
+                    while (cursor.toNextSelection()) {
+                        try {
+                            maximo = Math.max(maximo, Long.parseLong(cursor.getTextValue()));
+                        } catch (NumberFormatException e) {
+                            // Identificador no numérico: no limita los nuevos.
+                        }
+                    }
+                }
+            }
+            pasada.siguienteId = maximo;
+        }
+        return ++pasada.siguienteId;
+    }
+
+    /**
+     * Ancho de texto (página menos márgenes) de la última sección del documento, en EMU.
+     */
+    private static long anchoTexto(XWPFDocument documento) {
+        CTSectPr seccion = documento.getDocument().getBody().getSectPr();
+        if (seccion == null || !seccion.isSetPgSz() || !seccion.getPgSz().isSetW()) return Long.MAX_VALUE;
+        long ancho = POIXMLUnits.parseLength(seccion.getPgSz().xgetW());
+        if (seccion.isSetPgMar()) {
+            ancho -= POIXMLUnits.parseLength(seccion.getPgMar().xgetLeft());
+            ancho -= POIXMLUnits.parseLength(seccion.getPgMar().xgetRight());
+        }
+        return ancho > 0 ? ancho : Long.MAX_VALUE;
+    }
+
+    /**
+     * Sustituye por una imagen cada forma de texto de la presentación cuyo texto es una única referencia,
+     * también dentro de formas agrupadas. La imagen se ajusta al recuadro de la forma, conservando su
+     * proporción y centrada en él.
+     * @param ppt Presentación con los placeholders ya sustituidos.
+     * @throws IOException Si alguna imagen no se puede leer.
+     */
+    static void incrustar(XMLSlideShow ppt) throws IOException {
+        Map<CacheImagenes.Imagen, XSLFPictureData> anadidas = new HashMap<>();
+        for (XSLFSlide slide : ppt.getSlides()) {
+            incrustar(ppt, slide, anadidas);
+        }
+    }
+
+    private static void incrustar(XMLSlideShow ppt, XSLFShapeContainer contenedor,
+                                  Map<CacheImagenes.Imagen, XSLFPictureData> anadidas) throws IOException {
+        for (XSLFShape shape : new ArrayList<>(contenedor.getShapes())) {
+            if (shape instanceof XSLFGroupShape) {
+                incrustar(ppt, (XSLFGroupShape) shape, anadidas);
+                continue;
+            }
+            if (!(shape instanceof XSLFTextShape)) continue;
+            String texto = ((XSLFTextShape) shape).getText();
+            if (texto == null || !texto.contains(MotorSustitucion.REFERENCIA_IMAGEN)) continue;
+            String ruta = referenciaUnica(texto.trim());
+            if (ruta == null) {
+                Metricas.avisar("Una imagen debe ser el único texto de su cuadro de texto: " + texto.trim());
+                continue;
+            }
+            Rectangle2D recuadro = shape.getAnchor();
+            if (!ruta.isEmpty()) {
+                CacheImagenes.Imagen imagen = CacheImagenes.obtener(ruta);
+                XSLFPictureData datos = anadidas.get(imagen);
+                if (datos == null) {
+                    datos = ppt.addPicture(imagen.contenido(), imagen.getTipo());
+                    anadidas.put(imagen, datos);
+                }
+                contenedor.createPicture(datos).setAnchor(ajustar(recuadro, imagen));
+            }
+            contenedor.removeShape(shape);
+        }
+    }
+
+    /**
+     * @return La ruta de la referencia si el texto es exactamente una referencia, o {@code null} si no.
+     */
+    private static String referenciaUnica(String texto) {
+        if (!texto.startsWith(MotorSustitucion.REFERENCIA_IMAGEN) || !texto.endsWith(FIN_REFERENCIA)) return null;
+        String ruta = texto.substring(MotorSustitucion.REFERENCIA_IMAGEN.length(), texto.length() - FIN_REFERENCIA.length());
+        return ruta.contains(MotorSustitucion.REFERENCIA_IMAGEN) ? null : ruta.trim();
+    }
+
+    private static Rectangle2D ajustar(Rectangle2D recuadro, CacheImagenes.Imagen imagen) {
+        double escala = Math.min(recuadro.getWidth() / imagen.getAnchoPx(), recuadro.getHeight() / imagen.getAltoPx());
+        double ancho = imagen.getAnchoPx() * escala;
+        double alto = imagen.getAltoPx() * escala;
+        return new Rectangle2D.Double(recuadro.getX() + (recuadro.getWidth() - ancho) / 2,
+                recuadro.getY() + (recuadro.getHeight() - alto) / 2, ancho, alto);
+    }
+
+    private static String nombreArchivo(CacheImagenes.Imagen imagen) {
+        String ruta = imagen.getRuta();
+        return ruta.substring(Math.max(ruta.lastIndexOf('/'), ruta.lastIndexOf('\\')) + 1);
+    }
+}
@@ -0,0 +1,732 @@
+package com.ejemplo;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import javax.xml.namespace.QName;
+
+import org.apache.xmlbeans.XmlCursor;
+import org.apache.xmlbeans.XmlObject;
+
+/**
+ * Índice de todos los bloques "---id---" de una parte del documento (cuerpo, cabecera, diapositiva...),
+ * construido en una sola pasada sobre la plantilla.
+ * <p>
+ * Un bloque es el tramo de hermanos XML comprendido entre dos marcadores con el mismo identificador.
+ * Los marcadores pueden ser párrafos ({@code w:p}/{@code a:p}) o filas de tabla ({@code w:tr}/{@code a:tr}),
+ * un mismo bloque puede aparecer varias veces y los bloques pueden anidarse, ya sea entre hermanos
+ * (tareas dentro de una incidencia) o en elementos interiores (filas de una tabla dentro de una incidencia).
+ * <p>
+ * Al expandir, las filas de un bloque anidado se buscan primero con la clave
+ * {@code "padre[i].hijo"} (por ejemplo, {@code "incidencia[0].tarea"} para las tareas de la primera
+ * incidencia) y, si no existe, con el identificador del bloque ({@code "tarea"}). Dentro de un bloque
+ * anidado se sustituyen tanto los datos de su fila como los de las filas de los bloques que lo contienen.
+ */
+public final class IndiceBloques {
+
+    /**
+     * Bloque delimitado por dos marcadores dentro de la lista de hijos de un elemento.
+     */
+    private static final class Region {
+        private final String blockId;
+        private final int inicio;
+        private int fin;
+        private final List<Region> hijas = new ArrayList<>();
+
+        private Region(String blockId, int inicio) {
+            this.blockId = blockId;
+            this.inicio = inicio;
+        }
+    }
+
+    /**
+     * Nodo del índice para un elemento: bloques entre sus hijos y nodos de los hijos que contienen bloques.
+     */
+    private static final class Nodo {
+        private final List<Region> regiones;
+        private final Map<Integer, Nodo> hijos;
+
+        private Nodo(List<Region> regiones, Map<Integer, Nodo> hijos) {
+            this.regiones = regiones;
+            this.hijos = hijos;
+        }
+    }
+
+    /**
+     * Datos disponibles al expandir: filas de los bloques que contienen la posición actual.
+     */
+    private static final class Contexto {
+        private final Map<String, ? extends Iterable<? extends Map<String, String>>> bloques;
+        private final Map<String, String> fila;
+        private final String prefijo;
+        private final Contexto padre;
+        /** Dentro de un fragmento renderizado en paralelo ya no se vuelve a repartir. */
+        private final boolean enFragmento;
+        /** Análisis de los elementos copiados en esta expansión (o en este fragmento), por nodo y posición. */
+        private final Map<Nodo, Plan[]> planes;
+
+        private Contexto(Map<String, ? extends Iterable<? extends Map<String, String>>> bloques,
+                         Map<String, String> fila, String prefijo, Contexto padre) {
+            this(bloques, fila, prefijo, padre, padre != null && padre.enFragmento,
+                    padre != null ? padre.planes : new IdentityHashMap<>());
+        }
+
+        private Contexto(Map<String, ? extends Iterable<? extends Map<String, String>>> bloques,
+                         Map<String, String> fila, String prefijo, Contexto padre, boolean enFragmento,
+                         Map<Nodo, Plan[]> planes) {
+            this.bloques = bloques;
+            this.fila = fila;
+            this.prefijo = prefijo;
+            this.padre = padre;
+            this.enFragmento = enFragmento;
+            this.planes = planes;
+        }
+
+        private Iterable<? extends Map<String, String>> filas(String blockId) {
+            if (!prefijo.isEmpty()) {
+                Iterable<? extends Map<String, String>> anidadas = bloques.get(prefijo + blockId);
+                if (anidadas != null) return anidadas;
+            }
+            return bloques.get(blockId);
+        }
+
+        private Contexto con(Region region, int indice, Map<String, String> fila) {
+            return new Contexto(bloques, fila, Marcadores.prefijoAnidado(prefijo, region.blockId, indice), this);
+        }
+
+        private Contexto enFragmento() {
+            // Cada fragmento se renderiza en otro hilo: hay que crear un contexto por fragmento para que
+            // no comparta los planes (ni sus contadores) con los demás.
+            return new Contexto(bloques, fila, prefijo, padre, true, new IdentityHashMap<>());
+        }
+    }
+
+    /**
+     * Lo que hace falta saber de un elemento del bloque para reutilizarlo ya renderizado ({@link CacheFragmentos}):
+     * sus textos antes de sustituir y los placeholders que contiene. Se calcula una vez por expansión, porque
+     * los textos dependen de los datos globales del informe.
+     */
+    private static final class Plan {
+        /** Búsquedas tras las que se deja de usar la caché para un elemento que casi nunca se repite. */
+        private static final int PRUEBA = 64;
+
+        private final String textos;
+        /** Placeholders en orden de aparición; {@code null} si el elemento no puede reutilizarse. */
+        private final String[] placeholders;
+        private final int parrafos;
+        private final long bytes;
+        private int busquedas;
+        private int aciertos;
+
+        private Plan(String textos, String[] placeholders, int parrafos, long bytes) {
+            this.textos = textos;
+            this.placeholders = placeholders;
+            this.parrafos = parrafos;
+            this.bytes = bytes;
+        }
+
+        private boolean activo() {
+            // Un elemento con un dato distinto en cada fila (un identificador) solo llenaría la caché.
+            return placeholders != null && (busquedas < PRUEBA || aciertos * 8 >= busquedas);
+        }
+    }
+
+    /**
+     * Parte de las filas de un bloque que se renderiza en otro hilo sobre un documento XML propio: una copia
+     * de los hijos de la región (marcadores incluidos, para conservar sus posiciones) y un contenedor de salida.
+     */
+    private final class Fragmento {
+        private final List<XmlObject> plantilla;
+        private final XmlObject salida;
+        private final Nodo nodo;
+        private final Region region;
+        private final List<? extends Map<String, String>> filas;
+        private final int desde;
+        private final int hasta;
+        private final Contexto contexto;
+        private final MetricasInforme metricas;
+
+        private Fragmento(List<XmlObject> hijos, Nodo nodo, Region region, List<? extends Map<String, String>> filas,
+                          int desde, int hasta, Contexto contexto, MetricasInforme metricas) {
+            this.nodo = nodo;
+            this.region = region;
+            this.filas = filas;
+            this.desde = desde;
+            this.hasta = hasta;
+            this.contexto = contexto;
+            this.metricas = metricas;
+            XmlObject copias;
+            try (XmlCursor cursor = XmlObject.Factory.newInstance().newCursor()) {
+                cursor.toEndDoc();
+                cursor.insertElement("plantilla");
+                cursor.insertElement("salida");
+                cursor.toStartDoc();
+                cursor.toFirstChild();
+                copias = cursor.getObject();
+                cursor.toNextSibling();
+                salida = cursor.getObject();
+                cursor.toPrevSibling();
+                cursor.toEndToken();
+                for (int i = region.inicio; i <= region.fin; i++) {
+                    try (XmlCursor origen = hijos.get(i).newCursor()) {
+                        origen.copyXml(cursor);
+                    }
+                }
+            }
+            // Las copias ocupan las mismas posiciones que los originales, que son las que guarda el índice.
+            plantilla = new ArrayList<>(Collections.nCopies(region.inicio, (XmlObject) null));
+            plantilla.addAll(TextoXml.hijos(copias));
+        }
+
+        private void renderizar() {
+            MetricasInforme anterior = Metricas.asociar(metricas);
+            try (XmlCursor destino = salida.newCursor()) {
+                destino.toEndToken();
+                for (int i = desde; i < hasta; i++) {
+                    renderizarTramo(plantilla, nodo, region.inicio + 1, region.fin - 1, region.hijas,
+                            contexto.con(region, i, filas.get(i)), destino);
+                }
+            } finally {
+                Metricas.asociar(anterior);
+            }
+        }
+
+        private void insertar(XmlCursor destino) {
+            try (XmlCursor cursor = salida.newCursor()) {
+                cursor.moveXmlContents(destino);
+            }
+        }
+    }
+
+    /**
+     * Recibe cada párrafo que no es marcador durante la misma pasada que construye el índice.
+     */
+    @FunctionalInterface
+    public interface VisitanteParrafo {
+        /**
+         * @param parrafo Párrafo visitado ({@code w:p} o {@code a:p}), a cualquier profundidad.
+         * @param ruta    Índices de hijo desde la raíz de la parte hasta el párrafo (ver {@link UbicacionXml}).
+         */
+        void visitar(XmlObject parrafo, int[] ruta);
+    }
+
+    private static volatile int filasPorFragmento = Integer.getInteger("informes.bloques.filasPorFragmento", 2000);
+
+    private final QName parrafo;
+    private final QName fila;
+    private final QName texto;
+    private final Nodo raiz;
+    private final Set<String> blockIds;
+
+    // Estado de la pasada de indexado; se libera al terminar para no retener la plantilla original.
+    private VisitanteParrafo visitante;
+    private int[] ruta = new int[16];
+    private int profundidad;
+
+    private IndiceBloques(XmlObject raiz, String namespace, VisitanteParrafo visitante) {
+        this.parrafo = new QName(namespace, "p");
+        this.fila = new QName(namespace, "tr");
+        this.texto = new QName(namespace, "t");
+        this.blockIds = new HashSet<>();
+        this.visitante = visitante;
+        this.raiz = indexarNodo(raiz);
+        this.visitante = null;
+        this.ruta = null;
+    }
+
+    private IndiceBloques(String namespace, Nodo raiz, Set<String> blockIds) {
+        this.parrafo = new QName(namespace, "p");
+        this.fila = new QName(namespace, "tr");
+        this.texto = new QName(namespace, "t");
+        this.blockIds = blockIds;
+        this.raiz = raiz;
+        this.ruta = null;
+    }
+
+    /**
+     * Indexa todos los marcadores de bloque bajo un elemento raíz en una sola pasada.
+     * @param raiz      Elemento raíz de la parte (por ejemplo, el documento, una cabecera o una diapositiva).
+     * @param namespace Espacio de nombres de párrafos, filas y textos ({@link DocxGenerador#NS_W} o {@link TextoXml#NS_A}).
+     * @return El índice de la parte.
+     */
+    public static IndiceBloques indexar(XmlObject raiz, String namespace) {
+        return new IndiceBloques(raiz, namespace, null);
+    }
+
+    /**
+     * Indexa todos los marcadores de bloque bajo un elemento raíz y, en la misma pasada, entrega
+     * al visitante cada párrafo que no es marcador: los del cuerpo, los de tablas anidadas, controles
+     * de contenido, cuadros de texto, etc. El visitante puede modificar el párrafo que recibe
+     * (por ejemplo, fusionar sus runs), pero no sus hermanos ni sus ascendientes.
+     * @param raiz      Elemento raíz de la parte.
+     * @param namespace Espacio de nombres de párrafos, filas y textos.
+     * @param visitante Receptor de los párrafos.
+     * @return El índice de la parte.
+     */
+    public static IndiceBloques indexar(XmlObject raiz, String namespace, VisitanteParrafo visitante) {
+        return new IndiceBloques(raiz, namespace, visitante);
+    }
+
+    /**
+     * @return {@code true} si la parte no contiene ningún bloque.
+     */
+    public boolean isVacio() {
+        return raiz == null;
+    }
+
+    /**
+     * @return Identificadores de todos los bloques de la parte.
+     */
+    public Set<String> getBlockIds() {
+        return Collections.unmodifiableSet(blockIds);
+    }
+
+    /**
+     * Expande todos los bloques de una copia de la plantilla en un único recorrido del índice.
+     * Los bloques sin datos se dejan tal cual, con sus marcadores.
+     * @param raizCopia Elemento raíz de la misma parte en la copia de la plantilla.
+     * @param bloques   Map con los bloques a duplicar. La clave es el identificador del bloque
+     *                  (o la clave anidada "padre[i].hijo") y el valor los datos de cada duplicado: una lista
+     *                  o una {@link FuenteFilas}, que se recorre a medida que se renderiza.
+     */
+    public void expandir(XmlObject raizCopia, Map<String, ? extends Iterable<? extends Map<String, String>>> bloques) {
+        if (raiz == null) return;
+        expandirNodo(raizCopia, raiz, new Contexto(bloques, null, "", null));
+    }
+
+    /**
+     * Expande los bloques de una copia de la parte hecha para una fila de un bloque que la contiene entera,
+     * como las diapositivas duplicadas de {@link PlantillaPptx}: las filas de los bloques interiores se buscan
+     * primero con la clave anidada ({@code "incidencia[0].tarea"}) y en sus duplicados se sustituyen también
+     * los datos de la fila exterior.
+     * @param raizCopia Elemento raíz de la copia de la parte.
+     * @param bloques   Map con los bloques a duplicar.
+     * @param blockId   Identificador del bloque exterior.
+     * @param indice    Posición de la fila del bloque exterior.
+     * @param fila      Datos de la fila del bloque exterior.
+     */
+    void expandir(XmlObject raizCopia, Map<String, ? extends Iterable<? extends Map<String, String>>> bloques,
+                  String blockId, int indice, Map<String, String> fila) {
+        if (raiz == null) return;
+        Contexto exterior = new Contexto(bloques, fila, Marcadores.prefijoAnidado("", blockId, indice),
+                new Contexto(bloques, null, "", null));
+        expandirNodo(raizCopia, raiz, exterior);
+    }
+
+    /**
+     * Cambia el tamaño mínimo de los fragmentos en que se reparten los bloques muy grandes (2000 filas por
+     * defecto, o la propiedad del sistema {@code -Dinformes.bloques.filasPorFragmento}). Un bloque de primer
+     * nivel con filas en una lista de al menos el doble se renderiza en varios fragmentos a la vez, uno por
+     * procesador como máximo, en el pool fork-join común; el resultado es el mismo que en un solo hilo.
+     * @param filas Filas mínimas por fragmento; 0 renderiza siempre en el hilo que genera el informe.
+     */
+    public static void setFilasPorFragmento(int filas) {
+        if (filas < 0) throw new IllegalArgumentException("El número de filas no puede ser negativo: " + filas);
+        filasPorFragmento = filas;
+    }
+
+    /**
+     * Escribe el índice en un manifiesto de plantilla (ver {@link ManifiestoPlantillas}), para no
+     * tener que volver a recorrer la plantilla en el próximo arranque.
+     */
+    void escribir(DataOutput out) throws IOException {
+        out.writeUTF(parrafo.getNamespaceURI());
+        out.writeInt(blockIds.size());
+        for (String blockId : blockIds) {
+            out.writeUTF(blockId);
+        }
+        escribirNodo(out, raiz);
+    }
+
+    /**
+     * Lee un índice escrito con {@link #escribir(DataOutput)}.
+     */
+    static IndiceBloques leer(DataInput in) throws IOException {
+        String namespace = in.readUTF();
+        int n = in.readInt();
+        Set<String> blockIds = new HashSet<>();
+        for (int i = 0; i < n; i++) {
+            blockIds.add(in.readUTF());
+        }
+        return new IndiceBloques(namespace, leerNodo(in), blockIds);
+    }
+
+    private static void escribirNodo(DataOutput out, Nodo nodo) throws IOException {
+        out.writeBoolean(nodo != null);
+        if (nodo == null) return;
+        escribirRegiones(out, nodo.regiones);
+        out.writeInt(nodo.hijos.size());
+        for (Map.Entry<Integer, Nodo> hijo : nodo.hijos.entrySet()) {
+            out.writeInt(hijo.getKey());
+            escribirNodo(out, hijo.getValue());
+        }
+    }
+
+    private static void escribirRegiones(DataOutput out, List<Region> regiones) throws IOException {
+        out.writeInt(regiones.size());
+        for (Region region : regiones) {
+            out.writeUTF(region.blockId);
+            out.writeInt(region.inicio);
+            out.writeInt(region.fin);
+            escribirRegiones(out, region.hijas);
+        }
+    }
+
+    private static Nodo leerNodo(DataInput in) throws IOException {
+        if (!in.readBoolean()) return null;
+        List<Region> regiones = leerRegiones(in);
+        int n = in.readInt();
+        Map<Integer, Nodo> hijos = new TreeMap<>();
+        for (int i = 0; i < n; i++) {
+            int indice = in.readInt();
+            hijos.put(indice, leerNodo(in));
+        }
+        return new Nodo(regiones, hijos);
+    }
+
+    private static List<Region> leerRegiones(DataInput in) throws IOException {
+        int n = in.readInt();
+        List<Region> regiones = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            Region region = new Region(in.readUTF(), in.readInt());
+            region.fin = in.readInt();
+            region.hijas.addAll(leerRegiones(in));
+            regiones.add(region);
+        }
+        return regiones;
+    }
+
+    private Nodo indexarNodo(XmlObject elemento) {
+        List<XmlObject> hijos = TextoXml.hijos(elemento);
+        if (hijos.isEmpty()) return null;
+
+        List<Region> regiones = new ArrayList<>();
+        Deque<Region> abiertas = new ArrayDeque<>();
+        Map<Integer, Nodo> nodos = new TreeMap<>();
+        for (int i = 0; i < hijos.size(); i++) {
+            XmlObject hijo = hijos.get(i);
+            QName nombre = nombreDe(hijo);
+            boolean esParrafo = parrafo.equals(nombre);
+            String blockId = (esParrafo || fila.equals(nombre))
+                    ? Marcadores.idDe(TextoXml.texto(hijo, texto)) : null;
+            if (blockId != null) {
+                if (!abiertas.isEmpty() && abiertas.peek().blockId.equals(blockId)) {
+                    Region cerrada = abiertas.pop();
+                    cerrada.fin = i;
+                    (abiertas.isEmpty() ? regiones : abiertas.peek().hijas).add(cerrada);
+                    blockIds.add(blockId);
+                } else {
+                    abiertas.push(new Region(blockId, i));
+                }
+                continue;
+            }
+            entrar(i);
+            if (esParrafo && visitante != null) {
+                visitante.visitar(hijo, Arrays.copyOf(ruta, profundidad));
+            }
+            Nodo nodo = esPropiedades(nombre) ? null : indexarNodo(hijo);
+            profundidad--;
+            if (nodo != null) {
+                nodos.put(i, nodo);
+            }
+        }
+        // Los marcadores sin pareja no delimitan nada: sus bloques interiores pasan al nivel superior.
+        while (!abiertas.isEmpty()) {
+            Region huerfana = abiertas.pop();
+            List<Region> destino = abiertas.isEmpty() ? regiones : abiertas.peek().hijas;
+            destino.addAll(huerfana.hijas);
+            destino.sort(Comparator.comparingInt(r -> r.inicio));
+        }
+        if (regiones.isEmpty() && nodos.isEmpty()) return null;
+        return new Nodo(regiones, nodos);
+    }
+
+    private void entrar(int indice) {
+        if (profundidad == ruta.length) {
+            ruta = Arrays.copyOf(ruta, profundidad * 2);
+        }
+        ruta[profundidad++] = indice;
+    }
+
+    private void expandirNodo(XmlObject elemento, Nodo nodo, Contexto contexto) {
+        List<XmlObject> hijos = TextoXml.hijos(elemento);
+        boolean[] consumidos = new boolean[hijos.size()];
+        expandirRegiones(hijos, nodo, nodo.regiones, contexto, consumidos);
+        for (Map.Entry<Integer, Nodo> entry : nodo.hijos.entrySet()) {
+            if (!consumidos[entry.getKey()]) {
+                expandirNodo(hijos.get(entry.getKey()), entry.getValue(), contexto);
+            }
+        }
+    }
+
+    /**
+     * Expande en su sitio las regiones que tienen datos; de las que no los tienen se expanden sus regiones interiores.
+     */
+    private void expandirRegiones(List<XmlObject> hijos, Nodo nodo, List<Region> regiones, Contexto contexto, boolean[] consumidos) {
+        for (Region region : regiones) {
+            Iterable<? extends Map<String, String>> filas = contexto.filas(region.blockId);
+            if (filas == null) {
+                expandirRegiones(hijos, nodo, region.hijas, contexto, consumidos);
+                continue;
+            }
+            try (XmlCursor destino = hijos.get(region.fin).newCursor()) {
+                if (!destino.toNextSibling()) {
+                    destino.toParent();
+                    destino.toEndToken();
+                }
+                int fragmentos = fragmentos(filas, contexto);
+                if (fragmentos > 1) {
+                    renderizarFragmentos(hijos, nodo, region, (List<? extends Map<String, String>>) filas, fragmentos, contexto, destino);
+                } else {
+                    renderizarFilas(hijos, nodo, region, filas, contexto, destino);
+                }
+            }
+            for (int i = region.inicio; i <= region.fin; i++) {
+                consumidos[i] = true;
+                try (XmlCursor cursor = hijos.get(i).newCursor()) {
+                    cursor.removeXml();
+                }
+            }
+        }
+    }
+
+    private void renderizarFilas(List<XmlObject> hijos, Nodo nodo, Region region, Iterable<? extends Map<String, String>> filas,
+                                 Contexto contexto, XmlCursor destino) {
+        // Las filas se piden de una en una: con una FuenteFilas cada fila se lee, se renderiza y se libera.
+        int i = 0;
+        for (Map<String, String> fila : filas) {
+            renderizarTramo(hijos, nodo, region.inicio + 1, region.fin - 1, region.hijas,
+                    contexto.con(region, i++, fila), destino);
+        }
+        Metricas.contarBloques(i);
+    }
+
+    /**
+     * @return En cuántos fragmentos se renderizan las filas de una región (1 si no se reparten).
+     */
+    private static int fragmentos(Iterable<? extends Map<String, String>> filas, Contexto contexto) {
+        // Una FuenteFilas se lee de una en una y solo una vez: no se puede repartir.
+        int minimo = filasPorFragmento;
+        if (minimo == 0 || contexto.enFragmento || !(filas instanceof List)) return 1;
+        int porTamano = ((List<?>) filas).size() / minimo;
+        return porTamano < 2 ? 1 : Math.min(porTamano, ForkJoinPool.getCommonPoolParallelism());
+    }
+
+    /**
+     * Renderiza las filas de una región repartidas en fragmentos independientes en el pool fork-join común y
+     * los inserta delante de {@code destino} en el orden de las filas. Las copias del bloque para cada
+     * fragmento y la inserción se hacen en el hilo actual: los hilos del pool solo tocan su propio documento.
+     */
+    private void renderizarFragmentos(List<XmlObject> hijos, Nodo nodo, Region region, List<? extends Map<String, String>> filas,
+                                      int n, Contexto contexto, XmlCursor destino) {
+        MetricasInforme metricas = Metricas.actual();
+        List<Fragmento> fragmentos = new ArrayList<>(n);
+        for (int k = 0; k < n; k++) {
+            MetricasInforme parciales = metricas != null ? metricas.parciales() : null;
+            fragmentos.add(new Fragmento(hijos, nodo, region, filas, (int) ((long) filas.size() * k / n),
+                    (int) ((long) filas.size() * (k + 1) / n), contexto.enFragmento(), parciales));
+        }
+        List<ForkJoinTask<?>> tareas = new ArrayList<>(n);
+        for (Fragmento fragmento : fragmentos) {
+            tareas.add(ForkJoinPool.commonPool().submit(fragmento::renderizar));
+        }
+        for (ForkJoinTask<?> tarea : tareas) {
+            tarea.join();
+        }
+        for (Fragmento fragmento : fragmentos) {
+            fragmento.insertar(destino);
+            if (metricas != null) metricas.sumar(fragmento.metricas);
+        }
+        Metricas.contarBloques(filas.size());
+    }
+
+    /**
+     * Copia delante de {@code destino} los hijos del tramo [desde, hasta], expandiendo las regiones interiores.
+     */
+    private void renderizarTramo(List<XmlObject> hijos, Nodo nodo, int desde, int hasta, List<Region> interiores,
+                                 Contexto contexto, XmlCursor destino) {
+        Iterator<Region> it = interiores.iterator();
+        Region siguiente = it.hasNext() ? it.next() : null;
+        int i = desde;
+        while (i <= hasta) {
+            if (siguiente != null && siguiente.inicio == i) {
+                Iterable<? extends Map<String, String>> filas = contexto.filas(siguiente.blockId);
+                if (filas != null) {
+                    renderizarFilas(hijos, nodo, siguiente, filas, contexto, destino);
+                    i = siguiente.fin + 1;
+                } else {
+                    // Sin datos: se copian los marcadores tal cual y se expanden sus regiones interiores.
+                    copiar(hijos, nodo, i, contexto, destino);
+                    renderizarTramo(hijos, nodo, siguiente.inicio + 1, siguiente.fin - 1, siguiente.hijas, contexto, destino);
+                    copiar(hijos, nodo, siguiente.fin, contexto, destino);
+                    i = siguiente.fin + 1;
+                }
+                siguiente = it.hasNext() ? it.next() : null;
+            } else {
+                copiar(hijos, nodo, i, contexto, destino);
+                i++;
+            }
+        }
+    }
+
+    /**
+     * Copia un hijo delante de {@code destino}, expande los bloques de su interior y sustituye sus placeholders.
+     * Los hijos sin bloques interiores se toman de {@link CacheFragmentos} si ya se han renderizado con los
+     * mismos valores.
+     */
+    private void copiar(List<XmlObject> hijos, Nodo nodo, int indice, Contexto contexto, XmlCursor destino) {
+        Nodo interior = nodo.hijos.get(indice);
+        Plan plan = null;
+        CacheFragmentos.Clave clave = null;
+        if (interior == null && contexto.fila != null && CacheFragmentos.getCapacidad() > 0) {
+            plan = plan(hijos, nodo, indice, contexto);
+            clave = plan.activo() ? clave(plan, nodo, indice, contexto) : null;
+            if (clave != null) {
+                plan.busquedas++;
+                if (CacheFragmentos.copiar(clave, destino)) {
+                    plan.aciertos++;
+                    contarReutilizado(plan, clave, contexto);
+                    return;
+                }
+            }
+        }
+        try (XmlCursor origen = hijos.get(indice).newCursor()) {
+            origen.copyXml(destino);
+        }
+        XmlObject insertado;
+        try (XmlCursor cursor = destino.newCursor()) {
+            cursor.toPrevSibling();
+            insertado = cursor.getObject();
+        }
+        if (interior != null) {
+            expandirNodo(insertado, interior, contexto);
+        }
+        for (Contexto c = contexto; c != null && c.fila != null; c = c.padre) {
+            TextoXml.sustituir(insertado, texto, c.fila);
+        }
+        if (clave != null) {
+            long bytes = plan.bytes;
+            for (String valor : clave.valores()) {
+                if (valor != null) bytes += 2L * valor.length();
+            }
+            CacheFragmentos.guardar(clave, insertado, bytes);
+        }
+    }
+
+    private Plan plan(List<XmlObject> hijos, Nodo nodo, int indice, Contexto contexto) {
+        Plan[] planes = contexto.planes.computeIfAbsent(nodo, n -> new Plan[hijos.size()]);
+        Plan plan = planes[indice];
+        if (plan == null) {
+            plan = planear(hijos.get(indice));
+            planes[indice] = plan;
+        }
+        return plan;
+    }
+
+    /**
+     * Recorre un elemento como lo hará {@link TextoXml#sustituir}, anotando sus textos y sus placeholders.
+     */
+    private Plan planear(XmlObject elemento) {
+        StringBuilder textos = new StringBuilder();
+        List<String> placeholders = new ArrayList<>();
+        boolean reutilizable = true;
+        int parrafos = 0;
+        int elementos = 1;
+        try (XmlCursor cursor = elemento.newCursor()) {
+            if (parrafo.equals(cursor.getName())) parrafos++;
+            int profundidad = 0;
+            do {
+                XmlCursor.TokenType token = cursor.toNextToken();
+                if (token.isStart()) {
+                    profundidad++;
+                    elementos++;
+                    QName nombre = cursor.getName();
+                    if (parrafo.equals(nombre)) {
+                        parrafos++;
+                    } else if (texto.equals(nombre)) {
+                        String valor = cursor.getTextValue();
+                        textos.append(valor).append('\0');
+                        reutilizable &= placeholders(valor, placeholders);
+                    }
+                } else if (token.isEnd() || token.isEnddoc()) {
+                    profundidad--;
+                }
+            } while (profundidad >= 0);
+        }
+        // Estimación de la memoria de la copia guardada: los textos más un coste fijo por elemento XML.
+        long bytes = 2L * textos.length() + 160L * elementos;
+        return new Plan(textos.toString(), reutilizable ? placeholders.toArray(new String[0]) : null, parrafos, bytes);
+    }
+
+    /**
+     * Añade los placeholders de un texto en el orden en que los resolverá {@link MotorSustitucion}.
+     * @return {@code false} si el resultado de sustituir el texto no depende solo de los valores de esos
+     *         placeholders: llaves que pueden formar placeholders nuevos al sustituir o imágenes.
+     */
+    private static boolean placeholders(String valor, List<String> placeholders) {
+        if (valor.contains("{{{") || valor.contains("}}}")) return false;
+        int inicio = valor.indexOf("{{");
+        while (inicio >= 0) {
+            int fin = valor.indexOf("}}", inicio + 2);
+            if (fin < 0) break;
+            String placeholder = valor.substring(inicio, fin + 2);
+            if (placeholder.indexOf("{{", 2) >= 0 || MotorSustitucion.contienePlaceholderImagen(placeholder)) return false;
+            placeholders.add(placeholder);
+            inicio = valor.indexOf("{{", fin + 2);
+        }
+        return true;
+    }
+
+    /**
+     * @return La clave del elemento renderizado con los datos del contexto, o {@code null} si algún valor
+     *         contiene llaves (al sustituirlo podría formar otro placeholder).
+     */
+    private static CacheFragmentos.Clave clave(Plan plan, Nodo nodo, int indice, Contexto contexto) {
+        String[] valores = new String[plan.placeholders.length];
+        for (int i = 0; i < valores.length; i++) {
+            // Gana la fila más interior, que es la que se sustituye primero.
+            String valor = null;
+            for (Contexto c = contexto; valor == null && c != null && c.fila != null; c = c.padre) {
+                valor = c.fila.get(plan.placeholders[i]);
+            }
+            if (valor != null && (valor.indexOf('{') >= 0 || valor.indexOf('}') >= 0)) return null;
+            valores[i] = valor;
+        }
+        return new CacheFragmentos.Clave(nodo, indice, plan.textos, valores);
+    }
+
+    /**
+     * Cuenta un elemento reutilizado como si se hubiera sustituido, para que las métricas no dependan de la caché.
+     */
+    private static void contarReutilizado(Plan plan, CacheFragmentos.Clave clave, Contexto contexto) {
+        int niveles = 0;
+        for (Contexto c = contexto; c != null && c.fila != null; c = c.padre) {
+            niveles++;
+        }
+        int sustituidos = 0;
+        for (String valor : clave.valores()) {
+            if (valor != null) sustituidos++;
+        }
+        Metricas.contarParrafos(plan.parrafos * niveles);
+        if (sustituidos > 0) Metricas.contarPlaceholders(sustituidos);
+    }
+
+    /**
+     * Los elementos de propiedades ({@code w:pPr}, {@code a:rPr}, {@code p:nvGrpSpPr}...) nunca contienen
+     * párrafos ni filas: no se recorren, lo que además evita crear objetos XML para tipos que
+     * poi-ooxml-lite no incluye, como los bloqueos de las formas agrupadas.
+     */
+    private static boolean esPropiedades(QName nombre) {
+        return nombre != null && nombre.getLocalPart().endsWith("Pr");
+    }
+
+    private static QName nombreDe(XmlObject elemento) {
+        try (XmlCursor cursor = elemento.newCursor()) {
+            return cursor.getName();
+        }
+    }
+}
@@ -0,0 +1,352 @@
+package com.ejemplo;
+
+import java.awt.image.BufferedImage;
+import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageIO;
+
+import org.apache.poi.wp.usermodel.HeaderFooterType;
+import org.apache.poi.xslf.usermodel.XMLSlideShow;
+import org.apache.poi.xslf.usermodel.XSLFTextBox;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFTable;
+
+/**
+ * Punto de entrada de línea de comandos: genera un informe a partir de una plantilla, un archivo de datos
+ * y un patrón de salida, sin rutas fijas en el código.
+ * <pre>
+ * java -jar mi-proyecto.jar Plantilla.docx incidencias.csv "Informe {{Client}} {{month}}.docx" -b incidencia -g Client=Serveo -g month=noviembre
+ * java -jar mi-proyecto.jar Plantilla.pptx datos.json "Resumen {{month}}_{{year}}.pptx" --manifiesto
+ * </pre>
+ * El tipo de informe se deduce de la extensión de la plantilla (.docx, .pptx o .xlsx). Los datos pueden ser:
+ * <ul>
+ *   <li>un {@code .json} con la misma forma que el cuerpo de {@link ServicioInformes}:
+ *       {@code {"globales": {"Client": "Serveo"}, "bloques": {"incidencia": [{"ID": 1}]}}};</li>
+ *   <li>un {@code .csv} o {@code .jsonl} con las filas del bloque indicado con {@code -b}, que se leen
+ *       a medida que se renderizan ({@link FuenteFilas});</li>
+ *   <li>{@code -} si no hay archivo de datos y basta con los globales de {@code -g}.</li>
+ * </ul>
+ * <p>
+ * Para que una ejecución corta no pase la mayor parte del tiempo cargando las clases de POI y XMLBeans, el
+ * perfil Maven {@code cds} empaqueta el jar con sus dependencias en {@code target/lib} y graba un archivo
+ * AppCDS ({@code target/informes.jsa}) a partir de una ejecución de entrenamiento ({@code --entrenar}):
+ * <pre>
+ * mvn -Pcds package
+ * java -XX:SharedArchiveFile=target/informes.jsa -XX:TieredStopAtLevel=1 -jar target/mi-proyecto-1.0-SNAPSHOT.jar ...
+ * </pre>
+ * El archivo solo se aprovecha si el jar se indica con la misma ruta que en el entrenamiento, es decir,
+ * lanzando el comando desde el directorio del proyecto; si no, la JVM lo ignora con un aviso.
+ * Con {@code --manifiesto}, la plantilla compilada se guarda junto a la plantilla ({@link ManifiestoPlantillas})
+ * y las siguientes ejecuciones no tienen que volver a compilarla. Con {@code --empaquetado}, el informe se
+ * empaqueta con {@link EmpaquetadoZip}.
+ * <p>
+ * Con {@code --vigilar carpeta}, el proceso se queda en marcha vigilando la carpeta ({@link CarpetaVigilada}):
+ * {@code <datos>} es entonces un patrón de nombres de archivo, y cada archivo de datos que coincide y se crea
+ * o modifica en la carpeta genera su informe, con la plantilla ya compilada y recargándola solo si cambia.
+ * <pre>
+ * java -jar mi-proyecto.jar --vigilar /compartido/informes Plantilla.docx "incidencias_*.csv" "salida/Informe {{archivo}}.docx" -b incidencia
+ * </pre>
+ */
+public final class InformesCli {
+
+    private static final String USO = String.join(System.lineSeparator(),
+            "Uso: InformesCli [opciones] <plantilla> <datos> <salida>",
+            "  <plantilla>       Plantilla .docx, .pptx o .xlsx.",
+            "  <datos>           .json con {\"globales\": {...}, \"bloques\": {\"id\": [...]}}, .csv o .jsonl con las",
+            "                    filas del bloque indicado con -b, o - si no hay archivo de datos.",
+            "  <salida>          Ruta del informe; admite placeholders globales, por ejemplo \"Informe {{Client}}.docx\".",
+            "Opciones:",
+            "  -g nombre=valor   Dato global; se puede repetir y tiene prioridad sobre los del archivo.",
+            "  -b, --bloque id   Bloque al que pertenecen las filas de un .csv o .jsonl (por defecto, \"\").",
+            "  --manifiesto      Guarda y reutiliza la plantilla compilada en <plantilla>.manifiesto.",
+            "  --empaquetado     Comprime las partes del .docx o .pptx en paralelo y guarda las imágenes sin recomprimir.",
+            "  --vigilar carpeta Se queda vigilando la carpeta y genera un informe por cada archivo de datos que llega;",
+            "                    <datos> es un patrón de nombres (\"*.csv\") y {{archivo}}, el nombre sin extensión.",
+            "  --entrenar        Genera informes de ejemplo de todos los tipos (para grabar el archivo AppCDS) y termina.");
+
+    private InformesCli() {
+    }
+
+    /**
+     * Argumentos de una ejecución.
+     */
+    private static final class Argumentos {
+        private final List<String> posicionales = new ArrayList<>();
+        private final HashMap<String, String> globales = new HashMap<>();
+        private String bloque = "";
+        private boolean manifiesto;
+        private boolean empaquetado;
+        private boolean entrenar;
+        private String vigilar;
+    }
+
+    /**
+     * Genera el informe descrito por los argumentos. Termina con código 0 si el informe se genera, 1 si
+     * falla y 2 si los argumentos no son válidos.
+     * @param args Argumentos de línea de comandos (ver {@link #USO}).
+     */
+    public static void main(String[] args) {
+        Argumentos argumentos;
+        try {
+            argumentos = analizar(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USO);
+            System.exit(2);
+            return;
+        }
+        try {
+            if (argumentos.manifiesto) {
+                ManifiestoPlantillas.setActivo(true);
+            }
+            if (argumentos.empaquetado) {
+                EmpaquetadoZip.setActivo(true);
+            }
+            if (argumentos.entrenar) {
+                entrenar();
+            } else if (argumentos.vigilar != null) {
+                vigilar(argumentos);
+            } else {
+                ejecutar(argumentos);
+            }
+        } catch (IOException | RuntimeException e) {
+            Metricas.getOyente().error(argumentos.entrenar ? "entrenamiento" : argumentos.posicionales.get(2), e);
+            System.exit(1);
+        }
+    }
+
+    private static Argumentos analizar(String[] args) {
+        Argumentos argumentos = new Argumentos();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "-g":
+                    String global = valor(args, ++i, arg);
+                    int igual = global.indexOf('=');
+                    if (igual <= 0) throw new IllegalArgumentException("Dato global no válido (se esperaba nombre=valor): " + global);
+                    argumentos.globales.put(MotorSustitucion.placeholder(global.substring(0, igual)), global.substring(igual + 1));
+                    break;
+                case "-b":
+                case "--bloque":
+                    argumentos.bloque = valor(args, ++i, arg);
+                    break;
+                case "--manifiesto":
+                    argumentos.manifiesto = true;
+                    break;
+                case "--empaquetado":
+                    argumentos.empaquetado = true;
+                    break;
+                case "--entrenar":
+                    argumentos.entrenar = true;
+                    break;
+                case "--vigilar":
+                    argumentos.vigilar = valor(args, ++i, arg);
+                    break;
+                default:
+                    if (arg.startsWith("-") && arg.length() > 1) throw new IllegalArgumentException("Opción desconocida: " + arg);
+                    argumentos.posicionales.add(arg);
+            }
+        }
+        if (!argumentos.entrenar && argumentos.posicionales.size() != 3) {
+            throw new IllegalArgumentException("Se esperaban <plantilla> <datos> <salida>.");
+        }
+        return argumentos;
+    }
+
+    private static String valor(String[] args, int i, String opcion) {
+        if (i >= args.length) throw new IllegalArgumentException("Falta el valor de " + opcion);
+        return args[i];
+    }
+
+    private static void vigilar(Argumentos argumentos) throws IOException {
+        CarpetaVigilada.Regla regla = new CarpetaVigilada.Regla(argumentos.posicionales.get(1),
+                argumentos.posicionales.get(0), argumentos.posicionales.get(2), argumentos.bloque, argumentos.globales);
+        CarpetaVigilada carpeta = new CarpetaVigilada(Paths.get(argumentos.vigilar), List.of(regla));
+        carpeta.iniciar();
+        Runtime.getRuntime().addShutdownHook(new Thread(carpeta::close, "cerrar-carpeta-vigilada"));
+        System.out.println("Vigilando " + argumentos.vigilar + " (Ctrl+C para terminar)");
+    }
+
+    private static void ejecutar(Argumentos argumentos) throws IOException {
+        String plantilla = argumentos.posicionales.get(0);
+        String datos = argumentos.posicionales.get(1);
+        String salida = argumentos.posicionales.get(2);
+
+        HashMap<String, String> globales = new HashMap<>();
+        Map<String, Iterable<? extends Map<String, String>>> bloques = new HashMap<>();
+        leerDatos(datos, argumentos.bloque, globales, bloques);
+        globales.putAll(argumentos.globales);
+
+        try {
+            generar(plantilla, salida, globales, bloques);
+        } finally {
+            cerrar(bloques);
+        }
+    }
+
+    /**
+     * Lee un archivo de datos de informe en cualquiera de los formatos admitidos (ver {@link #USO}).
+     * @param datos    Ruta del archivo, o {@code -} si no hay archivo de datos.
+     * @param bloque   Bloque al que pertenecen las filas de un .csv o .jsonl.
+     * @param globales Mapa donde se añaden los datos globales.
+     * @param bloques  Mapa donde se añaden los bloques; las filas de un .csv o .jsonl se leen a medida que se
+     *                 renderizan y hay que liberarlas con {@link #cerrar(Map)}.
+     * @throws IOException Si el archivo no se puede leer.
+     */
+    static void leerDatos(String datos, String bloque, Map<String, String> globales,
+                          Map<String, Iterable<? extends Map<String, String>>> bloques) throws IOException {
+        String minusculas = datos.toLowerCase();
+        if (minusculas.endsWith(".json")) {
+            Map<String, Object> contenido;
+            try {
+                contenido = Json.leerObjeto(Files.readString(Paths.get(datos), StandardCharsets.UTF_8));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(datos + ": " + e.getMessage(), e);
+            }
+            globales.putAll(Json.comoFila(contenido.get("globales"), "globales"));
+            bloques.putAll(Json.comoBloques(contenido.get("bloques")));
+        } else if (minusculas.endsWith(".csv")) {
+            bloques.put(bloque, FuenteFilas.csv(Paths.get(datos)));
+        } else if (minusculas.endsWith(".jsonl")) {
+            bloques.put(bloque, FuenteFilas.jsonLineas(Paths.get(datos)));
+        } else if (!datos.equals("-")) {
+            throw new IllegalArgumentException("Archivo de datos no admitido (se espera .json, .csv o .jsonl): " + datos);
+        }
+    }
+
+    /**
+     * Cierra las fuentes de filas abiertas por {@link #leerDatos}.
+     */
+    static void cerrar(Map<String, ? extends Iterable<? extends Map<String, String>>> bloques) throws IOException {
+        for (Iterable<?> filas : bloques.values()) {
+            if (filas instanceof FuenteFilas) ((FuenteFilas) filas).close();
+        }
+    }
+
+    /**
+     * Genera un informe del tipo que corresponde a la extensión de la plantilla.
+     * @return La ruta del informe generado.
+     */
+    static String generar(String plantilla, String salida, HashMap<String, String> globales,
+                          Map<String, ? extends Iterable<? extends Map<String, String>>> bloques) throws IOException {
+        String minusculas = plantilla.toLowerCase();
+        if (minusculas.endsWith(".pptx")) {
+            return new PptxGenerador().generarPptx(plantilla, salida, globales, bloques);
+        }
+        if (minusculas.endsWith(".xlsx")) {
+            return XlsxGenerador.generateXlsx(plantilla, salida, globales, bloques);
+        }
+        return DocxGenerador.generateDocx(plantilla, salida, globales, bloques);
+    }
+
+    /**
+     * Ejecución de entrenamiento para el archivo AppCDS: genera en un directorio temporal un informe de cada
+     * tipo con plantillas y datos de ejemplo (bloques, tablas, imágenes, manifiestos, CSV, JSON y JSON Lines),
+     * de modo que queden cargadas las clases que usa una ejecución normal.
+     */
+    private static void entrenar() throws IOException {
+        OyenteMetricas oyente = Metricas.getOyente();
+        Metricas.setOyente(metricas -> { });
+        boolean manifiestos = ManifiestoPlantillas.getActivo();
+        ManifiestoPlantillas.setActivo(true);
+        boolean empaquetado = EmpaquetadoZip.isActivo();
+        Path directorio = Files.createTempDirectory("informes-entrenamiento");
+        try {
+            Path logo = directorio.resolve("logo.png");
+            ImageIO.write(new BufferedImage(64, 32, BufferedImage.TYPE_INT_RGB), "png", logo.toFile());
+            Path csv = directorio.resolve("filas.csv");
+            Files.writeString(csv, "Nombre;Valor\nuno;1\ndos;2\n", StandardCharsets.UTF_8);
+            Path jsonl = directorio.resolve("filas.jsonl");
+            Files.writeString(jsonl, "{\"Nombre\": \"uno\", \"Valor\": 1}\n{\"Nombre\": \"dos\", \"Valor\": 2}\n",
+                    StandardCharsets.UTF_8);
+            Path json = directorio.resolve("datos.json");
+            StringBuilder contenido = new StringBuilder("{\"globales\": {\"Client\": \"Ejemplo\", \"img:logo\": ");
+            Json.escribirCadena(logo.toString(), contenido);
+            contenido.append("}, \"bloques\": {\"fila\": [{\"Nombre\": \"uno\", \"Valor\": 1}]}}");
+            Files.writeString(json, contenido, StandardCharsets.UTF_8);
+
+            Path docx = directorio.resolve("plantilla.docx");
+            Path pptx = directorio.resolve("plantilla.pptx");
+            Path xlsx = directorio.resolve("plantilla.xlsx");
+            escribirDocx(docx);
+            escribirPptx(pptx);
+            escribirXlsx(xlsx);
+            generarEjemplo(docx, csv, directorio.resolve("informe.docx"), logo);
+            generarEjemplo(docx, json, directorio.resolve("informe-json.docx"), logo);
+            EmpaquetadoZip.setActivo(true);
+            generarEjemplo(pptx, json, directorio.resolve("informe.pptx"), logo);
+            EmpaquetadoZip.setActivo(empaquetado);
+            generarEjemplo(xlsx, jsonl, directorio.resolve("informe.xlsx"), logo);
+        } finally {
+            try (Stream<Path> archivos = Files.list(directorio)) {
+                for (Path archivo : (Iterable<Path>) archivos::iterator) {
+                    Files.deleteIfExists(archivo);
+                }
+            }
+            Files.deleteIfExists(directorio);
+            ManifiestoPlantillas.setActivo(manifiestos);
+            EmpaquetadoZip.setActivo(empaquetado);
+            Metricas.setOyente(oyente);
+        }
+    }
+
+    private static void generarEjemplo(Path plantilla, Path datos, Path salida, Path logo) throws IOException {
+        Argumentos argumentos = new Argumentos();
+        argumentos.posicionales.addAll(Arrays.asList(plantilla.toString(), datos.toString(), salida.toString()));
+        argumentos.bloque = "fila";
+        argumentos.globales.put("{{img:logo}}", logo.toString());
+        ejecutar(argumentos);
+    }
+
+    private static void escribirDocx(Path ruta) throws IOException {
+        try (XWPFDocument documento = new XWPFDocument(); OutputStream out = Files.newOutputStream(ruta)) {
+            documento.createHeader(HeaderFooterType.DEFAULT).createParagraph().createRun().setText("{{img:logo}} {{Client}}");
+            // Las filas de un CSV solo pueden recorrerse una vez: el bloque aparece una sola vez en la plantilla.
+            documento.createParagraph().createRun().setText("Informe de {{Client}}");
+            XWPFTable tabla = documento.createTable(4, 2);
+            tabla.getRow(0).getCell(0).setText("Nombre");
+            tabla.getRow(1).getCell(0).setText("---fila---");
+            tabla.getRow(2).getCell(0).setText("{{Nombre}}");
+            tabla.getRow(2).getCell(1).setText("{{Valor}}");
+            tabla.getRow(3).getCell(0).setText("---fila---");
+            documento.write(out);
+        }
+    }
+
+    private static void escribirPptx(Path ruta) throws IOException {
+        try (XMLSlideShow ppt = new XMLSlideShow(); OutputStream out = Files.newOutputStream(ruta)) {
+            XSLFTextBox texto = ppt.createSlide().createTextBox();
+            texto.setAnchor(new Rectangle2D.Double(40, 40, 400, 200));
+            texto.setText("Resumen de {{Client}}");
+            texto.addNewTextParagraph().addNewTextRun().setText("---fila---");
+            texto.addNewTextParagraph().addNewTextRun().setText("{{Nombre}}: {{Valor}}");
+            texto.addNewTextParagraph().addNewTextRun().setText("---fila---");
+            XSLFTextBox imagen = ppt.getSlides().get(0).createTextBox();
+            imagen.setAnchor(new Rectangle2D.Double(460, 40, 120, 60));
+            imagen.setText("{{img:logo}}");
+            ppt.write(out);
+        }
+    }
+
+    private static void escribirXlsx(Path ruta) throws IOException {
+        try (XSSFWorkbook libro = new XSSFWorkbook(); OutputStream out = Files.newOutputStream(ruta)) {
+            XSSFSheet hoja = libro.createSheet("{{Client}}");
+            hoja.createRow(0).createCell(0).setCellValue("Informe de {{Client}}");
+            hoja.createRow(1).createCell(0).setCellValue("---fila---");
+            hoja.createRow(2).createCell(0).setCellValue("{{Nombre}}");
+            hoja.getRow(2).createCell(1).setCellValue("{{Valor}}");
+            hoja.createRow(3).createCell(0).setCellValue("---fila---");
+            libro.write(out);
+        }
+    }
+}
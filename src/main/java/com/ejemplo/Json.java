@@ -0,0 +1,266 @@
+package com.ejemplo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Analizador y escritor JSON mínimo para los datos de los informes (el proyecto no depende de ninguna
+ * librería JSON). Los objetos se leen como {@code Map<String, Object>} (en orden), los arrays como
+ * {@code List<Object>}, las cadenas como String y {@code null} como null; los números y booleanos conservan
+ * su texto original (su {@code toString()}), para no alterar valores como "1.50" o identificadores largos.
+ */
+final class Json {
+
+    /**
+     * Número o booleano tal como aparece en el JSON.
+     */
+    private static final class Literal {
+        private final String texto;
+
+        private Literal(String texto) {
+            this.texto = texto;
+        }
+
+        @Override
+        public String toString() {
+            return texto;
+        }
+    }
+
+    private final String texto;
+    private final StringBuilder sb = new StringBuilder();
+    private int pos;
+
+    private Json(String texto) {
+        this.texto = texto;
+    }
+
+    /**
+     * Analiza un documento JSON completo.
+     * @param texto Texto JSON.
+     * @return El valor leído.
+     * @throws IllegalArgumentException Si el texto no es JSON válido.
+     */
+    static Object leer(String texto) {
+        Json json = new Json(texto);
+        Object valor = json.leerValor();
+        json.saltarBlancos();
+        if (json.pos < texto.length()) throw json.error("contenido tras el valor");
+        return valor;
+    }
+
+    /**
+     * Analiza un documento JSON que debe ser un objeto.
+     * @param texto Texto JSON.
+     * @return Las propiedades del objeto, en orden.
+     * @throws IllegalArgumentException Si el texto no es un objeto JSON válido.
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> leerObjeto(String texto) {
+        Object valor = leer(texto);
+        if (!(valor instanceof Map)) throw new IllegalArgumentException("Se esperaba un objeto JSON");
+        return (Map<String, Object>) valor;
+    }
+
+    /**
+     * Convierte un valor leído con {@link #leer(String)} en el texto de un placeholder: las cadenas,
+     * números y booleanos tal cual, {@code null} como "" y los objetos y arrays como su texto JSON.
+     */
+    static String comoTexto(Object valor) {
+        if (valor == null) return "";
+        if (valor instanceof String || valor instanceof Literal) return valor.toString();
+        StringBuilder sb = new StringBuilder();
+        escribir(valor, sb);
+        return sb.toString();
+    }
+
+    /**
+     * Convierte un objeto JSON en una fila de datos: cada propiedad pasa a ser un placeholder
+     * ({@link MotorSustitucion#placeholder(String)}) con su valor como texto ({@link #comoTexto(Object)}).
+     * @param valor Objeto leído con {@link #leer(String)}, o {@code null} (fila vacía).
+     * @param campo Nombre del campo, para el mensaje de error.
+     * @return La fila.
+     * @throws IllegalArgumentException Si el valor no es un objeto.
+     */
+    static Map<String, String> comoFila(Object valor, String campo) {
+        if (valor == null) return new HashMap<>();
+        if (!(valor instanceof Map)) throw new IllegalArgumentException("\"" + campo + "\" debe ser un objeto JSON");
+        Map<?, ?> objeto = (Map<?, ?>) valor;
+        Map<String, String> fila = new HashMap<>(objeto.size() * 2);
+        for (Map.Entry<?, ?> propiedad : objeto.entrySet()) {
+            fila.put(MotorSustitucion.placeholder((String) propiedad.getKey()), comoTexto(propiedad.getValue()));
+        }
+        return fila;
+    }
+
+    /**
+     * Convierte un objeto JSON {@code {"bloque": [{...}, ...]}} en los bloques de un informe.
+     * @param valor Objeto leído con {@link #leer(String)}, o {@code null} (sin bloques).
+     * @return Las filas de cada bloque.
+     * @throws IllegalArgumentException Si el valor no tiene esa forma.
+     */
+    static Map<String, List<Map<String, String>>> comoBloques(Object valor) {
+        Map<String, List<Map<String, String>>> bloques = new HashMap<>();
+        if (valor == null) return bloques;
+        if (!(valor instanceof Map)) throw new IllegalArgumentException("\"bloques\" debe ser un objeto JSON");
+        for (Map.Entry<?, ?> bloque : ((Map<?, ?>) valor).entrySet()) {
+            if (!(bloque.getValue() instanceof List)) {
+                throw new IllegalArgumentException("Las filas del bloque \"" + bloque.getKey() + "\" deben ser un array JSON");
+            }
+            List<?> filas = (List<?>) bloque.getValue();
+            List<Map<String, String>> lista = new ArrayList<>(filas.size());
+            for (Object f : filas) {
+                lista.add(comoFila(f, (String) bloque.getKey()));
+            }
+            bloques.put((String) bloque.getKey(), lista);
+        }
+        return bloques;
+    }
+
+    /**
+     * Escribe un valor (Map, List, String, Number, Boolean, null o un valor leído con {@link #leer(String)}) como JSON.
+     */
+    static void escribir(Object valor, StringBuilder sb) {
+        if (valor == null) {
+            sb.append("null");
+        } else if (valor instanceof Map) {
+            sb.append('{');
+            boolean primero = true;
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) valor).entrySet()) {
+                if (!primero) sb.append(',');
+                primero = false;
+                escribirCadena(String.valueOf(e.getKey()), sb);
+                sb.append(':');
+                escribir(e.getValue(), sb);
+            }
+            sb.append('}');
+        } else if (valor instanceof List) {
+            sb.append('[');
+            boolean primero = true;
+            for (Object elemento : (List<?>) valor) {
+                if (!primero) sb.append(',');
+                primero = false;
+                escribir(elemento, sb);
+            }
+            sb.append(']');
+        } else if (valor instanceof String) {
+            escribirCadena((String) valor, sb);
+        } else {
+            sb.append(valor);
+        }
+    }
+
+    static void escribirCadena(String s, StringBuilder sb) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+
+    private Object leerValor() {
+        saltarBlancos();
+        if (pos >= texto.length()) throw error("falta un valor");
+        char c = texto.charAt(pos);
+        if (c == '{') return leerObjetoInterno();
+        if (c == '[') return leerArray();
+        if (c == '"') return leerCadena();
+        int inicio = pos;
+        while (pos < texto.length() && ",}] \t\r\n".indexOf(texto.charAt(pos)) < 0) pos++;
+        String literal = texto.substring(inicio, pos);
+        if (literal.isEmpty()) throw error("valor no válido");
+        return literal.equals("null") ? null : new Literal(literal);
+    }
+
+    private Map<String, Object> leerObjetoInterno() {
+        esperar('{');
+        Map<String, Object> objeto = new LinkedHashMap<>();
+        if (siguienteEs('}')) return objeto;
+        do {
+            saltarBlancos();
+            String clave = leerCadena();
+            esperar(':');
+            objeto.put(clave, leerValor());
+        } while (siguienteEs(','));
+        esperar('}');
+        return objeto;
+    }
+
+    private List<Object> leerArray() {
+        esperar('[');
+        List<Object> array = new ArrayList<>();
+        if (siguienteEs(']')) return array;
+        do {
+            array.add(leerValor());
+        } while (siguienteEs(','));
+        esperar(']');
+        return array;
+    }
+
+    private String leerCadena() {
+        esperar('"');
+        sb.setLength(0);
+        while (true) {
+            if (pos >= texto.length()) throw error("cadena sin cerrar");
+            char c = texto.charAt(pos++);
+            if (c == '"') return sb.toString();
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            if (pos >= texto.length()) throw error("cadena sin cerrar");
+            char e = texto.charAt(pos++);
+            switch (e) {
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'u':
+                    if (pos + 4 > texto.length()) throw error("escape \\u incompleto");
+                    try {
+                        sb.append((char) Integer.parseInt(texto.substring(pos, pos + 4), 16));
+                    } catch (NumberFormatException ex) {
+                        throw error("escape \\u no válido");
+                    }
+                    pos += 4;
+                    break;
+                default: sb.append(e);
+            }
+        }
+    }
+
+    private void esperar(char c) {
+        if (!siguienteEs(c)) throw error("se esperaba '" + c + "'");
+    }
+
+    private boolean siguienteEs(char c) {
+        saltarBlancos();
+        if (pos < texto.length() && texto.charAt(pos) == c) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    private void saltarBlancos() {
+        while (pos < texto.length() && Character.isWhitespace(texto.charAt(pos))) pos++;
+    }
+
+    private IllegalArgumentException error(String motivo) {
+        return new IllegalArgumentException("JSON no válido (posición " + (pos + 1) + "): " + motivo);
+    }
+}
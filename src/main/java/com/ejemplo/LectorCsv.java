@@ -0,0 +1,139 @@
+package com.ejemplo;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Lee un CSV registro a registro (RFC 4180: campos entre comillas con separadores, saltos de línea
+ * y comillas dobladas). Cada registro se devuelve como una {@link FilaCompacta} según el esquema de la cabecera.
+ */
+final class LectorCsv implements Iterator<Map<String, String>>, Closeable {
+
+    private static final int BOM = '\uFEFF';
+    private static final int MAX_CABECERA = 1 << 16;
+
+    private final BufferedReader reader;
+    private final char separador;
+    private final EsquemaFilas esquema;
+    private final StringBuilder campo = new StringBuilder();
+    private List<String> siguiente;
+    private int linea = 1;
+
+    /**
+     * @param reader    Reader del CSV; se cierra con {@link #close()}.
+     * @param separador Separador de campos, o 0 para detectarlo en la cabecera.
+     * @throws IOException Si el CSV no se puede leer o no tiene cabecera.
+     */
+    LectorCsv(BufferedReader reader, char separador) throws IOException {
+        this.reader = reader;
+        reader.mark(1);
+        if (reader.read() != BOM) {
+            reader.reset();
+        }
+        this.separador = separador != 0 ? separador : detectarSeparador(reader);
+        List<String> cabecera = leerRegistro();
+        if (cabecera == null) {
+            throw new IOException("El CSV no tiene cabecera");
+        }
+        this.esquema = EsquemaFilas.de(cabecera.toArray(new String[0]));
+        this.siguiente = leerRegistro();
+    }
+
+    /**
+     * Las exportaciones de Excel en español usan ';' y el resto ','; se elige el que más aparece en la cabecera.
+     */
+    private static char detectarSeparador(BufferedReader reader) throws IOException {
+        reader.mark(MAX_CABECERA);
+        String cabecera = reader.readLine();
+        reader.reset();
+        if (cabecera == null) return ',';
+        int comas = 0, puntosYComa = 0;
+        for (int i = 0; i < cabecera.length(); i++) {
+            char c = cabecera.charAt(i);
+            if (c == ',') comas++;
+            else if (c == ';') puntosYComa++;
+        }
+        return puntosYComa > comas ? ';' : ',';
+    }
+
+    @Override
+    public boolean hasNext() {
+        return siguiente != null;
+    }
+
+    @Override
+    public Map<String, String> next() {
+        if (siguiente == null) throw new NoSuchElementException();
+        String[] valores = new String[esquema.getTamano()];
+        for (int i = 0; i < valores.length; i++) {
+            valores[i] = i < siguiente.size() ? siguiente.get(i) : "";
+        }
+        Map<String, String> fila = esquema.fila(valores);
+        try {
+            siguiente = leerRegistro();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error al leer el CSV en la línea " + linea, e);
+        }
+        return fila;
+    }
+
+    /**
+     * Lee el siguiente registro no vacío.
+     * @return Los campos del registro, o {@code null} al final del archivo.
+     */
+    private List<String> leerRegistro() throws IOException {
+        List<String> campos = new ArrayList<>();
+        campo.setLength(0);
+        boolean entreComillas = false;
+        boolean hayDatos = false;
+        int c;
+        while ((c = reader.read()) != -1) {
+            if (entreComillas) {
+                if (c == '"') {
+                    reader.mark(1);
+                    if (reader.read() == '"') {
+                        campo.append('"');
+                    } else {
+                        reader.reset();
+                        entreComillas = false;
+                    }
+                } else {
+                    if (c == '\n') linea++;
+                    campo.append((char) c);
+                }
+            } else if (c == '"') {
+                entreComillas = true;
+                hayDatos = true;
+            } else if (c == separador) {
+                campos.add(campo.toString());
+                campo.setLength(0);
+                hayDatos = true;
+            } else if (c == '\r' || c == '\n') {
+                if (c == '\r') {
+                    reader.mark(1);
+                    if (reader.read() != '\n') reader.reset();
+                }
+                linea++;
+                if (hayDatos || campo.length() > 0) break;
+            } else {
+                campo.append((char) c);
+                hayDatos = true;
+            }
+        }
+        if (!hayDatos && campo.length() == 0) return null;
+        campos.add(campo.toString());
+        return campos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,75 @@
+package com.ejemplo;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Lee un archivo JSON Lines línea a línea. Cada línea debe ser un objeto JSON; sus propiedades se
+ * devuelven como un Map de placeholders (ver {@link Json#comoTexto(Object)} para la conversión de valores).
+ */
+final class LectorJsonLineas implements Iterator<Map<String, String>>, Closeable {
+
+    private final BufferedReader reader;
+    private String siguiente;
+    private int linea;
+
+    /**
+     * @param reader Reader del archivo; se cierra con {@link #close()}.
+     * @throws IOException Si el archivo no se puede leer.
+     */
+    LectorJsonLineas(BufferedReader reader) throws IOException {
+        this.reader = reader;
+        this.siguiente = leerLinea();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return siguiente != null;
+    }
+
+    @Override
+    public Map<String, String> next() {
+        if (siguiente == null) throw new NoSuchElementException();
+        Map<String, String> fila = analizar(siguiente);
+        try {
+            siguiente = leerLinea();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error al leer el archivo JSON Lines en la línea " + (linea + 1), e);
+        }
+        return fila;
+    }
+
+    private String leerLinea() throws IOException {
+        String l;
+        while ((l = reader.readLine()) != null) {
+            linea++;
+            if (!l.isBlank()) return l;
+        }
+        return null;
+    }
+
+    private Map<String, String> analizar(String l) {
+        Map<String, Object> objeto;
+        try {
+            objeto = Json.leerObjeto(l);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Línea " + linea + ": " + e.getMessage(), e);
+        }
+        Map<String, String> fila = new HashMap<>(objeto.size() * 2);
+        for (Map.Entry<String, Object> propiedad : objeto.entrySet()) {
+            fila.put(MotorSustitucion.placeholder(propiedad.getKey()), Json.comoTexto(propiedad.getValue()));
+        }
+        return fila;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
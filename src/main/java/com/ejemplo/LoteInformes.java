@@ -0,0 +1,102 @@
+package com.ejemplo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Genera muchos informes a la vez (por ejemplo, el de cada cliente a fin de mes) repartiendo los
+ * trabajos en un ejecutor. Las plantillas se comparten entre trabajos a través de la caché de
+ * {@link PlantillaDocx} y {@link PlantillaPptx}, de modo que cada una se analiza una sola vez.
+ * El error de un trabajo no afecta al resto: se recoge en el {@link ResumenLote}, junto con los informes
+ * que se han copiado de la {@link CacheSalidas} activa por no haber cambiado sus datos.
+ */
+public class LoteInformes implements AutoCloseable {
+
+    /**
+     * Informe generado por un trabajo y resultado de su consulta a la caché de salidas.
+     */
+    private static final class Ejecucion {
+        private final String ruta;
+        private final CacheSalidas.Resultado resultado;
+
+        private Ejecucion(String ruta, CacheSalidas.Resultado resultado) {
+            this.ruta = ruta;
+            this.resultado = resultado;
+        }
+    }
+
+    private final ExecutorService executor;
+    private final boolean executorPropio;
+
+    /**
+     * Crea un lote con un pool de hilos acotado al número de núcleos disponibles.
+     */
+    public LoteInformes() {
+        this(Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()), true);
+    }
+
+    /**
+     * Crea un lote que usa el ejecutor indicado (por ejemplo, uno de hilos virtuales en JDK 21+).
+     * El ejecutor no se cierra al cerrar el lote.
+     * @param executor Ejecutor en el que se lanzan los trabajos.
+     */
+    public LoteInformes(ExecutorService executor) {
+        this(executor, false);
+    }
+
+    private LoteInformes(ExecutorService executor, boolean executorPropio) {
+        this.executor = executor;
+        this.executorPropio = executorPropio;
+    }
+
+    /**
+     * Ejecuta todos los trabajos de forma concurrente y espera a que terminen.
+     * @param trabajos Trabajos a ejecutar.
+     * @return El resumen con los informes generados, los fallos y el rendimiento.
+     * @throws InterruptedException Si el hilo se interrumpe mientras espera a los trabajos.
+     */
+    public ResumenLote ejecutar(List<TrabajoInforme> trabajos) throws InterruptedException {
+        long inicio = System.nanoTime();
+        List<Future<Ejecucion>> futuros = new ArrayList<>(trabajos.size());
+        for (TrabajoInforme trabajo : trabajos) {
+            futuros.add(executor.submit(() -> {
+                // El generador deja en el hilo si el informe salió de la caché de salidas.
+                CacheSalidas.reiniciarResultado();
+                String ruta = trabajo.ejecutar();
+                return new Ejecucion(ruta, CacheSalidas.ultimoResultado());
+            }));
+        }
+
+        List<String> generados = new ArrayList<>();
+        List<ResumenLote.Fallo> fallos = new ArrayList<>();
+        int reutilizados = 0;
+        int regenerados = 0;
+        for (int i = 0; i < futuros.size(); i++) {
+            try {
+                Ejecucion ejecucion = futuros.get(i).get();
+                generados.add(ejecucion.ruta);
+                if (ejecucion.resultado == CacheSalidas.Resultado.REUTILIZADO) reutilizados++;
+                else if (ejecucion.resultado == CacheSalidas.Resultado.GENERADO) regenerados++;
+            } catch (ExecutionException e) {
+                Throwable causa = e.getCause();
+                Exception error = causa instanceof Exception ? (Exception) causa : e;
+                fallos.add(new ResumenLote.Fallo(trabajos.get(i).getNombre(), error));
+            }
+        }
+        return new ResumenLote(generados, fallos, reutilizados, regenerados, System.nanoTime() - inicio);
+    }
+
+    /**
+     * Cierra el pool de hilos si lo creó el propio lote.
+     */
+    @Override
+    public void close() {
+        if (executorPropio) {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.ejemplo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Manifiestos de plantilla: la plantilla ya compilada (contenido normalizado, posición de cada párrafo con
+ * placeholders e índice de bloques) se guarda en un archivo junto a ella, {@code Plantilla.docx.manifiesto},
+ * para que el siguiente proceso que la use no tenga que abrirla con POI, recorrerla y normalizarla antes de
+ * empezar a trabajar. Interesa sobre todo en las ejecuciones cortas de {@link InformesCli}, donde la
+ * compilación de la plantilla es una parte importante del tiempo total.
+ * <p>
+ * Cada manifiesto guarda la huella SHA-256 de la plantilla de la que procede; si la plantilla cambia, el
+ * manifiesto se ignora y se reescribe tras recompilarla. Un manifiesto ilegible se trata igual. Están
+ * desactivados por defecto: se activan con {@link #setActivo(boolean)} o con la propiedad del sistema
+ * {@code -Dinformes.manifiestos=true}.
+ */
+public final class ManifiestoPlantillas {
+
+    /** Sufijo que se añade al nombre de la plantilla para obtener el de su manifiesto. */
+    public static final String EXTENSION = ".manifiesto";
+
+    private static final int MAGIA = 0x494E464D;
+    /** Se incrementa cuando cambia el formato del manifiesto o la forma de compilar las plantillas. */
+    private static final int VERSION = 3;
+
+    private static volatile boolean activo = Boolean.getBoolean("informes.manifiestos");
+
+    /**
+     * Escribe en un manifiesto el contenido propio de una plantilla compilada.
+     */
+    @FunctionalInterface
+    interface Escritura<T> {
+        void escribir(T plantilla, DataOutput out) throws IOException;
+    }
+
+    /**
+     * Lee de un manifiesto una plantilla compilada escrita con {@link Escritura}.
+     */
+    @FunctionalInterface
+    interface Lectura<T> {
+        T leer(DataInput in) throws IOException;
+    }
+
+    private ManifiestoPlantillas() {
+    }
+
+    /**
+     * Activa o desactiva el uso de manifiestos para todas las plantillas DOCX y PPTX.
+     * @param activar {@code true} para leer y escribir manifiestos.
+     */
+    public static void setActivo(boolean activar) {
+        activo = activar;
+    }
+
+    public static boolean getActivo() {
+        return activo;
+    }
+
+    /**
+     * @param plantilla Ruta de la plantilla.
+     * @return La ruta de su manifiesto.
+     */
+    public static Path ruta(Path plantilla) {
+        return plantilla.resolveSibling(plantilla.getFileName() + EXTENSION);
+    }
+
+    /**
+     * Crea la persistencia en manifiestos para la caché de plantillas de un tipo.
+     * @param tipo      Tipo de plantilla ("DOCX", "PPTX"), para no confundir manifiestos de distintos tipos.
+     * @param escritura Escritura de la plantilla compilada.
+     * @param lectura   Lectura de la plantilla compilada.
+     */
+    static <T> CachePlantillas.Persistencia<T> persistencia(String tipo, Escritura<T> escritura, Lectura<T> lectura) {
+        return new CachePlantillas.Persistencia<T>() {
+            @Override
+            public T leer(Path ruta, byte[] huella) {
+                Path manifiesto = ruta(ruta);
+                if (!activo || !Files.isRegularFile(manifiesto)) return null;
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(manifiesto)))) {
+                    if (in.readInt() != MAGIA || in.readInt() != VERSION || !tipo.equals(in.readUTF())) return null;
+                    byte[] guardada = new byte[in.readInt()];
+                    in.readFully(guardada);
+                    if (!Arrays.equals(guardada, huella)) return null;
+                    return lectura.leer(in);
+                } catch (IOException | RuntimeException e) {
+                    // Manifiesto truncado o de otra versión: se recompila la plantilla y se reescribe.
+                    return null;
+                }
+            }
+
+            @Override
+            public void guardar(Path ruta, byte[] huella, T plantilla) {
+                if (!activo) return;
+                Path manifiesto = ruta(ruta);
+                try {
+                    escribir(manifiesto, tipo, huella, plantilla, escritura);
+                } catch (IOException e) {
+                    // Sin manifiesto la plantilla se compila en cada arranque, pero el informe se genera igual.
+                    Metricas.avisar("No se pudo guardar el manifiesto " + manifiesto + ": " + e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Escribe el manifiesto en un temporal y lo mueve a su sitio, para que otro proceso nunca lea uno a medias.
+     */
+    private static <T> void escribir(Path manifiesto, String tipo, byte[] huella, T plantilla,
+                                     Escritura<T> escritura) throws IOException {
+        Path temporal = Files.createTempFile(manifiesto.toAbsolutePath().getParent(), "manifiesto", ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporal)))) {
+                out.writeInt(MAGIA);
+                out.writeInt(VERSION);
+                out.writeUTF(tipo);
+                out.writeInt(huella.length);
+                out.write(huella);
+                escritura.escribir(plantilla, out);
+            }
+            try {
+                Files.move(temporal, manifiesto, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporal, manifiesto, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporal);
+        }
+    }
+
+    static void escribirBytes(DataOutput out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static byte[] leerBytes(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    static void escribirUbicaciones(DataOutput out, List<UbicacionXml> ubicaciones) throws IOException {
+        out.writeInt(ubicaciones.size());
+        for (UbicacionXml ubicacion : ubicaciones) {
+            ubicacion.escribir(out);
+        }
+    }
+
+    static List<UbicacionXml> leerUbicaciones(DataInput in) throws IOException {
+        int n = in.readInt();
+        List<UbicacionXml> ubicaciones = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            ubicaciones.add(UbicacionXml.leer(in));
+        }
+        return ubicaciones;
+    }
+
+    static void escribirIndices(DataOutput out, List<IndiceBloques> indices) throws IOException {
+        out.writeInt(indices.size());
+        for (IndiceBloques indice : indices) {
+            indice.escribir(out);
+        }
+    }
+
+    static List<IndiceBloques> leerIndices(DataInput in) throws IOException {
+        int n = in.readInt();
+        List<IndiceBloques> indices = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            indices.add(IndiceBloques.leer(in));
+        }
+        return indices;
+    }
+}
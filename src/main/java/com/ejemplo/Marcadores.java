@@ -0,0 +1,58 @@
+package com.ejemplo;
+
+/**
+ * Utilidades para reconocer los párrafos marcador que delimitan los bloques duplicables
+ * (por ejemplo, "---incidencia---", o simplemente "---" para el bloque sin identificador).
+ */
+final class Marcadores {
+
+    private static final String DELIMITADOR = "---";
+
+    private Marcadores() {
+    }
+
+    /**
+     * Devuelve el texto del marcador correspondiente a un identificador de bloque.
+     * @param blockId Identificador del bloque; si es {@code null} o vacío se usa "---".
+     * @return El texto del marcador.
+     */
+    static String texto(String blockId) {
+        return (blockId != null && !blockId.isEmpty()) ? DELIMITADOR + blockId + DELIMITADOR : DELIMITADOR;
+    }
+
+    /**
+     * Obtiene el identificador de bloque de un texto de párrafo si este es un marcador.
+     * @param texto Texto del párrafo (sin recortar).
+     * @return El identificador ("" para "---"), o {@code null} si el texto no es un marcador.
+     */
+    static String idDe(String texto) {
+        if (texto == null) return null;
+        String t = texto.trim();
+        if (t.equals(DELIMITADOR)) return "";
+        if (t.length() > 2 * DELIMITADOR.length() && t.startsWith(DELIMITADOR) && t.endsWith(DELIMITADOR)) {
+            return t.substring(DELIMITADOR.length(), t.length() - DELIMITADOR.length());
+        }
+        return null;
+    }
+
+    /**
+     * Construye la clave de datos de un bloque anidado, por ejemplo "incidencia[0].tarea".
+     * @param prefijo Prefijo de los bloques que lo contienen ("" en el nivel superior, o "incidencia[0].").
+     * @param blockId Identificador del bloque contenedor.
+     * @param indice  Posición de la fila del bloque contenedor.
+     * @return El prefijo para los bloques interiores de esa fila.
+     */
+    static String prefijoAnidado(String prefijo, String blockId, int indice) {
+        return prefijo + blockId + "[" + indice + "].";
+    }
+
+    /**
+     * Obtiene el identificador de bloque de una clave de datos, que puede ser anidada ("incidencia[0].tarea").
+     * @param clave Clave del Map de bloques.
+     * @return El identificador del bloque más interior ("tarea").
+     */
+    static String idDeClave(String clave) {
+        int separador = clave.lastIndexOf("].");
+        return separador < 0 ? clave : clave.substring(separador + 2);
+    }
+}
@@ -0,0 +1,124 @@
+package com.ejemplo;
+
+/**
+ * Punto de acceso a la instrumentación de los generadores. Cada informe en curso tiene sus
+ * {@link MetricasInforme} asociadas al hilo que lo genera, de modo que el código interno
+ * (sustitución, normalización, expansión de bloques) puede sumar contadores sin recibirlas
+ * como parámetro; si no hay ningún informe en curso, los contadores se ignoran.
+ */
+public final class Metricas {
+
+    private static final ThreadLocal<MetricasInforme> ACTUAL = new ThreadLocal<>();
+
+    private static volatile OyenteMetricas oyente = OyenteMetricas.CONSOLA;
+
+    private Metricas() {
+    }
+
+    /**
+     * Registra el oyente que recibirá las métricas y avisos de todos los generadores.
+     * @param nuevo Oyente a usar; {@code null} para descartar las métricas.
+     */
+    public static void setOyente(OyenteMetricas nuevo) {
+        oyente = nuevo != null ? nuevo : metricas -> { };
+    }
+
+    /**
+     * @return El oyente registrado.
+     */
+    public static OyenteMetricas getOyente() {
+        return oyente;
+    }
+
+    /**
+     * Empieza a medir un informe en el hilo actual.
+     * @param tipo Tipo de informe ("DOCX" o "PPTX").
+     * @return Las métricas del informe.
+     */
+    static MetricasInforme iniciar(String tipo) {
+        MetricasInforme metricas = new MetricasInforme(tipo);
+        ACTUAL.set(metricas);
+        return metricas;
+    }
+
+    /**
+     * Cierra las métricas del informe en curso y las entrega al oyente.
+     * @param metricas      Métricas devueltas por {@link #iniciar(String)}.
+     * @param salida        Ruta del informe generado.
+     * @param bytesEscritos Tamaño del informe generado.
+     */
+    static void terminar(MetricasInforme metricas, String salida, long bytesEscritos) {
+        ACTUAL.remove();
+        metricas.terminar(salida, bytesEscritos);
+        oyente.informeGenerado(metricas);
+    }
+
+    /**
+     * Descarta las métricas del informe en curso, por ejemplo si su generación ha fallado.
+     */
+    static void descartar() {
+        ACTUAL.remove();
+    }
+
+    /**
+     * @return Las métricas del informe en curso en el hilo actual, o {@code null} si no hay ninguno.
+     */
+    static MetricasInforme actual() {
+        return ACTUAL.get();
+    }
+
+    /**
+     * Asocia unas métricas al hilo actual, para que una tarea que hace parte de un informe en otro hilo
+     * (ver {@link MetricasInforme#parciales()}) cuente allí su trabajo.
+     * @param metricas Métricas a asociar; {@code null} para no asociar ninguna.
+     * @return Las que tenía asociadas el hilo, que deben restaurarse al terminar la tarea.
+     */
+    static MetricasInforme asociar(MetricasInforme metricas) {
+        MetricasInforme anterior = ACTUAL.get();
+        if (metricas != null) {
+            ACTUAL.set(metricas);
+        } else {
+            ACTUAL.remove();
+        }
+        return anterior;
+    }
+
+    /**
+     * Empieza a medir una fase del informe en curso en el hilo actual.
+     * @param fase Fase a medir.
+     * @return El cronómetro de la fase, o {@code null} si no hay ningún informe en curso
+     *         (try-with-resources admite recursos nulos).
+     */
+    static MetricasInforme.Cronometro medir(FaseInforme fase) {
+        MetricasInforme metricas = ACTUAL.get();
+        return metricas != null ? metricas.medir(fase) : null;
+    }
+
+    static void contarParrafos(int n) {
+        MetricasInforme metricas = ACTUAL.get();
+        if (metricas != null) metricas.sumarParrafos(n);
+    }
+
+    static void contarRunsFusionados(int n) {
+        MetricasInforme metricas = ACTUAL.get();
+        if (metricas != null) metricas.sumarRunsFusionados(n);
+    }
+
+    static void contarPlaceholders(int n) {
+        MetricasInforme metricas = ACTUAL.get();
+        if (metricas != null) metricas.sumarPlaceholders(n);
+    }
+
+    static void contarBloques(int n) {
+        MetricasInforme metricas = ACTUAL.get();
+        if (metricas != null) metricas.sumarBloques(n);
+    }
+
+    /**
+     * Notifica un aviso al oyente registrado.
+     * @param mensaje Descripción del aviso.
+     */
+    static void avisar(String mensaje) {
+        oyente.aviso(mensaje);
+    }
+}
@@ -0,0 +1,206 @@
+package com.ejemplo;
+
+/**
+ * Métricas de la generación de un informe: tiempo de cada fase y contadores del trabajo realizado.
+ * Las crea {@link Metricas#iniciar(String)} y se entregan al {@link OyenteMetricas} al terminar.
+ * Los tiempos de las fases son exclusivos: si una fase se mide dentro de otra (por ejemplo, la
+ * normalización al compilar durante la lectura), su duración no se cuenta también en la exterior.
+ */
+public final class MetricasInforme {
+
+    /**
+     * Mide una fase desde su creación hasta {@link #close()}.
+     */
+    public final class Cronometro implements AutoCloseable {
+        private final FaseInforme fase;
+        private final Cronometro padre;
+        private final EventoFaseInforme evento;
+        private final long inicio;
+        private long anidado;
+
+        private Cronometro(FaseInforme fase, Cronometro padre) {
+            this.fase = fase;
+            this.padre = padre;
+            this.evento = new EventoFaseInforme();
+            this.evento.tipo = tipo;
+            this.evento.fase = fase.name();
+            this.evento.begin();
+            this.inicio = System.nanoTime();
+        }
+
+        @Override
+        public void close() {
+            long duracion = System.nanoTime() - inicio;
+            evento.commit();
+            nanosPorFase[fase.ordinal()] += duracion - anidado;
+            if (padre != null) {
+                padre.anidado += duracion;
+            }
+            abierto = padre;
+        }
+    }
+
+    private final String tipo;
+    private final long inicio = System.nanoTime();
+    private final long[] nanosPorFase = new long[FaseInforme.values().length];
+    private final EventoInforme evento = new EventoInforme();
+    private Cronometro abierto;
+    private String salida;
+    private long duracionNanos;
+    private int parrafos;
+    private int runsFusionados;
+    private long placeholders;
+    private int bloques;
+    private long bytesEscritos;
+
+    MetricasInforme(String tipo) {
+        this(tipo, true);
+    }
+
+    private MetricasInforme(String tipo, boolean registrar) {
+        this.tipo = tipo;
+        if (registrar) {
+            evento.begin();
+        }
+    }
+
+    /**
+     * Crea unas métricas vacías para contar el trabajo que otro hilo hace para este informe, que luego se
+     * añaden a estas con {@link #sumar(MetricasInforme)}: los contadores no admiten escrituras concurrentes.
+     * @return Métricas parciales del mismo tipo, que no se registran como informe.
+     */
+    MetricasInforme parciales() {
+        return new MetricasInforme(tipo, false);
+    }
+
+    /**
+     * Suma los contadores de unas métricas parciales.
+     * @param parciales Métricas devueltas por {@link #parciales()}, ya terminado su trabajo.
+     */
+    void sumar(MetricasInforme parciales) {
+        parrafos += parciales.parrafos;
+        runsFusionados += parciales.runsFusionados;
+        placeholders += parciales.placeholders;
+        bloques += parciales.bloques;
+    }
+
+    /**
+     * Empieza a medir una fase.
+     * @param fase Fase que se va a medir.
+     * @return El cronómetro, que debe cerrarse al acabar la fase (por ejemplo, con try-with-resources).
+     */
+    public Cronometro medir(FaseInforme fase) {
+        abierto = new Cronometro(fase, abierto);
+        return abierto;
+    }
+
+    void sumarParrafos(int n) {
+        parrafos += n;
+    }
+
+    void sumarRunsFusionados(int n) {
+        runsFusionados += n;
+    }
+
+    void sumarPlaceholders(int n) {
+        placeholders += n;
+    }
+
+    void sumarBloques(int n) {
+        bloques += n;
+    }
+
+    void terminar(String salida, long bytesEscritos) {
+        this.salida = salida;
+        this.bytesEscritos = bytesEscritos;
+        this.duracionNanos = System.nanoTime() - inicio;
+        evento.tipo = tipo;
+        evento.salida = salida;
+        evento.parrafos = parrafos;
+        evento.runsFusionados = runsFusionados;
+        evento.placeholders = placeholders;
+        evento.bloques = bloques;
+        evento.bytesEscritos = bytesEscritos;
+        evento.commit();
+    }
+
+    /**
+     * @return Tipo de informe ("DOCX" o "PPTX").
+     */
+    public String getTipo() {
+        return tipo;
+    }
+
+    /**
+     * @return Ruta del informe generado.
+     */
+    public String getSalida() {
+        return salida;
+    }
+
+    /**
+     * @return Duración total de la generación en milisegundos.
+     */
+    public double getDuracionMillis() {
+        return duracionNanos / 1_000_000.0;
+    }
+
+    /**
+     * @param fase Fase consultada.
+     * @return Tiempo exclusivo de la fase en milisegundos (0 si no ha ocurrido).
+     */
+    public double getMillis(FaseInforme fase) {
+        return nanosPorFase[fase.ordinal()] / 1_000_000.0;
+    }
+
+    /**
+     * @return Párrafos visitados para sustituir placeholders.
+     */
+    public int getParrafos() {
+        return parrafos;
+    }
+
+    /**
+     * @return Runs fusionados al normalizar la plantilla (0 si ya estaba compilada).
+     */
+    public int getRunsFusionados() {
+        return runsFusionados;
+    }
+
+    /**
+     * @return Placeholders sustituidos.
+     */
+    public long getPlaceholders() {
+        return placeholders;
+    }
+
+    /**
+     * @return Copias de bloque generadas.
+     */
+    public int getBloques() {
+        return bloques;
+    }
+
+    /**
+     * @return Bytes escritos en el archivo de salida.
+     */
+    public long getBytesEscritos() {
+        return bytesEscritos;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%.1f ms (", getDuracionMillis()));
+        for (FaseInforme fase : FaseInforme.values()) {
+            if (fase.ordinal() > 0) sb.append(", ");
+            sb.append(fase.name().toLowerCase()).append(String.format(" %.1f", getMillis(fase)));
+        }
+        sb.append("); párrafos ").append(parrafos)
+                .append(", runs fusionados ").append(runsFusionados)
+                .append(", placeholders ").append(placeholders)
+                .append(", bloques ").append(bloques)
+                .append(", bytes ").append(bytesEscritos);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,265 @@
+package com.ejemplo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Motor de sustitución de placeholders compartido por los generadores.
+ * Recorre el texto una sola vez de izquierda a derecha localizando cada "{{...}}" y lo
+ * resuelve con una única búsqueda en el mapa de datos, en lugar de probar todas las claves
+ * del mapa con {@code contains}/{@code replace}. El resultado se construye en un buffer
+ * reutilizado por hilo y, si el texto no contiene ningún placeholder conocido, se devuelve
+ * la misma instancia sin asignar memoria.
+ * Las claves del mapa deben tener la forma completa del placeholder, por ejemplo "{{Client}}".
+ * Con una {@link FilaCompacta} los placeholders se resuelven por posición en su esquema.
+ * <p>
+ * Los placeholders de imagen ({@code {{img:nombre}}}) no se sustituyen por su valor (la ruta de la imagen)
+ * sino por una referencia {@code {{img=ruta}}}, que el generador convierte después en la imagen incrustada.
+ */
+public final class MotorSustitucion {
+
+    private static final String APERTURA = "{{";
+    private static final String CIERRE = "}}";
+    private static final String IMAGEN = "img:";
+
+    /** Inicio de la referencia que deja un placeholder de imagen ya resuelto: "{{img=ruta}}". */
+    static final String REFERENCIA_IMAGEN = "{{img=";
+
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(256));
+
+    private MotorSustitucion() {
+    }
+
+    /**
+     * Sustituye los placeholders de un texto por sus valores.
+     * Los placeholders que no están en el mapa se dejan tal cual.
+     * @param texto Texto a procesar (puede ser {@code null}).
+     * @param datos Mapa con los placeholders y sus valores.
+     * @return El texto sustituido, o la misma instancia de {@code texto} si no había nada que sustituir.
+     */
+    public static String sustituir(String texto, Map<String, String> datos) {
+        if (texto == null) return null;
+        int inicio = texto.indexOf(APERTURA);
+        if (inicio < 0) return texto;
+
+        StringBuilder sb = null;
+        int copiado = 0;
+        int sustituidos = 0;
+        while (inicio >= 0) {
+            int fin = texto.indexOf(CIERRE, inicio + APERTURA.length());
+            if (fin < 0) break;
+            int finToken = fin + CIERRE.length();
+            String valor = valor(datos, texto, inicio, finToken);
+            if (valor == null) {
+                // Puede haber un placeholder válido que empiece más adelante, por ejemplo "{{{ID}}".
+                inicio = texto.indexOf(APERTURA, inicio + 1);
+                continue;
+            }
+            if (sb == null) {
+                sb = BUFFER.get();
+                sb.setLength(0);
+            }
+            sb.append(texto, copiado, inicio);
+            anadirValor(sb, texto, inicio, valor);
+            sustituidos++;
+            copiado = finToken;
+            inicio = texto.indexOf(APERTURA, finToken);
+        }
+        if (sb == null) return texto;
+        Metricas.contarPlaceholders(sustituidos);
+        sb.append(texto, copiado, texto.length());
+        return sb.toString();
+    }
+
+    /**
+     * Sustituye los placeholders de un texto repartido en varios segmentos consecutivos (por
+     * ejemplo, los runs de un párrafo), aunque un placeholder quede partido entre segmentos.
+     * El valor de cada placeholder se escribe en el segmento donde empieza y el resto de sus
+     * caracteres se elimina de los segmentos siguientes, de modo que cada segmento conserva su formato.
+     * @param segmentos Textos de los segmentos, en orden.
+     * @param datos     Mapa con los placeholders y sus valores.
+     * @return Un nuevo array con los segmentos sustituidos, o el mismo array si no había nada que sustituir.
+     */
+    public static String[] sustituirSegmentos(String[] segmentos, Map<String, String> datos) {
+        if (segmentos.length == 1) {
+            String unico = sustituir(segmentos[0], datos);
+            return unico == segmentos[0] ? segmentos : new String[] {unico};
+        }
+        int[] limites = new int[segmentos.length + 1];
+        StringBuilder todo = new StringBuilder();
+        for (int i = 0; i < segmentos.length; i++) {
+            limites[i] = todo.length();
+            todo.append(segmentos[i]);
+        }
+        limites[segmentos.length] = todo.length();
+        if (todo.indexOf(APERTURA) < 0) return segmentos;
+
+        StringBuilder[] salida = null;
+        int copiado = 0;
+        int segmento = 0;
+        int sustituidos = 0;
+        int inicio = todo.indexOf(APERTURA);
+        while (inicio >= 0) {
+            int fin = todo.indexOf(CIERRE, inicio + APERTURA.length());
+            if (fin < 0) break;
+            int finToken = fin + CIERRE.length();
+            String valor = valor(datos, todo, inicio, finToken);
+            if (valor == null) {
+                inicio = todo.indexOf(APERTURA, inicio + 1);
+                continue;
+            }
+            if (salida == null) {
+                salida = new StringBuilder[segmentos.length];
+                for (int i = 0; i < salida.length; i++) {
+                    salida[i] = new StringBuilder();
+                }
+            }
+            segmento = copiarTramo(todo, copiado, inicio, limites, segmento, salida);
+            while (limites[segmento + 1] <= inicio) {
+                segmento++;
+            }
+            anadirValor(salida[segmento], todo, inicio, valor);
+            sustituidos++;
+            copiado = finToken;
+            inicio = todo.indexOf(APERTURA, finToken);
+        }
+        if (salida == null) return segmentos;
+        Metricas.contarPlaceholders(sustituidos);
+        copiarTramo(todo, copiado, todo.length(), limites, segmento, salida);
+
+        String[] resultado = new String[segmentos.length];
+        for (int i = 0; i < resultado.length; i++) {
+            resultado[i] = salida[i].toString();
+        }
+        return resultado;
+    }
+
+    /**
+     * Busca el valor del placeholder que ocupa el tramo [inicio, fin) de un texto. Las filas compactas
+     * lo resuelven por su posición en el esquema sin extraer la clave; el resto de mapas, con su clave.
+     */
+    private static String valor(Map<String, String> datos, CharSequence texto, int inicio, int fin) {
+        if (datos instanceof FilaCompacta) {
+            return ((FilaCompacta) datos).valor(texto, inicio, fin);
+        }
+        return datos.get(texto.subSequence(inicio, fin).toString());
+    }
+
+    /**
+     * Añade el valor del placeholder que empieza en {@code inicio}; si es de imagen, añade su referencia.
+     */
+    private static void anadirValor(StringBuilder sb, CharSequence texto, int inicio, String valor) {
+        if (esImagen(texto, inicio)) {
+            sb.append(REFERENCIA_IMAGEN).append(valor).append(CIERRE);
+        } else {
+            sb.append(valor);
+        }
+    }
+
+    private static boolean esImagen(CharSequence texto, int inicio) {
+        int desde = inicio + APERTURA.length();
+        if (texto.length() < desde + IMAGEN.length()) return false;
+        for (int i = 0; i < IMAGEN.length(); i++) {
+            if (texto.charAt(desde + i) != IMAGEN.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Copia el tramo [desde, hasta) del texto concatenado en los segmentos a los que pertenece.
+     * @return El índice del segmento en el que termina la copia.
+     */
+    private static int copiarTramo(CharSequence todo, int desde, int hasta, int[] limites, int segmento, StringBuilder[] salida) {
+        while (desde < hasta) {
+            while (limites[segmento + 1] <= desde) {
+                segmento++;
+            }
+            int corte = Math.min(hasta, limites[segmento + 1]);
+            salida[segmento].append(todo, desde, corte);
+            desde = corte;
+        }
+        return segmento;
+    }
+
+    /**
+     * Localiza los placeholders que quedan partidos entre varios segmentos (por ejemplo, "{{Cli" + "ent}}"
+     * en dos runs), que son los únicos que obligan a normalizar los runs de un párrafo.
+     * @param segmentos Textos de los segmentos, en orden ({@code null} se trata como vacío).
+     * @return Tramos {inicio, fin} de índices de segmento, ordenados y sin solapes; vacío si no hay ninguno.
+     */
+    static List<int[]> placeholdersPartidos(String[] segmentos) {
+        List<int[]> tramos = new ArrayList<>();
+        if (segmentos.length < 2) return tramos;
+        int[] limites = new int[segmentos.length + 1];
+        StringBuilder todo = new StringBuilder();
+        for (int i = 0; i < segmentos.length; i++) {
+            limites[i] = todo.length();
+            if (segmentos[i] != null) todo.append(segmentos[i]);
+        }
+        limites[segmentos.length] = todo.length();
+
+        int segmento = 0;
+        int inicio = todo.indexOf(APERTURA);
+        while (inicio >= 0) {
+            int fin = todo.indexOf(CIERRE, inicio + APERTURA.length());
+            if (fin < 0) break;
+            int finToken = fin + CIERRE.length();
+            while (limites[segmento + 1] <= inicio) {
+                segmento++;
+            }
+            int ultimo = segmento;
+            while (limites[ultimo + 1] < finToken) {
+                ultimo++;
+            }
+            if (ultimo > segmento) {
+                int[] anterior = tramos.isEmpty() ? null : tramos.get(tramos.size() - 1);
+                if (anterior != null && anterior[1] >= segmento) {
+                    anterior[1] = Math.max(anterior[1], ultimo);
+                } else {
+                    tramos.add(new int[] {segmento, ultimo});
+                }
+            }
+            inicio = todo.indexOf(APERTURA, finToken);
+        }
+        return tramos;
+    }
+
+    /**
+     * Indica si un texto contiene el inicio de algún placeholder.
+     * @param texto Texto a comprobar (puede ser {@code null}).
+     * @return {@code true} si el texto contiene "{{".
+     */
+    public static boolean contienePlaceholder(String texto) {
+        return texto != null && texto.contains(APERTURA);
+    }
+
+    /**
+     * Indica si un texto contiene algún placeholder de imagen ({@code {{img:nombre}}}).
+     * @param texto Texto a comprobar (puede ser {@code null}).
+     * @return {@code true} si el texto contiene "{{img:".
+     */
+    public static boolean contienePlaceholderImagen(String texto) {
+        return texto != null && texto.contains(APERTURA + IMAGEN);
+    }
+
+    /**
+     * Indica si una clave de datos corresponde a un placeholder de imagen, por ejemplo "{{img:logo}}".
+     * @param clave Clave del mapa de datos.
+     * @return {@code true} si la clave empieza por "{{img:".
+     */
+    public static boolean esPlaceholderImagen(String clave) {
+        return clave != null && clave.startsWith(APERTURA + IMAGEN);
+    }
+
+    /**
+     * Devuelve la clave de datos de un placeholder a partir de su nombre, por ejemplo "Client" -> "{{Client}}".
+     * Los nombres que ya tienen la forma completa se devuelven tal cual.
+     * @param nombre Nombre del campo (por ejemplo, la cabecera de una columna CSV).
+     * @return La clave con la forma "{{nombre}}".
+     */
+    public static String placeholder(String nombre) {
+        String n = nombre.trim();
+        return n.startsWith(APERTURA) && n.endsWith(CIERRE) ? n : APERTURA + n + CIERRE;
+    }
+}
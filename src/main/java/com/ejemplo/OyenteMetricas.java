@@ -0,0 +1,65 @@
+package com.ejemplo;
+
+/**
+ * Recibe las métricas y los avisos de los generadores. Se registra con {@link Metricas#setOyente(OyenteMetricas)};
+ * por defecto se usa {@link #CONSOLA}. Las llamadas llegan desde el hilo que genera el informe,
+ * así que una implementación compartida por un {@link LoteInformes} debe ser segura entre hilos.
+ */
+public interface OyenteMetricas {
+
+    /**
+     * Oyente que escribe en la salida estándar, como hacían los generadores hasta ahora.
+     */
+    OyenteMetricas CONSOLA = new OyenteMetricas() {
+        @Override
+        public void informeGenerado(MetricasInforme metricas) {
+            String tipo = "DOCX".equals(metricas.getTipo()) ? "Documento" : metricas.getTipo();
+            System.out.println(tipo + " generado correctamente: " + metricas.getSalida());
+            System.out.println("  " + metricas);
+        }
+
+        @Override
+        public void informeReutilizado(String salida) {
+            System.out.println("Informe sin cambios, copiado de la caché: " + salida);
+        }
+
+        @Override
+        public void aviso(String mensaje) {
+            System.out.println(mensaje);
+        }
+
+        @Override
+        public void error(String informe, Exception error) {
+            System.err.println("Error al generar " + informe + ": " + error);
+            error.printStackTrace();
+        }
+    };
+
+    /**
+     * Se invoca cada vez que un informe se genera correctamente.
+     * @param metricas Tiempos por fase y contadores del informe.
+     */
+    void informeGenerado(MetricasInforme metricas);
+
+    /**
+     * Se invoca cuando un informe no se renderiza porque se ha copiado de la {@link CacheSalidas}.
+     * @param salida Ruta del informe.
+     */
+    default void informeReutilizado(String salida) {
+    }
+
+    /**
+     * Se invoca ante situaciones que no impiden generar el informe (por ejemplo, un bloque sin marcadores).
+     * @param mensaje Descripción del aviso.
+     */
+    default void aviso(String mensaje) {
+    }
+
+    /**
+     * Se invoca cuando un punto de entrada no puede propagar el error de un informe.
+     * @param informe Informe que se estaba generando.
+     * @param error   Error producido.
+     */
+    default void error(String informe, Exception error) {
+    }
+}
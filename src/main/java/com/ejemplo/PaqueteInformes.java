@@ -0,0 +1,200 @@
+package com.ejemplo;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Entregable formado por varios informes con los mismos datos, por ejemplo el DOCX de incidencias y el
+ * PPTX de resumen ejecutivo de un cliente. Los datos se cargan una sola vez, se comparten sin copiarlos
+ * entre todos los informes y estos se generan a la vez, de modo que el tiempo total es el del informe más
+ * lento y no la suma de todos. Opcionalmente, los informes se empaquetan en un único ZIP.
+ * <pre>
+ * ResumenLote resumen = new PaqueteInformes(datosGlobales, bloques)
+ *         .docx("Plantilla.docx", "Test {{Client}} {{month}} {{year}}.docx")
+ *         .pptx("Plantilla.pptx", "01 Resumen ejecutivo {{month}}_{{year}}_Avvale.pptx")
+ *         .archivo("Entrega {{Client}} {{month}} {{year}}.zip")
+ *         .generar();
+ * </pre>
+ */
+public final class PaqueteInformes {
+
+    private final HashMap<String, String> globales;
+    private final Map<String, List<Map<String, String>>> bloques;
+    private final List<TrabajoInforme> trabajos = new ArrayList<>();
+    private String archivoPattern;
+
+    /**
+     * Crea el paquete con los datos comunes a todos sus informes. Las filas que llegan en una
+     * {@link FuenteFilas} se leen aquí una sola vez, porque cada informe necesita recorrerlas.
+     * @param datosGlobales    Mapa de datos globales a reemplazar en todos los informes.
+     * @param duplicableBlocks Map con los bloques a duplicar y sus filas.
+     */
+    public PaqueteInformes(Map<String, String> datosGlobales,
+                           Map<String, ? extends Iterable<? extends Map<String, String>>> duplicableBlocks) {
+        this.globales = new HashMap<>(datosGlobales);
+        Map<String, List<Map<String, String>>> copia = new HashMap<>();
+        for (Map.Entry<String, ? extends Iterable<? extends Map<String, String>>> bloque : duplicableBlocks.entrySet()) {
+            List<Map<String, String>> filas = new ArrayList<>();
+            for (Map<String, String> fila : bloque.getValue()) {
+                filas.add(fila);
+            }
+            copia.put(bloque.getKey(), Collections.unmodifiableList(filas));
+        }
+        this.bloques = Collections.unmodifiableMap(copia);
+    }
+
+    /**
+     * Añade un documento DOCX al paquete.
+     * @param plantillaPath Ruta de la plantilla DOCX.
+     * @param salidaPattern Ruta (con placeholders) del documento.
+     * @return Este paquete.
+     */
+    public PaqueteInformes docx(String plantillaPath, String salidaPattern) {
+        trabajos.add(TrabajoInforme.docx(plantillaPath, salidaPattern, globales, bloques));
+        return this;
+    }
+
+    /**
+     * Añade una presentación PPTX al paquete.
+     * @param plantillaPath Ruta de la plantilla PPTX.
+     * @param salidaPattern Ruta (con placeholders) de la presentación.
+     * @return Este paquete.
+     */
+    public PaqueteInformes pptx(String plantillaPath, String salidaPattern) {
+        trabajos.add(TrabajoInforme.pptx(plantillaPath, salidaPattern, globales, bloques));
+        return this;
+    }
+
+    /**
+     * Añade un libro XLSX al paquete.
+     * @param plantillaPath Ruta de la plantilla XLSX.
+     * @param salidaPattern Ruta (con placeholders) del libro.
+     * @return Este paquete.
+     */
+    public PaqueteInformes xlsx(String plantillaPath, String salidaPattern) {
+        trabajos.add(TrabajoInforme.xlsx(plantillaPath, salidaPattern, globales, bloques));
+        return this;
+    }
+
+    /**
+     * Empaqueta todos los informes en un ZIP cuando se han generado correctamente.
+     * @param archivoPattern Ruta (con placeholders) del ZIP.
+     * @return Este paquete.
+     */
+    public PaqueteInformes archivo(String archivoPattern) {
+        this.archivoPattern = archivoPattern;
+        return this;
+    }
+
+    /**
+     * @return La ruta del ZIP del paquete, o {@code null} si no se empaqueta.
+     */
+    public String getRutaArchivo() {
+        return archivoPattern == null ? null : DocxGenerador.buildOutputPath(archivoPattern, globales);
+    }
+
+    /**
+     * Genera todos los informes a la vez, con un hilo por informe.
+     * @return El resumen con los informes generados y los fallos; si se pidió un ZIP y algún informe
+     *         falló, el ZIP no se crea y se añade como fallo.
+     * @throws InterruptedException Si el hilo se interrumpe mientras espera a los informes.
+     */
+    public ResumenLote generar() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, trabajos.size()));
+        try {
+            return generar(executor);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Genera todos los informes a la vez en el ejecutor indicado, que no se cierra.
+     * @param executor Ejecutor en el que se generan los informes.
+     * @return El resumen con los informes generados y los fallos.
+     * @throws InterruptedException Si el hilo se interrumpe mientras espera a los informes.
+     */
+    public ResumenLote generar(ExecutorService executor) throws InterruptedException {
+        long inicio = System.nanoTime();
+        ResumenLote resumen;
+        try (LoteInformes lote = new LoteInformes(executor)) {
+            resumen = lote.ejecutar(trabajos);
+        }
+        if (archivoPattern == null) return resumen;
+
+        String archivo = getRutaArchivo();
+        List<ResumenLote.Fallo> fallos = new ArrayList<>(resumen.getFallos());
+        List<String> generados = new ArrayList<>(resumen.getGenerados());
+        if (fallos.isEmpty()) {
+            try {
+                empaquetar(generados, Paths.get(archivo));
+                generados.add(archivo);
+            } catch (IOException e) {
+                fallos.add(new ResumenLote.Fallo(archivo, e));
+            }
+        } else {
+            fallos.add(new ResumenLote.Fallo(archivo, new IOException("No se empaqueta un entregable incompleto")));
+        }
+        return new ResumenLote(generados, fallos, resumen.getReutilizados(), resumen.getRegenerados(),
+                System.nanoTime() - inicio);
+    }
+
+    /**
+     * Escribe el ZIP con los informes. Los DOCX, PPTX y XLSX ya están comprimidos, así que se guardan
+     * sin volver a comprimir. El ZIP se escribe en un temporal y se mueve a su sitio al terminar.
+     */
+    private static void empaquetar(List<String> informes, Path archivo) throws IOException {
+        Path directorio = archivo.toAbsolutePath().getParent();
+        Path temporal = Files.createTempFile(directorio, "paquete", ".tmp");
+        try {
+            byte[] buffer = new byte[8192];
+            try (ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(temporal)))) {
+                Set<String> nombres = new HashSet<>();
+                for (String informe : informes) {
+                    Path ruta = Paths.get(informe);
+                    String nombre = ruta.getFileName().toString();
+                    if (!nombres.add(nombre)) {
+                        throw new IOException("Dos informes del paquete se llaman igual: " + nombre);
+                    }
+                    ZipEntry entrada = new ZipEntry(nombre);
+                    entrada.setMethod(ZipEntry.STORED);
+                    entrada.setSize(Files.size(ruta));
+                    entrada.setCrc(crc(ruta, buffer));
+                    zip.putNextEntry(entrada);
+                    Files.copy(ruta, zip);
+                    zip.closeEntry();
+                }
+            }
+            try {
+                Files.move(temporal, archivo, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporal, archivo, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporal);
+        }
+    }
+
+    private static long crc(Path ruta, byte[] buffer) throws IOException {
+        CRC32 crc = new CRC32();
+        try (InputStream in = Files.newInputStream(ruta)) {
+            int leidos;
+            while ((leidos = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, leidos);
+            }
+        }
+        return crc.getValue();
+    }
+}
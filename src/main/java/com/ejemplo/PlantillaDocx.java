@@ -0,0 +1,164 @@
+package com.ejemplo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.*;
+
+import org.apache.poi.xwpf.usermodel.IBody;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTP;
+
+/**
+ * Plantilla DOCX compilada: se analiza una sola vez, se normalizan los runs de los párrafos que
+ * contienen placeholders y se registra, en un único recorrido de todas sus partes, dónde está cada
+ * párrafo con placeholders y cada par de marcadores de bloque. Cada renderizado trabaja sobre una copia obtenida con {@link #nuevaCopia()}
+ * y solo visita las posiciones registradas. Las partes incluyen cabeceras, pies y notas, y los
+ * párrafos pueden estar en tablas anidadas, controles de contenido o cuadros de texto.
+ */
+public final class PlantillaDocx {
+
+    private static final CachePlantillas<PlantillaDocx> CACHE = new CachePlantillas<>(8, PlantillaDocx::compilar,
+            ManifiestoPlantillas.persistencia("DOCX", PlantillaDocx::escribir, PlantillaDocx::leer));
+
+    private final byte[] contenido;
+    private final List<UbicacionXml> parrafosConPlaceholders;
+    private final List<IndiceBloques> bloques;
+    private final boolean conImagenes;
+
+    private PlantillaDocx(byte[] contenido, List<UbicacionXml> parrafosConPlaceholders, List<IndiceBloques> bloques,
+                          boolean conImagenes) {
+        this.contenido = contenido;
+        this.parrafosConPlaceholders = parrafosConPlaceholders;
+        this.bloques = bloques;
+        this.conImagenes = conImagenes;
+    }
+
+    /**
+     * Devuelve la plantilla compilada de la ruta indicada, usando la caché compartida.
+     * @param path Ruta del archivo plantilla DOCX.
+     * @return La plantilla compilada.
+     * @throws IOException Si ocurre un error al leer o compilar la plantilla.
+     */
+    public static PlantillaDocx cargar(String path) throws IOException {
+        return CACHE.obtener(path);
+    }
+
+    /**
+     * Compila el contenido de una plantilla DOCX.
+     * @param contenido Bytes del archivo DOCX.
+     * @return La plantilla compilada.
+     * @throws IOException Si el contenido no es un DOCX válido.
+     */
+    @SuppressWarnings("try")
+    public static PlantillaDocx compilar(byte[] contenido) throws IOException {
+        try (XWPFDocument documento = new XWPFDocument(new ByteArrayInputStream(contenido))) {
+            List<UbicacionXml> ubicaciones = new ArrayList<>();
+            boolean[] conImagenes = new boolean[1];
+            // Una sola pasada por todo el documento: se registran los párrafos con placeholders
+            // y se indexan los marcadores de bloque, incluidos los anidados.
+            List<IndiceBloques> bloques;
+            try (MetricasInforme.Cronometro ignorado = Metricas.medir(FaseInforme.NORMALIZACION)) {
+                bloques = RecorridoDocx.recorrer(documento, (parte, indiceParte, ctp, ruta) -> {
+                    String texto = TextoXml.texto(ctp, DocxGenerador.W_T);
+                    if (!MotorSustitucion.contienePlaceholder(texto)) return;
+                    conImagenes[0] |= MotorSustitucion.contienePlaceholderImagen(texto);
+                    DocxGenerador.mergeRunsWithSameStyle(new XWPFParagraph(ctp, parte));
+                    ubicaciones.add(new UbicacionXml(indiceParte, ruta));
+                });
+            }
+
+            ByteArrayOutputStream normalizado = new ByteArrayOutputStream(contenido.length);
+            documento.write(normalizado);
+            return new PlantillaDocx(normalizado.toByteArray(), ubicaciones, bloques, conImagenes[0]);
+        }
+    }
+
+    /**
+     * Escribe la plantilla compilada en su manifiesto (ver {@link ManifiestoPlantillas}).
+     */
+    private void escribir(DataOutput out) throws IOException {
+        ManifiestoPlantillas.escribirBytes(out, contenido);
+        ManifiestoPlantillas.escribirUbicaciones(out, parrafosConPlaceholders);
+        ManifiestoPlantillas.escribirIndices(out, bloques);
+        out.writeBoolean(conImagenes);
+    }
+
+    private static PlantillaDocx leer(DataInput in) throws IOException {
+        return new PlantillaDocx(ManifiestoPlantillas.leerBytes(in), ManifiestoPlantillas.leerUbicaciones(in),
+                ManifiestoPlantillas.leerIndices(in), in.readBoolean());
+    }
+
+    /**
+     * Crea una copia independiente de la plantilla lista para ser renderizada.
+     * @return Un nuevo XWPFDocument con el contenido normalizado de la plantilla.
+     * @throws IOException Si ocurre un error al abrir la copia.
+     */
+    public XWPFDocument nuevaCopia() throws IOException {
+        return new XWPFDocument(new ByteArrayInputStream(contenido));
+    }
+
+    /**
+     * Sustituye los placeholders globales en una copia de la plantilla, visitando únicamente
+     * los párrafos registrados durante la compilación.
+     * @param copia Documento obtenido con {@link #nuevaCopia()}.
+     * @param datos Mapa de datos con placeholders y sus valores.
+     */
+    public void aplicarGlobales(XWPFDocument copia, Map<String, String> datos) {
+        List<IBody> partes = RecorridoDocx.partes(copia);
+        Metricas.contarParrafos(parrafosConPlaceholders.size());
+        for (UbicacionXml ubicacion : parrafosConPlaceholders) {
+            IBody parte = partes.get(ubicacion.getParte());
+            CTP ctp = (CTP) ubicacion.resolver(RecorridoDocx.raiz(parte));
+            DocxGenerador.replaceTextInParagraph(new XWPFParagraph(ctp, parte), datos);
+        }
+    }
+
+    /**
+     * Expande todos los bloques de una copia de la plantilla usando el índice de marcadores
+     * construido al compilar: cada parte se recorre una sola vez, sea cual sea el número de bloques.
+     * @param copia   Documento obtenido con {@link #nuevaCopia()}, con los globales ya sustituidos.
+     * @param bloques Map con los bloques a duplicar y sus datos.
+     */
+    public void expandirBloques(XWPFDocument copia, Map<String, ? extends Iterable<? extends Map<String, String>>> bloques) {
+        List<IBody> partes = RecorridoDocx.partes(copia);
+        for (int i = 0; i < partes.size(); i++) {
+            this.bloques.get(i).expandir(RecorridoDocx.raiz(partes.get(i)), bloques);
+        }
+    }
+
+    /**
+     * @return {@code true} si la plantilla contiene algún placeholder de imagen ({@code {{img:nombre}}}).
+     */
+    public boolean tieneImagenes() {
+        return conImagenes;
+    }
+
+    /**
+     * Incrusta las imágenes de los placeholders {@code {{img:nombre}}} de una copia de la plantilla, una vez
+     * sustituidos los globales y expandidos los bloques. Cada imagen se añade al documento una sola vez por
+     * parte, aunque aparezca en todas las copias de un bloque.
+     * @param copia Documento obtenido con {@link #nuevaCopia()}.
+     * @throws IOException Si alguna imagen no se puede leer.
+     */
+    public void incrustarImagenes(XWPFDocument copia) throws IOException {
+        if (conImagenes) {
+            IncrustadorImagenes.incrustar(copia);
+        }
+    }
+
+    /**
+     * Devuelve los identificadores de todos los bloques de la plantilla.
+     * @return Conjunto de identificadores.
+     */
+    public Set<String> getBlockIds() {
+        Set<String> ids = new HashSet<>();
+        for (IndiceBloques indice : bloques) {
+            ids.addAll(indice.getBlockIds());
+        }
+        return ids;
+    }
+}
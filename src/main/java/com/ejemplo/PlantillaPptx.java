@@ -0,0 +1,269 @@
+package com.ejemplo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.*;
+
+import javax.xml.namespace.QName;
+
+import org.apache.poi.xslf.usermodel.XMLSlideShow;
+import org.apache.poi.xslf.usermodel.XSLFNotes;
+import org.apache.poi.xslf.usermodel.XSLFShape;
+import org.apache.poi.xslf.usermodel.XSLFSheet;
+import org.apache.poi.xslf.usermodel.XSLFSlide;
+import org.apache.poi.xslf.usermodel.XSLFTextParagraph;
+import org.apache.poi.xslf.usermodel.XSLFTextShape;
+import org.openxmlformats.schemas.drawingml.x2006.main.CTTextParagraph;
+
+/**
+ * Plantilla PPTX compilada: se analiza una sola vez, se normalizan los runs de los párrafos con
+ * placeholders y se registra la posición de cada párrafo con placeholders y un índice de los bloques
+ * delimitados por marcadores de cada diapositiva y de sus notas, incluidos los que están dentro de formas
+ * agrupadas y de tablas (ver {@link RecorridoPptx}). Cada renderizado trabaja sobre una copia obtenida con {@link #nuevaCopia()}.
+ * <p>
+ * Una diapositiva con un cuadro de texto cuyo único texto es un marcador, por ejemplo {@code ---incidencia---},
+ * es un bloque de diapositiva: se duplica entera por cada fila del bloque, en su sitio, y el cuadro del
+ * marcador no aparece en el resultado. Los bloques de la diapositiva se expanden en cada copia con las
+ * claves anidadas ({@code "incidencia[0].tarea"}), y las copias comparten las imágenes de la original
+ * (ver {@link DuplicadorDiapositivas}).
+ */
+public final class PlantillaPptx {
+
+    private static final CachePlantillas<PlantillaPptx> CACHE = new CachePlantillas<>(8, PlantillaPptx::compilar,
+            ManifiestoPlantillas.persistencia("PPTX", PlantillaPptx::escribir, PlantillaPptx::leer));
+
+    private static final QName TEXTO = new QName(TextoXml.NS_A, "t");
+
+    private final byte[] contenido;
+    private final List<UbicacionXml> parrafosConPlaceholders;
+    private final List<IndiceBloques> bloques;
+    private final boolean conImagenes;
+    /** Bloque de cada diapositiva que se duplica entera, por posición de la diapositiva. */
+    private final Map<Integer, String> diapositivasBloque;
+
+    private PlantillaPptx(byte[] contenido, List<UbicacionXml> parrafosConPlaceholders, List<IndiceBloques> bloques,
+                          boolean conImagenes, Map<Integer, String> diapositivasBloque) {
+        this.contenido = contenido;
+        this.parrafosConPlaceholders = parrafosConPlaceholders;
+        this.bloques = bloques;
+        this.conImagenes = conImagenes;
+        this.diapositivasBloque = diapositivasBloque;
+    }
+
+    /**
+     * Devuelve la plantilla compilada de la ruta indicada, usando la caché compartida.
+     * @param path Ruta del archivo plantilla PPTX.
+     * @return La plantilla compilada.
+     * @throws IOException Si ocurre un error al leer o compilar la plantilla.
+     */
+    public static PlantillaPptx cargar(String path) throws IOException {
+        return CACHE.obtener(path);
+    }
+
+    /**
+     * Compila el contenido de una plantilla PPTX.
+     * @param contenido Bytes del archivo PPTX.
+     * @return La plantilla compilada.
+     * @throws IOException Si el contenido no es un PPTX válido.
+     */
+    @SuppressWarnings("try")
+    public static PlantillaPptx compilar(byte[] contenido) throws IOException {
+        try (XMLSlideShow ppt = new XMLSlideShow(new ByteArrayInputStream(contenido))) {
+            List<UbicacionXml> ubicaciones = new ArrayList<>();
+            List<IndiceBloques> bloques;
+            boolean[] conImagenes = new boolean[1];
+            Map<Integer, String> diapositivasBloque;
+            try (MetricasInforme.Cronometro ignorado = Metricas.medir(FaseInforme.NORMALIZACION)) {
+                // Antes del recorrido, porque quitar el cuadro del marcador cambia las rutas de sus hermanos.
+                diapositivasBloque = marcarDiapositivasBloque(ppt);
+                // Una sola pasada por diapositiva y por notas: párrafos de formas, grupos y tablas, y marcadores de bloque.
+                bloques = RecorridoPptx.recorrer(ppt, (parte, parrafo, forma, ruta) -> {
+                    String texto = TextoXml.texto(parrafo, TEXTO);
+                    if (!MotorSustitucion.contienePlaceholder(texto)) return;
+                    conImagenes[0] |= MotorSustitucion.contienePlaceholderImagen(texto);
+                    if (forma != null) {
+                        PptxGenerador.mergeRunsWithSameStyle(forma);
+                    }
+                    ubicaciones.add(new UbicacionXml(parte, ruta));
+                });
+            }
+
+            ByteArrayOutputStream normalizado = new ByteArrayOutputStream(contenido.length);
+            ppt.write(normalizado);
+            return new PlantillaPptx(normalizado.toByteArray(), ubicaciones, bloques, conImagenes[0], diapositivasBloque);
+        }
+    }
+
+    /**
+     * Busca las diapositivas marcadas como bloque y quita de ellas el cuadro de texto del marcador.
+     * @return Identificador del bloque de cada diapositiva marcada, por posición.
+     */
+    private static Map<Integer, String> marcarDiapositivasBloque(XMLSlideShow ppt) {
+        Map<Integer, String> marcadas = new TreeMap<>();
+        List<XSLFSlide> slides = ppt.getSlides();
+        for (int s = 0; s < slides.size(); s++) {
+            for (XSLFShape shape : slides.get(s).getShapes()) {
+                if (!(shape instanceof XSLFTextShape)) continue;
+                String blockId = marcadorDiapositiva((XSLFTextShape) shape);
+                if (blockId != null && !blockId.isEmpty()) {
+                    slides.get(s).removeShape(shape);
+                    marcadas.put(s, blockId);
+                    break;
+                }
+            }
+        }
+        return marcadas;
+    }
+
+    /**
+     * @return El identificador del marcador si es el único párrafo con texto de la forma, o {@code null} si no.
+     */
+    private static String marcadorDiapositiva(XSLFTextShape shape) {
+        String blockId = null;
+        for (XSLFTextParagraph parrafo : shape.getTextParagraphs()) {
+            String texto = parrafo.getText();
+            if (texto.isBlank()) continue;
+            if (blockId != null) return null;
+            blockId = Marcadores.idDe(texto);
+            if (blockId == null) return null;
+        }
+        return blockId;
+    }
+
+    /**
+     * Escribe la plantilla compilada en su manifiesto (ver {@link ManifiestoPlantillas}).
+     */
+    private void escribir(DataOutput out) throws IOException {
+        ManifiestoPlantillas.escribirBytes(out, contenido);
+        ManifiestoPlantillas.escribirUbicaciones(out, parrafosConPlaceholders);
+        ManifiestoPlantillas.escribirIndices(out, bloques);
+        out.writeBoolean(conImagenes);
+        out.writeInt(diapositivasBloque.size());
+        for (Map.Entry<Integer, String> marcada : diapositivasBloque.entrySet()) {
+            out.writeInt(marcada.getKey());
+            out.writeUTF(marcada.getValue());
+        }
+    }
+
+    private static PlantillaPptx leer(DataInput in) throws IOException {
+        byte[] contenido = ManifiestoPlantillas.leerBytes(in);
+        List<UbicacionXml> ubicaciones = ManifiestoPlantillas.leerUbicaciones(in);
+        List<IndiceBloques> bloques = ManifiestoPlantillas.leerIndices(in);
+        boolean conImagenes = in.readBoolean();
+        int n = in.readInt();
+        Map<Integer, String> diapositivasBloque = new TreeMap<>();
+        for (int i = 0; i < n; i++) {
+            diapositivasBloque.put(in.readInt(), in.readUTF());
+        }
+        return new PlantillaPptx(contenido, ubicaciones, bloques, conImagenes, diapositivasBloque);
+    }
+
+    /**
+     * Crea una copia independiente de la plantilla lista para ser renderizada.
+     * @return Una nueva XMLSlideShow con el contenido normalizado de la plantilla.
+     * @throws IOException Si ocurre un error al abrir la copia.
+     */
+    public XMLSlideShow nuevaCopia() throws IOException {
+        return new XMLSlideShow(new ByteArrayInputStream(contenido));
+    }
+
+    /**
+     * Sustituye los placeholders globales en una copia de la plantilla, visitando únicamente
+     * los párrafos registrados durante la compilación.
+     * @param copia Presentación obtenida con {@link #nuevaCopia()}.
+     * @param datos Mapa de datos con placeholders y sus valores.
+     */
+    public void aplicarGlobales(XMLSlideShow copia, Map<String, String> datos) {
+        List<XSLFSheet> partes = RecorridoPptx.partes(copia);
+        Metricas.contarParrafos(parrafosConPlaceholders.size());
+        for (UbicacionXml ubicacion : parrafosConPlaceholders) {
+            XSLFSheet parte = partes.get(ubicacion.getParte());
+            PptxGenerador.replaceTextInParagraph((CTTextParagraph) ubicacion.resolver(parte.getXmlObject()), datos);
+        }
+    }
+
+    /**
+     * Expande todos los bloques de una copia de la plantilla usando el índice de marcadores
+     * construido al compilar. Los duplicados se insertan en el lugar del bloque; las diapositivas
+     * de bloque se duplican enteras. Un bloque de diapositiva sin datos deja la diapositiva tal cual.
+     * @param copia   Presentación obtenida con {@link #nuevaCopia()}, con los globales ya sustituidos.
+     * @param bloques Map con los bloques a duplicar y sus datos.
+     */
+    public void expandirBloques(XMLSlideShow copia, Map<String, ? extends Iterable<? extends Map<String, String>>> bloques) {
+        List<XSLFSheet> partes = RecorridoPptx.partes(copia);
+        List<XSLFSlide> slides = copia.getSlides();
+        // Las diapositivas de bloque con datos se expanden al duplicarlas; el resto, en su sitio.
+        NavigableMap<Integer, Iterable<? extends Map<String, String>>> duplicadas = new TreeMap<>();
+        Set<XSLFSheet> omitidas = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Map.Entry<Integer, String> marcada : diapositivasBloque.entrySet()) {
+            Iterable<? extends Map<String, String>> filas = bloques.get(marcada.getValue());
+            if (filas == null) continue;
+            XSLFSlide slide = slides.get(marcada.getKey());
+            duplicadas.put(marcada.getKey(), filas);
+            omitidas.add(slide);
+            if (slide.getNotes() != null) {
+                omitidas.add(slide.getNotes());
+            }
+        }
+        for (int p = 0; p < partes.size(); p++) {
+            if (!omitidas.contains(partes.get(p))) {
+                this.bloques.get(p).expandir(partes.get(p).getXmlObject(), bloques);
+            }
+        }
+        // De la última a la primera, para que las posiciones de las pendientes no cambien.
+        for (Map.Entry<Integer, Iterable<? extends Map<String, String>>> duplicada : duplicadas.descendingMap().entrySet()) {
+            int s = duplicada.getKey();
+            XSLFNotes notas = slides.get(s).getNotes();
+            duplicarDiapositiva(copia, s, notas == null ? -1 : partes.indexOf(notas), duplicada.getValue(), bloques);
+        }
+    }
+
+    /**
+     * Sustituye la diapositiva de bloque por una copia por fila, con los datos de la fila y sus bloques expandidos.
+     */
+    private void duplicarDiapositiva(XMLSlideShow copia, int s, int parteNotas, Iterable<? extends Map<String, String>> filas,
+                                     Map<String, ? extends Iterable<? extends Map<String, String>>> bloques) {
+        XSLFSlide original = copia.getSlides().get(s);
+        String blockId = diapositivasBloque.get(s);
+        int i = 0;
+        for (Map<String, String> fila : filas) {
+            XSLFSlide duplicado = DuplicadorDiapositivas.duplicar(copia, original, s + 1 + i);
+            this.bloques.get(s).expandir(duplicado.getXmlObject(), bloques, blockId, i, fila);
+            TextoXml.sustituir(duplicado.getXmlObject(), TEXTO, fila);
+            if (parteNotas >= 0) {
+                XSLFNotes notas = duplicado.getNotes();
+                this.bloques.get(parteNotas).expandir(notas.getXmlObject(), bloques, blockId, i, fila);
+                TextoXml.sustituir(notas.getXmlObject(), TEXTO, fila);
+            }
+            i++;
+        }
+        Metricas.contarBloques(i);
+        // removeSlide no quita las notas de la diapositiva, que quedarían huérfanas en el paquete.
+        if (original.getNotes() != null) {
+            original.removeNotes(copia.getNotesMaster());
+        }
+        copia.removeSlide(s);
+    }
+
+    /**
+     * @return {@code true} si la plantilla contiene algún placeholder de imagen ({@code {{img:nombre}}}).
+     */
+    public boolean tieneImagenes() {
+        return conImagenes;
+    }
+
+    /**
+     * Sustituye por su imagen cada cuadro de texto cuyo único texto es un placeholder {@code {{img:nombre}}},
+     * ajustándola al cuadro. Cada imagen se añade a la presentación una sola vez, aunque aparezca en varias diapositivas.
+     * @param copia Presentación obtenida con {@link #nuevaCopia()}, con los globales ya sustituidos.
+     * @throws IOException Si alguna imagen no se puede leer.
+     */
+    public void incrustarImagenes(XMLSlideShow copia) throws IOException {
+        if (conImagenes) {
+            IncrustadorImagenes.incrustar(copia);
+        }
+    }
+}
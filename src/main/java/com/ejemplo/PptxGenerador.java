@@ -1,13 +1,21 @@
 package com.ejemplo;
 
-import java.io.FileInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.*;
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
 import org.apache.poi.xslf.usermodel.*;
+import org.apache.poi.sl.draw.DrawPaint;
 import org.apache.poi.sl.usermodel.PaintStyle;
 import org.openxmlformats.schemas.drawingml.x2006.main.*;
-import org.openxmlformats.schemas.presentationml.x2006.main.CTShape;
 
 public class PptxGenerador {
 
@@ -25,175 +33,269 @@ public class PptxGenerador {
      */
     public void generar(String plantillaPath, String salidaPathPattern,
                         Map<String, String> datosGlobales,
-                        Map<String, List<Map<String, String>>> duplicableBlocks) {
+                        Map<String, ? extends Iterable<? extends Map<String, String>>> duplicableBlocks) {
         try {
-            XMLSlideShow ppt = readPptx(plantillaPath);
-            processPptx(ppt, datosGlobales);
-            // Procesar cada bloque duplicable
-            for (Map.Entry<String, List<Map<String, String>>> entry : duplicableBlocks.entrySet()) {
-                String blockId = entry.getKey();
-                List<Map<String, String>> listData = entry.getValue();
-                duplicateBlockUsingCT(ppt, blockId, listData);
-            }
-            String salidaPathFinal = buildOutputPath(salidaPathPattern, datosGlobales);
-            writePptx(ppt, salidaPathFinal);
-            System.out.println("PPTX generado correctamente: " + salidaPathFinal);
+            generarPptx(plantillaPath, salidaPathPattern, datosGlobales, duplicableBlocks);
         } catch (IOException e) {
-            e.printStackTrace();
+            Metricas.getOyente().error(salidaPathPattern, e);
         }
     }
 
-    private XMLSlideShow readPptx(String path) throws IOException {
-        try (FileInputStream fis = new FileInputStream(path)) {
-            return new XMLSlideShow(fis);
-        }
+    /**
+     * Genera la presentación y propaga los errores al llamante en lugar de imprimirlos,
+     * para que quien la invoque (por ejemplo, {@link LoteInformes}) pueda aislarlos.
+     * Si hay una {@link CacheSalidas} activa y los datos no han cambiado, copia la presentación guardada.
+     *
+     * @param plantillaPath Ruta de la plantilla PPTX.
+     * @param salidaPathPattern Patrón de ruta para el archivo de salida.
+     * @param datosGlobales Mapa con los placeholders globales.
+     * @param duplicableBlocks Mapa con los bloques duplicables y sus datos (listas o {@link FuenteFilas}).
+     * @return La ruta final de la presentación generada.
+     * @throws IOException Si ocurre un error de lectura o escritura.
+     */
+    public String generarPptx(String plantillaPath, String salidaPathPattern,
+                              Map<String, String> datosGlobales,
+                              Map<String, ? extends Iterable<? extends Map<String, String>>> duplicableBlocks) throws IOException {
+        String salidaPathFinal = buildOutputPath(salidaPathPattern, datosGlobales);
+        CacheSalidas.generar("PPTX", plantillaPath, datosGlobales, duplicableBlocks, salidaPathFinal,
+                () -> generar(plantillaPath, datosGlobales, duplicableBlocks, salidaPathFinal,
+                        () -> new BufferedOutputStream(new FileOutputStream(salidaPathFinal))));
+        return salidaPathFinal;
     }
 
-    private void writePptx(XMLSlideShow ppt, String path) throws IOException {
-        try (FileOutputStream fos = new FileOutputStream(path)) {
-            ppt.write(fos);
-        }
+    /**
+     * Genera la presentación y la escribe en un flujo, sin pasar por un archivo temporal.
+     * El flujo no se cierra.
+     *
+     * @param plantillaPath Ruta de la plantilla PPTX.
+     * @param datosGlobales Mapa con los placeholders globales.
+     * @param duplicableBlocks Mapa con los bloques duplicables y sus datos.
+     * @param salida Flujo donde se escribe la presentación generada.
+     * @throws IOException Si ocurre un error de lectura o escritura.
+     */
+    public void generarPptx(String plantillaPath, Map<String, String> datosGlobales,
+                            Map<String, ? extends Iterable<? extends Map<String, String>>> duplicableBlocks,
+                            OutputStream salida) throws IOException {
+        generar(plantillaPath, datosGlobales, duplicableBlocks, "flujo de salida", () -> Flujos.noCerrar(salida));
+    }
+
+    /**
+     * Genera la presentación y la escribe en un canal. El canal no se cierra.
+     *
+     * @param plantillaPath Ruta de la plantilla PPTX.
+     * @param datosGlobales Mapa con los placeholders globales.
+     * @param duplicableBlocks Mapa con los bloques duplicables y sus datos.
+     * @param salida Canal donde se escribe la presentación generada.
+     * @throws IOException Si ocurre un error de lectura o escritura.
+     */
+    public void generarPptx(String plantillaPath, Map<String, String> datosGlobales,
+                            Map<String, ? extends Iterable<? extends Map<String, String>>> duplicableBlocks,
+                            WritableByteChannel salida) throws IOException {
+        generar(plantillaPath, datosGlobales, duplicableBlocks, "canal de salida", () -> Flujos.salida(salida));
     }
 
-    private void processPptx(XMLSlideShow ppt, Map<String, String> datos) {
-        // Procesa placeholders en toda la presentación
-        for (XSLFSlide slide : ppt.getSlides()) {
-            for (XSLFShape shape : slide.getShapes()) {
-                if (shape instanceof XSLFTextShape) {
-                    XSLFTextShape textShape = (XSLFTextShape) shape;
-                    for (XSLFTextParagraph para : textShape.getTextParagraphs()) {
-                        mergeRunsWithSameStyle(para);
-                        for (XSLFTextRun run : para.getTextRuns()) {
-                            String text = run.getRawText();
-                            if (text == null || "\n".equals(text)) continue;
-                            for (Map.Entry<String, String> entry : datos.entrySet()) {
-                                if (text.contains(entry.getKey())) {
-                                    text = text.replace(entry.getKey(), entry.getValue());
-                                }
-                            }
-                            run.setText(text);
-                        }
-                    }
+    @SuppressWarnings("try")
+    private void generar(String plantillaPath, Map<String, String> datosGlobales,
+                         Map<String, ? extends Iterable<? extends Map<String, String>>> duplicableBlocks,
+                         String nombreSalida, Flujos.Destino destino) throws IOException {
+        MetricasInforme metricas = Metricas.iniciar("PPTX");
+        try {
+            // La plantilla se analiza una sola vez y cada llamada trabaja sobre una copia
+            PlantillaPptx plantilla;
+            XMLSlideShow ppt;
+            try (MetricasInforme.Cronometro ignorado = metricas.medir(FaseInforme.LECTURA)) {
+                plantilla = PlantillaPptx.cargar(plantillaPath);
+                ppt = plantilla.nuevaCopia();
+            }
+            try (ppt) {
+                try (MetricasInforme.Cronometro ignorado = metricas.medir(FaseInforme.SUSTITUCION)) {
+                    plantilla.aplicarGlobales(ppt, datosGlobales);
                 }
+                // Expandir todos los bloques (incluidos los anidados) en su sitio, en un solo recorrido por diapositiva
+                try (MetricasInforme.Cronometro ignorado = metricas.medir(FaseInforme.BLOQUES)) {
+                    plantilla.expandirBloques(ppt, duplicableBlocks);
+                }
+                try (MetricasInforme.Cronometro ignorado = metricas.medir(FaseInforme.IMAGENES)) {
+                    plantilla.incrustarImagenes(ppt);
+                }
+                // La presentación ya está generada: solo ahora se abre el destino
+                Flujos.Contador contador;
+                try (MetricasInforme.Cronometro ignorado = metricas.medir(FaseInforme.ESCRITURA);
+                     Flujos.Contador salida = new Flujos.Contador(destino.abrir())) {
+                    contador = salida;
+                    writePptx(ppt, salida);
+                }
+                Metricas.terminar(metricas, nombreSalida, contador.getBytes());
             }
+        } finally {
+            Metricas.descartar();
         }
     }
 
     /**
-     * Duplicar bloques de párrafos delimitados por marcadores (por ejemplo, "---incidencia---")
-     * utilizando los objetos XML (CTTextBody y CTTextParagraph) para preservar el formato.
+     * Abre un PPTX en modo solo lectura directamente desde el sistema de archivos, sin copiar el ZIP
+     * completo en memoria. La presentación no puede guardarse: para modificarla y escribirla use
+     * {@link #readPptx(InputStream)}.
      *
-     * @param ppt Presentación a procesar.
-     * @param blockId Identificador del bloque (por ejemplo, "incidencia").
-     * @param listData Lista de mapas con los datos para cada duplicado.
+     * @param file Archivo PPTX.
+     * @return La presentación abierta en solo lectura; debe cerrarse para liberar el archivo.
+     * @throws IOException Si ocurre un error al leer el archivo.
      */
-    private void duplicateBlockUsingCT(XMLSlideShow ppt, String blockId, List<Map<String, String>> listData) {
-        String markerText = (blockId != null && !blockId.isEmpty()) ? "---" + blockId + "---" : "---";
-        // Iterar sobre todas las diapositivas y sus formas de texto
-        for (XSLFSlide slide : ppt.getSlides()) {
-            for (XSLFShape shape : slide.getShapes()) {
-                if (!(shape instanceof XSLFTextShape)) continue;
-                XSLFTextShape textShape = (XSLFTextShape) shape;
-                // Trabajar directamente con el objeto CTTextBody
-                CTShape ctShape = (CTShape) textShape.getXmlObject();
-                CTTextBody txBody = ctShape.getTxBody();
-                // Hacer una copia de la lista de párrafos existentes
-                List<CTTextParagraph> pList = new ArrayList<>(txBody.getPList());
-                // Buscar índices de los párrafos que sean marcadores
-                List<Integer> markerIndices = new ArrayList<>();
-                for (int i = 0; i < pList.size(); i++) {
-                    StringBuilder sb = new StringBuilder();
-                    for (CTRegularTextRun run : pList.get(i).getRList()) {
-                        sb.append(run.getT());
-                    }
-                    if (sb.toString().trim().equals(markerText)) {
-                        markerIndices.add(i);
-                    }
-                }
-                if (markerIndices.size() < 2) {
-                    continue; // No se encontró el bloque en esta forma
-                }
-                int startMarkerIndex = markerIndices.get(0);
-                int endMarkerIndex = markerIndices.get(1);
-                // Clonar los párrafos entre los marcadores (sin incluir los marcadores)
-                List<CTTextParagraph> blockParagraphs = new ArrayList<>();
-                for (int i = startMarkerIndex + 1; i < endMarkerIndex; i++) {
-                    blockParagraphs.add((CTTextParagraph) pList.get(i).copy());
-                }
-                // Eliminar los párrafos desde el marcador de inicio hasta el de fin (inclusive)
-                for (int i = endMarkerIndex; i >= startMarkerIndex; i--) {
-                    txBody.removeP(i);
-                }
-                // Por cada conjunto de datos, insertar una copia del bloque clonada y sustituir los placeholders
-                for (Map<String, String> mapData : listData) {
-                    for (CTTextParagraph ctPara : blockParagraphs) {
-                        CTTextParagraph newPara = txBody.addNewP();
-                        newPara.set(ctPara);
-                        // Recorrer cada run para realizar la sustitución
-                        for (CTRegularTextRun run : newPara.getRList()) {
-                            String text = run.getT();
-                            for (Map.Entry<String, String> entry : mapData.entrySet()) {
-                                if (text.contains(entry.getKey())) {
-                                    text = text.replace(entry.getKey(), entry.getValue());
-                                }
-                            }
-                            run.setT(text);
-                        }
-                    }
-                }
+    public XMLSlideShow readPptx(File file) throws IOException {
+        OPCPackage paquete;
+        try {
+            paquete = OPCPackage.open(file, PackageAccess.READ);
+        } catch (InvalidFormatException e) {
+            throw new IOException("El archivo no es un PPTX válido: " + file, e);
+        }
+        try {
+            return new XMLSlideShow(paquete);
+        } catch (RuntimeException e) {
+            paquete.revert();
+            throw e;
+        }
+    }
+
+    /**
+     * Lee un PPTX desde un flujo. El flujo no se cierra.
+     *
+     * @param in Flujo con el contenido del PPTX.
+     * @return La presentación leída.
+     * @throws IOException Si ocurre un error al leer el flujo.
+     */
+    public XMLSlideShow readPptx(InputStream in) throws IOException {
+        return new XMLSlideShow(Flujos.noCerrar(in));
+    }
+
+    /**
+     * Lee un PPTX desde un buffer en memoria. La posición del buffer no se modifica.
+     *
+     * @param contenido Buffer con el contenido del PPTX.
+     * @return La presentación leída.
+     * @throws IOException Si el contenido no es un PPTX válido.
+     */
+    public XMLSlideShow readPptx(ByteBuffer contenido) throws IOException {
+        return new XMLSlideShow(Flujos.entrada(contenido));
+    }
+
+    /**
+     * Escribe una presentación en un flujo. El flujo no se cierra.
+     *
+     * @param ppt Presentación a guardar.
+     * @param out Flujo de destino.
+     * @throws IOException Si ocurre un error al escribir.
+     */
+    public void writePptx(XMLSlideShow ppt, OutputStream out) throws IOException {
+        EmpaquetadoZip.escribir(ppt, out);
+    }
+
+    /**
+     * Escribe una presentación en un canal. El canal no se cierra.
+     *
+     * @param ppt Presentación a guardar.
+     * @param canal Canal de destino.
+     * @throws IOException Si ocurre un error al escribir.
+     */
+    public void writePptx(XMLSlideShow ppt, WritableByteChannel canal) throws IOException {
+        try (OutputStream out = Flujos.salida(canal)) {
+            EmpaquetadoZip.escribir(ppt, out);
+        }
+    }
+
+    /**
+     * Reemplaza los placeholders de un párrafo trabajando directamente sobre sus runs XML,
+     * con una sola pasada por run mediante {@link MotorSustitucion}.
+     *
+     * @param para Párrafo (CTTextParagraph) a procesar.
+     * @param datos Mapa que contiene los placeholders y sus valores de reemplazo.
+     */
+    static void replaceTextInParagraph(CTTextParagraph para, Map<String, String> datos) {
+        for (CTRegularTextRun run : para.getRList()) {
+            String text = run.getT();
+            String sustituido = MotorSustitucion.sustituir(text, datos);
+            if (sustituido != text) {
+                run.setT(sustituido);
             }
         }
     }
 
-    private void mergeRunsWithSameStyle(XSLFTextParagraph paragraph) {
+    /**
+     * Fusiona los runs contiguos con el mismo estilo, pero solo aquellos por los que pasa un
+     * placeholder partido; el estilo de cada run se calcula como mucho una vez.
+     *
+     * @param paragraph Párrafo cuyos runs se desean fusionar.
+     */
+    static void mergeRunsWithSameStyle(XSLFTextParagraph paragraph) {
         List<XSLFTextRun> runs = paragraph.getTextRuns();
         if (runs.size() < 2) return;
-        int i = 0;
-        while (i < runs.size() - 1) {
-            XSLFTextRun current = runs.get(i);
-            XSLFTextRun next = runs.get(i + 1);
-            if (haveSameStyle(current, next)) {
-                String combinedText = safeGetText(current) + safeGetText(next);
-                current.setText(combinedText);
-                paragraph.removeTextRun(next);
-                runs = paragraph.getTextRuns();
-            } else {
-                i++;
+        String[] textos = new String[runs.size()];
+        for (int i = 0; i < textos.length; i++) {
+            textos[i] = safeGetText(runs.get(i));
+        }
+        List<int[]> tramos = MotorSustitucion.placeholdersPartidos(textos);
+        if (tramos.isEmpty()) return;
+
+        List<?>[] estilos = new List<?>[textos.length];
+        int fusionados = 0;
+        // De atrás hacia delante, para que los índices de los tramos pendientes sigan siendo válidos.
+        for (int t = tramos.size() - 1; t >= 0; t--) {
+            int[] tramo = tramos.get(t);
+            for (int i = tramo[1]; i > tramo[0]; i--) {
+                if (estilo(runs, i, estilos).equals(estilo(runs, i - 1, estilos))) {
+                    textos[i - 1] = textos[i - 1] + textos[i];
+                    runs.get(i - 1).setText(textos[i - 1]);
+                    paragraph.removeTextRun(runs.get(i));
+                    runs = paragraph.getTextRuns();
+                    fusionados++;
+                }
             }
         }
+        Metricas.contarRunsFusionados(fusionados);
     }
 
-    private boolean haveSameStyle(XSLFTextRun r1, XSLFTextRun r2) {
-        if (r1.isBold() != r2.isBold()) return false;
-        if (r1.isItalic() != r2.isItalic()) return false;
-        String f1 = r1.getFontFamily();
-        String f2 = r2.getFontFamily();
-        if (f1 != null ? !f1.equals(f2) : f2 != null) return false;
-        if (Double.compare(r1.getFontSize(), r2.getFontSize()) != 0) return false;
-        PaintStyle color1 = r1.getFontColor();
-        PaintStyle color2 = r2.getFontColor();
-        if (color1 != null ? !color1.equals(color2) : color2 != null) return false;
-        return true;
+    /**
+     * Devuelve la huella de estilo de un run (negrita, cursiva, fuente, tamaño y color),
+     * calculándola solo la primera vez que se pide.
+     */
+    private static List<?> estilo(List<XSLFTextRun> runs, int indice, List<?>[] estilos) {
+        if (estilos[indice] == null) {
+            XSLFTextRun run = runs.get(indice);
+            estilos[indice] = Arrays.asList(run.isBold(), run.isItalic(), run.getFontFamily(),
+                    run.getFontSize(), color(run));
+        }
+        return estilos[indice];
     }
 
-    private String safeGetText(XSLFTextRun run) {
+    /**
+     * Color del run comparable con {@code equals}: los PaintStyle de POI se crean en cada llamada
+     * y no definen igualdad, así que los colores sólidos se reducen a su {@link java.awt.Color}.
+     */
+    private static Object color(XSLFTextRun run) {
+        PaintStyle color = run.getFontColor();
+        if (color instanceof PaintStyle.SolidPaint) {
+            return DrawPaint.applyColorTransform(((PaintStyle.SolidPaint) color).getSolidColor());
+        }
+        return color;
+    }
+
+    private static String safeGetText(XSLFTextRun run) {
         String text = run.getRawText();
         return text == null ? "" : text;
     }
 
     private String buildOutputPath(String pathPattern, Map<String, String> datos) {
-        String outputPath = pathPattern;
-        for (Map.Entry<String, String> entry : datos.entrySet()) {
-            outputPath = outputPath.replace(entry.getKey(), entry.getValue());
-        }
-        return outputPath;
+        return MotorSustitucion.sustituir(pathPattern, datos);
     }
 
     /**
      * Método main de ejemplo. Aquí se crean los datos de prueba y se llama al método
-     * generar pasándole todos los parámetros.
+     * generar pasándole todos los parámetros. Con argumentos, se comporta como {@link InformesCli}.
      */
     public static void main(String[] args) {
+        if (args.length > 0) {
+            InformesCli.main(args);
+            return;
+        }
         // Rutas
         String plantillaPath = "C:\\Users\\carlos.mari\\OneDrive - Avvale S.p.A\\Documentos\\Informes Automatizados\\Plantilla.pptx";
         String salidaPathPattern = "C:\\Users\\carlos.mari\\OneDrive - Avvale S.p.A\\Documentos\\Informes Automatizados\\01 Resumen ejecutivo {{month}}_{{year}}_Avvale.pptx";
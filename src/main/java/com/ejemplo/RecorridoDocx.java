@@ -0,0 +1,86 @@
+package com.ejemplo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.poi.xwpf.usermodel.IBody;
+import org.apache.poi.xwpf.usermodel.XWPFAbstractFootnoteEndnote;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFHeaderFooter;
+import org.apache.xmlbeans.XmlObject;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTP;
+
+/**
+ * Recorrido único de todas las partes con texto de un documento DOCX: cuerpo, cabeceras, pies,
+ * notas al pie y notas al final. En cada parte se visita cada párrafo exactamente una vez, a
+ * cualquier profundidad (tablas anidadas, controles de contenido, cuadros de texto...), y en la
+ * misma pasada se indexan los marcadores de bloque con {@link IndiceBloques}.
+ */
+final class RecorridoDocx {
+
+    /**
+     * Recibe cada párrafo del documento que no es un marcador de bloque.
+     */
+    @FunctionalInterface
+    interface Visitante {
+        /**
+         * @param parte       Parte que contiene el párrafo.
+         * @param indiceParte Posición de la parte en {@link #partes(XWPFDocument)}.
+         * @param parrafo     Párrafo visitado.
+         * @param ruta        Índices de hijo desde la raíz de la parte hasta el párrafo.
+         */
+        void parrafo(IBody parte, int indiceParte, CTP parrafo, int[] ruta);
+    }
+
+    private RecorridoDocx() {
+    }
+
+    /**
+     * Recorre todas las partes del documento una sola vez.
+     * @param documento Documento a recorrer.
+     * @param visitante Receptor de los párrafos; puede modificar el párrafo que recibe.
+     * @return El índice de bloques de cada parte, en el orden de {@link #partes(XWPFDocument)}.
+     */
+    static List<IndiceBloques> recorrer(XWPFDocument documento, Visitante visitante) {
+        List<IBody> partes = partes(documento);
+        List<IndiceBloques> indices = new ArrayList<>(partes.size());
+        for (int i = 0; i < partes.size(); i++) {
+            IBody parte = partes.get(i);
+            int indiceParte = i;
+            indices.add(IndiceBloques.indexar(raiz(parte), DocxGenerador.NS_W,
+                    (parrafo, ruta) -> visitante.parrafo(parte, indiceParte, (CTP) parrafo, ruta)));
+        }
+        return indices;
+    }
+
+    /**
+     * Enumera las partes con texto del documento en un orden estable: cuerpo, cabeceras, pies,
+     * notas al pie y notas al final.
+     * @param documento Documento.
+     * @return Lista de partes.
+     */
+    static List<IBody> partes(XWPFDocument documento) {
+        List<IBody> partes = new ArrayList<>();
+        partes.add(documento);
+        partes.addAll(documento.getHeaderList());
+        partes.addAll(documento.getFooterList());
+        partes.addAll(documento.getFootnotes());
+        partes.addAll(documento.getEndnotes());
+        return partes;
+    }
+
+    /**
+     * Devuelve el elemento XML raíz de una parte, sobre el que se calculan las rutas de los párrafos.
+     * @param parte Parte devuelta por {@link #partes(XWPFDocument)}.
+     * @return Elemento raíz de la parte.
+     */
+    static XmlObject raiz(IBody parte) {
+        if (parte instanceof XWPFDocument) {
+            return ((XWPFDocument) parte).getDocument();
+        }
+        if (parte instanceof XWPFHeaderFooter) {
+            return ((XWPFHeaderFooter) parte)._getHdrFtr();
+        }
+        return ((XWPFAbstractFootnoteEndnote) parte).getCTFtnEdn();
+    }
+}
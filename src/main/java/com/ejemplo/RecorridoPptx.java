@@ -0,0 +1,108 @@
+package com.ejemplo;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.poi.xslf.usermodel.XMLSlideShow;
+import org.apache.poi.xslf.usermodel.XSLFGroupShape;
+import org.apache.poi.xslf.usermodel.XSLFNotes;
+import org.apache.poi.xslf.usermodel.XSLFShape;
+import org.apache.poi.xslf.usermodel.XSLFSheet;
+import org.apache.poi.xslf.usermodel.XSLFSlide;
+import org.apache.poi.xslf.usermodel.XSLFTable;
+import org.apache.poi.xslf.usermodel.XSLFTableCell;
+import org.apache.poi.xslf.usermodel.XSLFTableRow;
+import org.apache.poi.xslf.usermodel.XSLFTextParagraph;
+import org.apache.poi.xslf.usermodel.XSLFTextShape;
+import org.apache.xmlbeans.XmlObject;
+import org.openxmlformats.schemas.drawingml.x2006.main.CTTextParagraph;
+
+/**
+ * Recorrido único de todas las partes con texto de una presentación PPTX: las diapositivas y, a
+ * continuación, sus notas del orador. En cada parte se visita cada párrafo exactamente una vez, a
+ * cualquier profundidad (formas agrupadas, celdas de tabla...), y en la misma pasada se indexan los
+ * marcadores de bloque con {@link IndiceBloques}.
+ */
+final class RecorridoPptx {
+
+    /**
+     * Recibe cada párrafo de la presentación que no es un marcador de bloque.
+     */
+    @FunctionalInterface
+    interface Visitante {
+        /**
+         * @param indiceParte Posición de la parte en {@link #partes(XMLSlideShow)}.
+         * @param parrafo     Párrafo visitado.
+         * @param forma       Párrafo de POI correspondiente, para consultar el estilo heredado de sus runs;
+         *                    {@code null} si el párrafo no pertenece a una forma de texto conocida.
+         * @param ruta        Índices de hijo desde la raíz de la parte hasta el párrafo.
+         */
+        void parrafo(int indiceParte, CTTextParagraph parrafo, XSLFTextParagraph forma, int[] ruta);
+    }
+
+    private RecorridoPptx() {
+    }
+
+    /**
+     * Recorre todas las partes de la presentación una sola vez.
+     * @param ppt       Presentación a recorrer.
+     * @param visitante Receptor de los párrafos; puede modificar el párrafo que recibe.
+     * @return El índice de bloques de cada parte, en el orden de {@link #partes(XMLSlideShow)}.
+     */
+    static List<IndiceBloques> recorrer(XMLSlideShow ppt, Visitante visitante) {
+        List<XSLFSheet> partes = partes(ppt);
+        List<IndiceBloques> indices = new ArrayList<>(partes.size());
+        for (int i = 0; i < partes.size(); i++) {
+            XSLFSheet parte = partes.get(i);
+            Map<XmlObject, XSLFTextParagraph> parrafos = new IdentityHashMap<>();
+            for (XSLFShape shape : parte.getShapes()) {
+                registrar(shape, parrafos);
+            }
+            int indiceParte = i;
+            indices.add(IndiceBloques.indexar(parte.getXmlObject(), TextoXml.NS_A,
+                    (parrafo, ruta) -> visitante.parrafo(indiceParte, (CTTextParagraph) parrafo, parrafos.get(parrafo), ruta)));
+        }
+        return indices;
+    }
+
+    /**
+     * Enumera las partes con texto de la presentación en un orden estable: todas las diapositivas y
+     * después las notas de las diapositivas que las tienen.
+     * @param ppt Presentación.
+     * @return Lista de partes.
+     */
+    static List<XSLFSheet> partes(XMLSlideShow ppt) {
+        List<XSLFSlide> slides = ppt.getSlides();
+        List<XSLFSheet> partes = new ArrayList<>(slides);
+        for (XSLFSlide slide : slides) {
+            XSLFNotes notas = slide.getNotes();
+            if (notas != null) {
+                partes.add(notas);
+            }
+        }
+        return partes;
+    }
+
+    /**
+     * Asocia el XML de cada párrafo de la forma (y de las formas que contiene) con su párrafo de POI.
+     */
+    private static void registrar(XSLFShape shape, Map<XmlObject, XSLFTextParagraph> parrafos) {
+        if (shape instanceof XSLFTextShape) {
+            for (XSLFTextParagraph parrafo : ((XSLFTextShape) shape).getTextParagraphs()) {
+                parrafos.put(parrafo.getXmlObject(), parrafo);
+            }
+        } else if (shape instanceof XSLFGroupShape) {
+            for (XSLFShape interior : ((XSLFGroupShape) shape).getShapes()) {
+                registrar(interior, parrafos);
+            }
+        } else if (shape instanceof XSLFTable) {
+            for (XSLFTableRow fila : ((XSLFTable) shape).getRows()) {
+                for (XSLFTableCell celda : fila.getCells()) {
+                    registrar(celda, parrafos);
+                }
+            }
+        }
+    }
+}
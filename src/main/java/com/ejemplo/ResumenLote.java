@@ -0,0 +1,108 @@
+package com.ejemplo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Resultado de la ejecución de un lote de informes: archivos generados, fallos y rendimiento.
+ */
+public final class ResumenLote {
+
+    /**
+     * Fallo aislado de un trabajo del lote.
+     */
+    public static final class Fallo {
+        private final String trabajo;
+        private final Exception error;
+
+        Fallo(String trabajo, Exception error) {
+            this.trabajo = trabajo;
+            this.error = error;
+        }
+
+        public String getTrabajo() {
+            return trabajo;
+        }
+
+        public Exception getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return trabajo + ": " + error;
+        }
+    }
+
+    private final List<String> generados;
+    private final List<Fallo> fallos;
+    private final int reutilizados;
+    private final int regenerados;
+    private final long duracionNanos;
+
+    ResumenLote(List<String> generados, List<Fallo> fallos, int reutilizados, int regenerados, long duracionNanos) {
+        this.generados = new ArrayList<>(generados);
+        this.fallos = new ArrayList<>(fallos);
+        this.reutilizados = reutilizados;
+        this.regenerados = regenerados;
+        this.duracionNanos = duracionNanos;
+    }
+
+    /**
+     * @return Rutas de los informes generados correctamente, en el orden de los trabajos.
+     */
+    public List<String> getGenerados() {
+        return Collections.unmodifiableList(generados);
+    }
+
+    /**
+     * @return Trabajos que han fallado junto con su error.
+     */
+    public List<Fallo> getFallos() {
+        return Collections.unmodifiableList(fallos);
+    }
+
+    /**
+     * @return Informes copiados de la {@link CacheSalidas} sin renderizar (aciertos de caché).
+     */
+    public int getReutilizados() {
+        return reutilizados;
+    }
+
+    /**
+     * @return Informes renderizados y guardados en la {@link CacheSalidas} porque sus datos habían cambiado (fallos de caché).
+     */
+    public int getRegenerados() {
+        return regenerados;
+    }
+
+    public int getTotal() {
+        return generados.size() + fallos.size();
+    }
+
+    public long getDuracionMillis() {
+        return duracionNanos / 1_000_000;
+    }
+
+    /**
+     * @return Informes procesados (correctos o fallidos) por segundo de reloj.
+     */
+    public double getInformesPorSegundo() {
+        return duracionNanos == 0 ? 0 : getTotal() * 1_000_000_000.0 / duracionNanos;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Lote completado: %d informes (%d correctos, %d fallidos) en %d ms (%.2f informes/s)",
+                getTotal(), generados.size(), fallos.size(), getDuracionMillis(), getInformesPorSegundo()));
+        if (reutilizados + regenerados > 0) {
+            sb.append(String.format("; caché: %d reutilizados, %d regenerados", reutilizados, regenerados));
+        }
+        for (Fallo fallo : fallos) {
+            sb.append(System.lineSeparator()).append("  - ").append(fallo);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,309 @@
+package com.ejemplo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Servicio HTTP local que genera informes bajo demanda, para que el planificador no tenga que lanzar
+ * una JVM por informe. Las plantillas se compilan al arrancar y quedan en la caché de {@link PlantillaDocx}
+ * y {@link PlantillaPptx}, así que cada petición solo paga la copia, la sustitución y la escritura.
+ * <p>
+ * Rutas:
+ * <ul>
+ *   <li>{@code POST /informes/{nombre}}: genera el informe con la plantilla registrada con ese nombre.
+ *       El cuerpo es un objeto JSON {@code {"globales": {"Client": "Serveo"}, "bloques": {"incidencia": [{"ID": 1}]}}}
+ *       (los nombres pueden escribirse también como placeholder completo, "{{Client}}") y la respuesta
+ *       es el DOCX, PPTX o XLSX generado, que se envía una vez terminado, con su longitud.</li>
+ *   <li>{@code GET /metricas}: peticiones atendidas, errores, rechazos, profundidad de la cola y
+ *       percentiles de latencia (desde que llega la petición hasta que se termina de enviar) en JSON.</li>
+ *   <li>{@code GET /salud}: responde "OK" mientras el servicio está en marcha.</li>
+ * </ul>
+ * Las peticiones se atienden en un pool de hilos acotado con una cola acotada; cuando la cola está llena
+ * se responde 503 para que el cliente reintente en lugar de acumular trabajo sin límite.
+ */
+public class ServicioInformes implements AutoCloseable {
+
+    private static final String TIPO_DOCX = "application/vnd.openxmlformats-officedocument.wordprocessingml.document";
+    private static final String TIPO_PPTX = "application/vnd.openxmlformats-officedocument.presentationml.presentation";
+    private static final String TIPO_XLSX = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+    private static final String PREFIJO_INFORMES = "/informes/";
+
+    /**
+     * Ventana de las últimas latencias registradas, para calcular percentiles recientes.
+     */
+    private static final class Latencias {
+        private final long[] muestras;
+        private int siguiente;
+        private int total;
+
+        private Latencias(int capacidad) {
+            this.muestras = new long[capacidad];
+        }
+
+        private synchronized void registrar(long nanos) {
+            muestras[siguiente] = nanos;
+            siguiente = (siguiente + 1) % muestras.length;
+            if (total < muestras.length) total++;
+        }
+
+        /**
+         * @return Las latencias de la ventana, ordenadas.
+         */
+        private synchronized long[] ordenadas() {
+            long[] copia = Arrays.copyOf(muestras, total);
+            Arrays.sort(copia);
+            return copia;
+        }
+    }
+
+    private final Map<String, String> plantillas;
+    private final HttpServer servidor;
+    private final ThreadPoolExecutor executor;
+    private final Latencias latencias = new Latencias(4096);
+    private final AtomicLong atendidas = new AtomicLong();
+    private final AtomicLong errores = new AtomicLong();
+    private final AtomicLong rechazadas = new AtomicLong();
+
+    /**
+     * Crea el servicio escuchando en la interfaz local, con un hilo por núcleo y una cola de 256 peticiones.
+     * @param puerto     Puerto TCP (0 para elegir uno libre).
+     * @param plantillas Plantillas disponibles: nombre de la ruta ("incidencias") y ruta del archivo .docx, .pptx o .xlsx.
+     * @throws IOException Si no se puede abrir el puerto.
+     */
+    public ServicioInformes(int puerto, Map<String, String> plantillas) throws IOException {
+        this(new InetSocketAddress(InetAddress.getLoopbackAddress(), puerto), plantillas,
+                Runtime.getRuntime().availableProcessors(), 256);
+    }
+
+    /**
+     * Crea el servicio.
+     * @param direccion     Dirección en la que escucha.
+     * @param plantillas    Plantillas disponibles por nombre.
+     * @param hilos         Número de informes que se generan a la vez.
+     * @param capacidadCola Peticiones que pueden esperar turno antes de responder 503.
+     * @throws IOException Si no se puede abrir el puerto.
+     */
+    public ServicioInformes(InetSocketAddress direccion, Map<String, String> plantillas, int hilos, int capacidadCola)
+            throws IOException {
+        this.plantillas = new LinkedHashMap<>(plantillas);
+        this.executor = new ThreadPoolExecutor(hilos, hilos, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(capacidadCola));
+        this.servidor = HttpServer.create(direccion, 0);
+        // El hilo del servidor solo encola: la lectura del cuerpo y la generación se hacen en el pool.
+        servidor.createContext(PREFIJO_INFORMES, this::encolar);
+        servidor.createContext("/metricas", this::metricas);
+        servidor.createContext("/salud", intercambio -> responder(intercambio, 200, "text/plain", "OK"));
+    }
+
+    /**
+     * Compila todas las plantillas y empieza a aceptar peticiones.
+     * @throws IOException Si alguna plantilla no se puede leer o compilar.
+     */
+    public void iniciar() throws IOException {
+        for (String ruta : plantillas.values()) {
+            String extension = extension(ruta);
+            if (extension.equals(".pptx")) PlantillaPptx.cargar(ruta);
+            else if (!extension.equals(".xlsx")) PlantillaDocx.cargar(ruta);
+        }
+        servidor.start();
+    }
+
+    /**
+     * @return El puerto en el que escucha el servicio.
+     */
+    public int getPuerto() {
+        return servidor.getAddress().getPort();
+    }
+
+    /**
+     * Deja de aceptar trabajo (las peticiones nuevas reciben 503), espera a que terminen las que están
+     * en curso o en cola (hasta 30 s) y libera el puerto.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        servidor.stop(0);
+    }
+
+    private void encolar(HttpExchange intercambio) throws IOException {
+        long inicio = System.nanoTime();
+        try {
+            executor.execute(() -> generar(intercambio, inicio));
+        } catch (RejectedExecutionException e) {
+            rechazadas.incrementAndGet();
+            intercambio.getResponseHeaders().set("Retry-After", "1");
+            responder(intercambio, 503, "text/plain", "Servicio saturado, reintente más tarde");
+        }
+    }
+
+    private void generar(HttpExchange intercambio, long inicio) {
+        Path temporal = null;
+        try {
+            if (!"POST".equals(intercambio.getRequestMethod())) {
+                responder(intercambio, 405, "text/plain", "Use POST");
+                return;
+            }
+            String nombre = intercambio.getRequestURI().getPath().substring(PREFIJO_INFORMES.length());
+            String plantilla = plantillas.get(nombre);
+            if (plantilla == null) {
+                responder(intercambio, 404, "text/plain", "Plantilla desconocida: " + nombre);
+                return;
+            }
+
+            Map<String, String> globales;
+            Map<String, List<Map<String, String>>> bloques;
+            try (InputStream cuerpo = intercambio.getRequestBody()) {
+                Map<String, Object> peticion = Json.leerObjeto(new String(cuerpo.readAllBytes(), StandardCharsets.UTF_8));
+                globales = Json.comoFila(peticion.get("globales"), "globales");
+                bloques = Json.comoBloques(peticion.get("bloques"));
+            } catch (IllegalArgumentException e) {
+                errores.incrementAndGet();
+                responder(intercambio, 400, "text/plain", e.getMessage());
+                return;
+            }
+
+            // Se genera en un archivo temporal y solo después se envían las cabeceras, con su longitud:
+            // si la generación falla, el cliente recibe un 500 en lugar de un 200 con el documento truncado.
+            String extension = extension(plantilla);
+            temporal = Files.createTempFile("informe", extension);
+            try (OutputStream salida = Files.newOutputStream(temporal)) {
+                if (extension.equals(".pptx")) {
+                    new PptxGenerador().generarPptx(plantilla, globales, bloques, salida);
+                } else if (extension.equals(".xlsx")) {
+                    XlsxGenerador.generateXlsx(plantilla, globales, bloques, salida);
+                } else {
+                    DocxGenerador.generateDocx(plantilla, globales, bloques, salida);
+                }
+            }
+            intercambio.getResponseHeaders().set("Content-Type",
+                    extension.equals(".pptx") ? TIPO_PPTX : extension.equals(".xlsx") ? TIPO_XLSX : TIPO_DOCX);
+            intercambio.getResponseHeaders().set("Content-Disposition",
+                    "attachment; filename=\"" + nombre + extension + "\"");
+            intercambio.sendResponseHeaders(200, Files.size(temporal));
+            try (OutputStream cuerpo = intercambio.getResponseBody()) {
+                Files.copy(temporal, cuerpo);
+            }
+            atendidas.incrementAndGet();
+            latencias.registrar(System.nanoTime() - inicio);
+        } catch (Exception e) {
+            errores.incrementAndGet();
+            Metricas.getOyente().error(intercambio.getRequestURI().getPath(), e);
+            try {
+                responder(intercambio, 500, "text/plain", "Error al generar el informe: " + e);
+            } catch (IOException ignorada) {
+                // El cliente ya se ha desconectado, o la respuesta ya había empezado y el cliente
+                // detecta el cuerpo incompleto por su longitud.
+            }
+        } finally {
+            if (temporal != null) {
+                try {
+                    Files.deleteIfExists(temporal);
+                } catch (IOException ignorada) {
+                    // Queda en el directorio temporal del sistema.
+                }
+            }
+            intercambio.close();
+        }
+    }
+
+    private void metricas(HttpExchange intercambio) throws IOException {
+        long[] ordenadas = latencias.ordenadas();
+        Map<String, Object> latencia = new LinkedHashMap<>();
+        latencia.put("muestras", ordenadas.length);
+        latencia.put("p50", percentil(ordenadas, 0.50));
+        latencia.put("p90", percentil(ordenadas, 0.90));
+        latencia.put("p99", percentil(ordenadas, 0.99));
+        latencia.put("max", percentil(ordenadas, 1.0));
+
+        Map<String, Object> datos = new LinkedHashMap<>();
+        datos.put("atendidas", atendidas.get());
+        datos.put("errores", errores.get());
+        datos.put("rechazadas", rechazadas.get());
+        datos.put("enCola", executor.getQueue().size());
+        datos.put("enCurso", executor.getActiveCount());
+        datos.put("latenciaMs", latencia);
+        StringBuilder json = new StringBuilder();
+        Json.escribir(datos, json);
+        responder(intercambio, 200, "application/json", json.toString());
+    }
+
+    /**
+     * Percentil por el método del rango más cercano, en milisegundos.
+     */
+    private static double percentil(long[] ordenadas, double p) {
+        if (ordenadas.length == 0) return 0;
+        int indice = (int) Math.ceil(p * ordenadas.length) - 1;
+        return ordenadas[Math.max(0, indice)] / 1_000_000.0;
+    }
+
+    /**
+     * @return ".pptx", ".xlsx" o ".docx" (para cualquier otra extensión) según la ruta de la plantilla.
+     */
+    private static String extension(String ruta) {
+        String minusculas = ruta.toLowerCase();
+        return minusculas.endsWith(".pptx") ? ".pptx" : minusculas.endsWith(".xlsx") ? ".xlsx" : ".docx";
+    }
+
+    private static void responder(HttpExchange intercambio, int estado, String tipo, String cuerpo) throws IOException {
+        byte[] bytes = cuerpo.getBytes(StandardCharsets.UTF_8);
+        intercambio.getResponseHeaders().set("Content-Type", tipo + "; charset=utf-8");
+        intercambio.sendResponseHeaders(estado, bytes.length);
+        try (OutputStream out = intercambio.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Arranca el servicio: {@code ServicioInformes <puerto> <nombre>=<plantilla> [<nombre>=<plantilla>...]}.
+     * Por ejemplo: {@code ServicioInformes 8080 incidencias=Plantilla.docx resumen=Plantilla.pptx}.
+     * @param args Puerto y plantillas.
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Uso: ServicioInformes <puerto> <nombre>=<plantilla> [<nombre>=<plantilla>...]");
+            System.exit(2);
+        }
+        Map<String, String> plantillas = new LinkedHashMap<>();
+        for (int i = 1; i < args.length; i++) {
+            int igual = args[i].indexOf('=');
+            if (igual <= 0) {
+                System.err.println("Plantilla no válida (se esperaba nombre=ruta): " + args[i]);
+                System.exit(2);
+            }
+            plantillas.put(args[i].substring(0, igual), args[i].substring(igual + 1));
+        }
+        try {
+            ServicioInformes servicio = new ServicioInformes(Integer.parseInt(args[0]), plantillas);
+            Runtime.getRuntime().addShutdownHook(new Thread(servicio::close));
+            servicio.iniciar();
+            System.out.println("Servicio de informes escuchando en http://localhost:" + servicio.getPuerto()
+                    + PREFIJO_INFORMES + " con las plantillas " + plantillas.keySet());
+        } catch (IOException | RuntimeException e) {
+            System.err.println("No se pudo arrancar el servicio: " + e);
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.ejemplo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+
+import org.apache.xmlbeans.XmlCursor;
+import org.apache.xmlbeans.XmlObject;
+
+/**
+ * Utilidades para leer y sustituir el texto de fragmentos XML de Office recorriendo sus
+ * elementos de texto ({@code w:t} en WordprocessingML, {@code a:t} en DrawingML) con un cursor,
+ * sin construir los objetos de usuario de POI.
+ */
+final class TextoXml {
+
+    static final String NS_A = "http://schemas.openxmlformats.org/drawingml/2006/main";
+
+    private static final QName XML_SPACE = new QName(XMLConstants.XML_NS_URI, "space", "xml");
+
+    private TextoXml() {
+    }
+
+    /**
+     * Devuelve los hijos directos de un elemento, en orden de documento.
+     * @param elemento Elemento XML.
+     * @return Lista de elementos hijo.
+     */
+    static List<XmlObject> hijos(XmlObject elemento) {
+        List<XmlObject> hijos = new ArrayList<>();
+        try (XmlCursor cursor = elemento.newCursor()) {
+            if (cursor.toFirstChild()) {
+                do {
+                    hijos.add(cursor.getObject());
+                } while (cursor.toNextSibling());
+            }
+        }
+        return hijos;
+    }
+
+    /**
+     * Concatena el contenido de todos los elementos de texto de un fragmento XML.
+     * @param elemento Elemento XML (párrafo, fila...).
+     * @param texto    Nombre del elemento de texto ({@code w:t} o {@code a:t}).
+     * @return El texto del fragmento.
+     */
+    static String texto(XmlObject elemento, QName texto) {
+        StringBuilder sb = new StringBuilder();
+        try (XmlCursor cursor = elemento.newCursor()) {
+            int profundidad = 0;
+            do {
+                XmlCursor.TokenType token = cursor.toNextToken();
+                if (token.isStart()) {
+                    profundidad++;
+                    if (texto.equals(cursor.getName())) {
+                        sb.append(cursor.getTextValue());
+                    }
+                } else if (token.isEnd() || token.isEnddoc()) {
+                    // Fin del elemento o, en un fragmento independiente (como una diapositiva creada con POI), del fragmento.
+                    profundidad--;
+                }
+            } while (profundidad >= 0);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Sustituye los placeholders de todos los elementos de texto de un fragmento XML.
+     * @param elemento Elemento XML a procesar (párrafo, tabla, fila...).
+     * @param texto    Nombre del elemento de texto ({@code w:t} o {@code a:t}).
+     * @param datos    Mapa que contiene los placeholders y sus valores de reemplazo.
+     */
+    static void sustituir(XmlObject elemento, QName texto, Map<String, String> datos) {
+        String namespace = texto.getNamespaceURI();
+        int parrafos = 0;
+        try (XmlCursor cursor = elemento.newCursor()) {
+            if (esParrafo(cursor.getName(), namespace)) parrafos++;
+            int profundidad = 0;
+            do {
+                XmlCursor.TokenType token = cursor.toNextToken();
+                if (token.isStart()) {
+                    profundidad++;
+                    QName nombre = cursor.getName();
+                    if (esParrafo(nombre, namespace)) {
+                        parrafos++;
+                    } else if (texto.equals(nombre)) {
+                        String actual = cursor.getTextValue();
+                        String sustituido = MotorSustitucion.sustituir(actual, datos);
+                        if (sustituido != actual) {
+                            cursor.setTextValue(sustituido);
+                            if (DocxGenerador.NS_W.equals(texto.getNamespaceURI()) && !sustituido.equals(sustituido.trim())) {
+                                cursor.setAttributeText(XML_SPACE, "preserve");
+                            }
+                        }
+                    }
+                } else if (token.isEnd() || token.isEnddoc()) {
+                    profundidad--;
+                }
+            } while (profundidad >= 0);
+        }
+        Metricas.contarParrafos(parrafos);
+    }
+
+    private static boolean esParrafo(QName nombre, String namespace) {
+        return nombre != null && "p".equals(nombre.getLocalPart()) && namespace.equals(nombre.getNamespaceURI());
+    }
+}
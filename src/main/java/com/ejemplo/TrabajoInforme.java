@@ -0,0 +1,90 @@
+package com.ejemplo;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Trabajo de generación de un único informe dentro de un lote.
+ * Se crea con {@link #docx}, {@link #pptx} o {@link #xlsx} a partir de los mismos parámetros que reciben
+ * {@link DocxGenerador#generateDocx}, {@link PptxGenerador#generarPptx} y {@link XlsxGenerador#generateXlsx}.
+ */
+public final class TrabajoInforme {
+
+    /**
+     * Tarea que genera el informe y devuelve la ruta del archivo resultante.
+     */
+    public interface Tarea {
+        String ejecutar() throws Exception;
+    }
+
+    private final String nombre;
+    private final Tarea tarea;
+
+    /**
+     * Crea un trabajo a partir de una tarea arbitraria.
+     * @param nombre Nombre con el que se identifica el trabajo en el resumen del lote.
+     * @param tarea  Tarea que genera el informe.
+     */
+    public TrabajoInforme(String nombre, Tarea tarea) {
+        this.nombre = nombre;
+        this.tarea = tarea;
+    }
+
+    /**
+     * Crea un trabajo que genera un documento DOCX.
+     * @param plantillaPath    Ruta del archivo plantilla DOCX.
+     * @param salidaPattern    Ruta (con placeholders) para el archivo de salida.
+     * @param datosGlobales    Mapa de datos globales a reemplazar en todo el documento.
+     * @param duplicableBlocks Map con los bloques a duplicar y sus datos.
+     * @return El trabajo creado.
+     */
+    public static TrabajoInforme docx(String plantillaPath, String salidaPattern,
+                                      HashMap<String, String> datosGlobales,
+                                      Map<String, ? extends Iterable<? extends Map<String, String>>> duplicableBlocks) {
+        return new TrabajoInforme(DocxGenerador.buildOutputPath(salidaPattern, datosGlobales),
+                () -> DocxGenerador.generateDocx(plantillaPath, salidaPattern, datosGlobales, duplicableBlocks));
+    }
+
+    /**
+     * Crea un trabajo que genera una presentación PPTX.
+     * @param plantillaPath     Ruta de la plantilla PPTX.
+     * @param salidaPathPattern Patrón de ruta para el archivo de salida.
+     * @param datosGlobales     Mapa con los placeholders globales.
+     * @param duplicableBlocks  Mapa con los bloques duplicables y sus datos.
+     * @return El trabajo creado.
+     */
+    public static TrabajoInforme pptx(String plantillaPath, String salidaPathPattern,
+                                      Map<String, String> datosGlobales,
+                                      Map<String, ? extends Iterable<? extends Map<String, String>>> duplicableBlocks) {
+        return new TrabajoInforme(DocxGenerador.buildOutputPath(salidaPathPattern, datosGlobales),
+                () -> new PptxGenerador().generarPptx(plantillaPath, salidaPathPattern, datosGlobales, duplicableBlocks));
+    }
+
+    /**
+     * Crea un trabajo que genera un libro XLSX.
+     * @param plantillaPath    Ruta de la plantilla XLSX.
+     * @param salidaPattern    Ruta (con placeholders) para el archivo de salida.
+     * @param datosGlobales    Mapa de datos globales a reemplazar en todas las hojas.
+     * @param duplicableBlocks Map con los bloques a duplicar y sus filas.
+     * @return El trabajo creado.
+     */
+    public static TrabajoInforme xlsx(String plantillaPath, String salidaPattern,
+                                      Map<String, String> datosGlobales,
+                                      Map<String, ? extends Iterable<? extends Map<String, String>>> duplicableBlocks) {
+        return new TrabajoInforme(DocxGenerador.buildOutputPath(salidaPattern, datosGlobales),
+                () -> XlsxGenerador.generateXlsx(plantillaPath, salidaPattern, datosGlobales, duplicableBlocks));
+    }
+
+    public String getNombre() {
+        return nombre;
+    }
+
+    /**
+     * Ejecuta el trabajo.
+     * @return La ruta del archivo generado.
+     * @throws Exception Cualquier error producido durante la generación.
+     */
+    public String ejecutar() throws Exception {
+        return tarea.ejecutar();
+    }
+}
@@ -0,0 +1,112 @@
+package com.ejemplo;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+import org.apache.xmlbeans.XmlCursor;
+import org.apache.xmlbeans.XmlObject;
+
+/**
+ * Posición de un elemento XML dentro de una parte del documento (cuerpo, cabecera, diapositiva...).
+ * La posición se guarda como la ruta de índices de hijo desde la raíz de la parte, de modo que
+ * puede resolverse sobre cualquier copia estructuralmente idéntica de la plantilla sin volver a
+ * recorrer el documento.
+ */
+public final class UbicacionXml {
+
+    private final int parte;
+    private final int[] ruta;
+
+    /**
+     * Crea una ubicación a partir del índice de la parte y la ruta de índices de hijo.
+     * @param parte Índice de la parte (su significado lo define la plantilla que la registra).
+     * @param ruta  Índices de hijo desde la raíz de la parte hasta el elemento.
+     */
+    public UbicacionXml(int parte, int[] ruta) {
+        this.parte = parte;
+        this.ruta = ruta.clone();
+    }
+
+    /**
+     * Calcula la ubicación de un elemento respecto a la raíz de su parte.
+     * @param parte    Índice de la parte.
+     * @param raiz     Elemento raíz de la parte.
+     * @param objetivo Elemento cuya posición se desea registrar (debe descender de la raíz).
+     * @return La ubicación del elemento.
+     */
+    public static UbicacionXml de(int parte, XmlObject raiz, XmlObject objetivo) {
+        Deque<Integer> indices = new ArrayDeque<>();
+        try (XmlCursor cursorRaiz = raiz.newCursor(); XmlCursor cursor = objetivo.newCursor()) {
+            while (!cursor.isAtSamePositionAs(cursorRaiz)) {
+                int indice = 0;
+                try (XmlCursor hermano = cursor.newCursor()) {
+                    while (hermano.toPrevSibling()) {
+                        indice++;
+                    }
+                }
+                indices.push(indice);
+                if (!cursor.toParent()) {
+                    throw new IllegalArgumentException("El elemento no pertenece a la raíz indicada.");
+                }
+            }
+        }
+        int[] ruta = new int[indices.size()];
+        int i = 0;
+        for (int indice : indices) {
+            ruta[i++] = indice;
+        }
+        return new UbicacionXml(parte, ruta);
+    }
+
+    /**
+     * Resuelve la ubicación sobre la raíz de la parte de una copia de la plantilla.
+     * @param raiz Elemento raíz de la parte correspondiente en la copia.
+     * @return El elemento XML situado en la ubicación.
+     */
+    public XmlObject resolver(XmlObject raiz) {
+        try (XmlCursor cursor = raiz.newCursor()) {
+            for (int indice : ruta) {
+                if (!cursor.toChild(indice)) {
+                    throw new IllegalStateException("La ubicación " + this + " no existe en el documento.");
+                }
+            }
+            return cursor.getObject();
+        }
+    }
+
+    /**
+     * Escribe la ubicación en un manifiesto de plantilla (ver {@link ManifiestoPlantillas}).
+     */
+    void escribir(DataOutput out) throws IOException {
+        out.writeInt(parte);
+        out.writeInt(ruta.length);
+        for (int indice : ruta) {
+            out.writeInt(indice);
+        }
+    }
+
+    /**
+     * Lee una ubicación escrita con {@link #escribir(DataOutput)}.
+     */
+    static UbicacionXml leer(DataInput in) throws IOException {
+        int parte = in.readInt();
+        int[] ruta = new int[in.readInt()];
+        for (int i = 0; i < ruta.length; i++) {
+            ruta[i] = in.readInt();
+        }
+        return new UbicacionXml(parte, ruta);
+    }
+
+    public int getParte() {
+        return parte;
+    }
+
+    @Override
+    public String toString() {
+        return parte + ":" + Arrays.toString(ruta);
+    }
+}
@@ -0,0 +1,662 @@
+package com.ejemplo;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+import java.util.*;
+import java.util.regex.Pattern;
+
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.formula.FormulaParseException;
+import org.apache.poi.ss.formula.FormulaParser;
+import org.apache.poi.ss.formula.FormulaRenderer;
+import org.apache.poi.ss.formula.FormulaType;
+import org.apache.poi.ss.formula.ptg.AreaErrPtg;
+import org.apache.poi.ss.formula.ptg.AreaPtgBase;
+import org.apache.poi.ss.formula.ptg.Ptg;
+import org.apache.poi.ss.formula.ptg.Pxg;
+import org.apache.poi.ss.formula.ptg.RefErrorPtg;
+import org.apache.poi.ss.formula.ptg.RefPtgBase;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.ss.util.WorkbookUtil;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFEvaluationWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+/**
+ * Generador XLSX a partir de una plantilla, con los mismos datos globales y bloques que
+ * {@link DocxGenerador} y {@link PptxGenerador}.
+ * <p>
+ * En la plantilla, un bloque es el conjunto de filas comprendido entre dos filas marcador cuya única celda
+ * con texto es "---id---" (igual que las filas marcador de las tablas DOCX); los bloques pueden anidarse
+ * con claves "padre[i].hijo". Los placeholders "{{...}}" de las celdas de texto y de los nombres de hoja
+ * se sustituyen en todas las hojas. Si una celda contiene solo un placeholder, tiene un formato numérico (ni
+ * "General" ni texto) y su valor es un número sin ceros a la izquierda y de hasta 15 dígitos, se escribe como
+ * número; en cualquier otro caso se escribe como texto, de modo que códigos postales o identificadores como
+ * "08001" se conservan.
+ * <p>
+ * Las filas de los bloques se escriben con {@link SXSSFWorkbook}: solo se mantienen en memoria las
+ * últimas {@value #VENTANA_FILAS} filas y el resto se vuelca a un temporal comprimido, así que una
+ * exportación de 100.000 filas se escribe en una sola pasada y con memoria acotada. Combinado con una
+ * {@link FuenteFilas}, las filas de datos tampoco se cargan enteras.
+ * <p>
+ * A partir de la primera fila marcador de cada hoja, todas las filas de la plantilla se vuelven a escribir en
+ * streaming. Las referencias de las fórmulas a filas de la misma hoja se ajustan como al insertar filas en
+ * Excel: dentro de una copia de un bloque apuntan a las filas de esa misma copia, un rango que abarca las filas
+ * de un bloque se amplía a todas sus copias y las filas posteriores a un bloque se desplazan. Una referencia a
+ * una fila que no se ha generado (un bloque sin filas) queda como #REF!. Las celdas combinadas de esa zona se
+ * vuelven a combinar en la fila donde acaban, una vez por copia si están dentro de un bloque.
+ * <p>
+ * Limitación del streaming: cuando se escribe una fila ya no se sabe cuántas filas generarán los bloques que
+ * tiene por debajo, así que una fórmula que apunta a una fila posterior a un bloque (por ejemplo, una fila del
+ * bloque que divide entre el total de debajo) se desplaza sin tener en cuenta ese bloque y se notifica un aviso.
+ */
+public class XlsxGenerador {
+
+    /** Filas que SXSSF mantiene en memoria antes de volcarlas al temporal. */
+    static final int VENTANA_FILAS = 100;
+
+    private static final CachePlantillas<byte[]> CACHE = new CachePlantillas<>(8, contenido -> contenido);
+
+    private static final Pattern NUMERO = Pattern.compile("-?(0|[1-9]\\d*)(\\.\\d+)?");
+
+    /**
+     * Fila de la plantilla capturada antes de pasar a streaming.
+     */
+    private static final class FilaPlantilla {
+        private final short altura;
+        private final CellStyle estilo;
+        private final List<CeldaPlantilla> celdas = new ArrayList<>();
+        private String blockId;
+        private int cierre = -1;
+
+        private FilaPlantilla(Row fila) {
+            this.altura = fila.getHeight();
+            this.estilo = fila.isFormatted() ? fila.getRowStyle() : null;
+            for (Cell celda : fila) {
+                celdas.add(new CeldaPlantilla(celda));
+            }
+        }
+    }
+
+    /**
+     * Celda de una fila capturada: su tipo, su valor y su estilo (compartido con el libro).
+     */
+    private static final class CeldaPlantilla {
+        private final int columna;
+        private final CellType tipo;
+        private final CellStyle estilo;
+        private final String texto;
+        private final double numero;
+        private final boolean booleano;
+        private final boolean formatoNumerico;
+        /** Fórmula ya analizada; se analiza la primera vez que se escribe la celda. */
+        private Ptg[] formula;
+
+        private CeldaPlantilla(Cell celda) {
+            this.columna = celda.getColumnIndex();
+            this.tipo = celda.getCellType();
+            this.estilo = celda.getCellStyle();
+            this.texto = tipo == CellType.STRING ? celda.getStringCellValue()
+                    : tipo == CellType.FORMULA ? celda.getCellFormula() : null;
+            this.numero = tipo == CellType.NUMERIC ? celda.getNumericCellValue() : 0;
+            this.booleano = tipo == CellType.BOOLEAN && celda.getBooleanCellValue();
+            this.formatoNumerico = tipo == CellType.STRING && formatoNumerico(estilo);
+        }
+    }
+
+    /**
+     * Filas de una hoja desde su primer marcador, con las celdas combinadas que terminan en cada una.
+     */
+    private static final class Captura {
+        private final int inicio;
+        private final List<FilaPlantilla> filas = new ArrayList<>();
+        /** Celdas combinadas de la plantilla (en filas de la plantilla), por posición de su última fila. */
+        private final Map<Integer, List<CellRangeAddress>> combinadas = new HashMap<>();
+
+        private Captura(int inicio) {
+            this.inicio = inicio;
+        }
+    }
+
+    /**
+     * Constructor por defecto.
+     */
+    public XlsxGenerador() {
+    }
+
+    /**
+     * Genera el libro XLSX y lo guarda en la ruta construida a partir del patrón.
+     * Si hay una {@link CacheSalidas} activa y los datos no han cambiado, copia el libro guardado.
+     *
+     * @param plantillaPath    Ruta del archivo plantilla XLSX.
+     * @param salidaPattern    Ruta (con placeholders) para el archivo de salida.
+     * @param datosGlobales    Mapa de datos globales a reemplazar en todas las hojas.
+     * @param duplicableBlocks Map con los bloques a duplicar y sus filas (listas o {@link FuenteFilas}).
+     * @return La ruta final del libro generado.
+     * @throws IOException Si ocurre un error de lectura o escritura.
+     */
+    public static String generateXlsx(String plantillaPath, String salidaPattern,
+                                      Map<String, String> datosGlobales,
+                                      Map<String, ? extends Iterable<? extends Map<String, String>>> duplicableBlocks) throws IOException {
+        String salidaPathFinal = DocxGenerador.buildOutputPath(salidaPattern, datosGlobales);
+        CacheSalidas.generar("XLSX", plantillaPath, datosGlobales, duplicableBlocks, salidaPathFinal,
+                () -> generar(plantillaPath, datosGlobales, duplicableBlocks, salidaPathFinal,
+                        () -> new BufferedOutputStream(new FileOutputStream(salidaPathFinal))));
+        return salidaPathFinal;
+    }
+
+    /**
+     * Genera el libro XLSX y lo escribe en un flujo. El flujo no se cierra.
+     *
+     * @param plantillaPath    Ruta del archivo plantilla XLSX.
+     * @param datosGlobales    Mapa de datos globales a reemplazar en todas las hojas.
+     * @param duplicableBlocks Map con los bloques a duplicar y sus filas.
+     * @param salida           Flujo donde se escribe el libro generado.
+     * @throws IOException Si ocurre un error de lectura o escritura.
+     */
+    public static void generateXlsx(String plantillaPath, Map<String, String> datosGlobales,
+                                    Map<String, ? extends Iterable<? extends Map<String, String>>> duplicableBlocks,
+                                    OutputStream salida) throws IOException {
+        generar(plantillaPath, datosGlobales, duplicableBlocks, "flujo de salida", () -> Flujos.noCerrar(salida));
+    }
+
+    /**
+     * Genera el libro XLSX y lo escribe en un canal. El canal no se cierra.
+     *
+     * @param plantillaPath    Ruta del archivo plantilla XLSX.
+     * @param datosGlobales    Mapa de datos globales a reemplazar en todas las hojas.
+     * @param duplicableBlocks Map con los bloques a duplicar y sus filas.
+     * @param salida           Canal donde se escribe el libro generado.
+     * @throws IOException Si ocurre un error de lectura o escritura.
+     */
+    public static void generateXlsx(String plantillaPath, Map<String, String> datosGlobales,
+                                    Map<String, ? extends Iterable<? extends Map<String, String>>> duplicableBlocks,
+                                    WritableByteChannel salida) throws IOException {
+        generar(plantillaPath, datosGlobales, duplicableBlocks, "canal de salida", () -> Flujos.salida(salida));
+    }
+
+    @SuppressWarnings("try")
+    private static void generar(String plantillaPath, Map<String, String> datosGlobales,
+                                Map<String, ? extends Iterable<? extends Map<String, String>>> duplicableBlocks,
+                                String nombreSalida, Flujos.Destino destino) throws IOException {
+        MetricasInforme metricas = Metricas.iniciar("XLSX");
+        try {
+            XSSFWorkbook libro;
+            try (MetricasInforme.Cronometro ignorado = metricas.medir(FaseInforme.LECTURA)) {
+                libro = new XSSFWorkbook(new ByteArrayInputStream(CACHE.obtener(plantillaPath)));
+            }
+
+            // Las filas desde el primer marcador de cada hoja se capturan y se quitan del libro:
+            // SXSSF solo puede añadir filas por debajo de la última fila existente.
+            List<Captura> capturas = new ArrayList<>();
+            try (MetricasInforme.Cronometro ignorado = metricas.medir(FaseInforme.SUSTITUCION)) {
+                for (int h = 0; h < libro.getNumberOfSheets(); h++) {
+                    String nombre = libro.getSheetName(h);
+                    String sustituido = MotorSustitucion.sustituir(nombre, datosGlobales);
+                    if (sustituido != nombre) {
+                        libro.setSheetName(h, WorkbookUtil.createSafeSheetName(sustituido));
+                    }
+                }
+                for (Sheet hoja : libro) {
+                    int inicio = primerMarcador(hoja);
+                    sustituirFilas(hoja, inicio, datosGlobales);
+                    capturas.add(inicio < 0 ? null : capturar(hoja, inicio));
+                }
+            } catch (RuntimeException e) {
+                libro.close();
+                throw e;
+            }
+
+            SXSSFWorkbook streaming = new SXSSFWorkbook(libro, VENTANA_FILAS);
+            streaming.setCompressTempFiles(true);
+            try {
+                try (MetricasInforme.Cronometro ignorado = metricas.medir(FaseInforme.BLOQUES)) {
+                    XSSFEvaluationWorkbook evaluacion = XSSFEvaluationWorkbook.create(libro);
+                    for (int h = 0; h < capturas.size(); h++) {
+                        Captura captura = capturas.get(h);
+                        if (captura == null) continue;
+                        Escritor escritor = new Escritor(streaming.getSheetAt(h), h, captura, datosGlobales, evaluacion);
+                        escritor.renderizar(0, captura.filas.size() - 1, duplicableBlocks, new ArrayDeque<>(), "");
+                        escritor.ajustarAnteriores(libro.getSheetAt(h));
+                    }
+                }
+
+                Flujos.Contador contador;
+                try (MetricasInforme.Cronometro ignorado = metricas.medir(FaseInforme.ESCRITURA);
+                     Flujos.Contador salida = new Flujos.Contador(destino.abrir())) {
+                    contador = salida;
+                    streaming.write(salida);
+                }
+                Metricas.terminar(metricas, nombreSalida, contador.getBytes());
+            } finally {
+                streaming.dispose();
+                streaming.close();
+            }
+        } finally {
+            Metricas.descartar();
+        }
+    }
+
+    /**
+     * @return El índice de la primera fila marcador de la hoja, o -1 si no tiene.
+     */
+    private static int primerMarcador(Sheet hoja) {
+        for (Row fila : hoja) {
+            if (idDe(fila) != null) return fila.getRowNum();
+        }
+        return -1;
+    }
+
+    /**
+     * Identificador de bloque de una fila cuya única celda con texto es un marcador.
+     */
+    private static String idDe(Row fila) {
+        String texto = null;
+        for (Cell celda : fila) {
+            if (celda.getCellType() == CellType.BLANK) continue;
+            if (texto != null || celda.getCellType() != CellType.STRING) return null;
+            texto = celda.getStringCellValue();
+        }
+        return Marcadores.idDe(texto);
+    }
+
+    /**
+     * Sustituye los datos globales en las filas de la hoja anteriores a {@code hasta} (todas si es -1).
+     */
+    private static void sustituirFilas(Sheet hoja, int hasta, Map<String, String> datos) {
+        for (Row fila : hoja) {
+            if (hasta >= 0 && fila.getRowNum() >= hasta) break;
+            for (Cell celda : fila) {
+                if (celda.getCellType() != CellType.STRING) continue;
+                String texto = celda.getStringCellValue();
+                String sustituido = MotorSustitucion.sustituir(texto, datos);
+                if (sustituido != texto) {
+                    asignar(celda, texto, sustituido, formatoNumerico(celda.getCellStyle()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Copia y elimina de la hoja las filas desde {@code inicio} y sus celdas combinadas, y empareja los
+     * marcadores de bloque.
+     */
+    private static Captura capturar(Sheet hoja, int inicio) {
+        Captura resultado = new Captura(inicio);
+        List<FilaPlantilla> captura = resultado.filas;
+        List<Row> eliminar = new ArrayList<>();
+        Deque<Integer> abiertos = new ArrayDeque<>();
+        int anterior = inicio - 1;
+        for (Row fila : hoja) {
+            if (fila.getRowNum() < inicio) continue;
+            // Las filas vacías intermedias también se reproducen, para conservar la separación.
+            for (int vacia = anterior + 1; vacia < fila.getRowNum(); vacia++) {
+                captura.add(null);
+            }
+            anterior = fila.getRowNum();
+            FilaPlantilla plantilla = new FilaPlantilla(fila);
+            plantilla.blockId = idDe(fila);
+            if (plantilla.blockId != null) {
+                if (!abiertos.isEmpty() && captura.get(abiertos.peek()).blockId.equals(plantilla.blockId)) {
+                    captura.get(abiertos.pop()).cierre = captura.size();
+                } else {
+                    abiertos.push(captura.size());
+                }
+            }
+            captura.add(plantilla);
+            eliminar.add(fila);
+        }
+        // Los marcadores sin pareja se escriben como filas normales.
+        for (int abierto : abiertos) {
+            captura.get(abierto).blockId = null;
+        }
+        for (Row fila : eliminar) {
+            hoja.removeRow(fila);
+        }
+        for (int i = hoja.getNumMergedRegions() - 1; i >= 0; i--) {
+            CellRangeAddress region = hoja.getMergedRegion(i);
+            if (region.getLastRow() >= inicio) {
+                resultado.combinadas.computeIfAbsent(region.getLastRow() - inicio, k -> new ArrayList<>()).add(region);
+                hoja.removeMergedRegion(i);
+            }
+        }
+        return resultado;
+    }
+
+    /**
+     * Escribe en streaming las filas capturadas de una hoja, expandiendo los bloques.
+     * <p>
+     * Para ajustar las fórmulas y las celdas combinadas, recuerda en qué fila de salida se ha escrito cada
+     * fila de la plantilla: la última vez y, para la hoja y para cada copia de bloque en curso, la primera.
+     */
+    private static final class Escritor {
+        private final Sheet hoja;
+        private final int indiceHoja;
+        private final List<FilaPlantilla> filas;
+        private final Captura captura;
+        private final Map<String, String> globales;
+        private final XSSFEvaluationWorkbook evaluacion;
+        /** Última fila de salida de cada fila de la plantilla (-1 si no se ha escrito). */
+        private final int[] ultimas;
+        /** Copias de bloque en curso, la más interior primero; la última es la hoja entera. */
+        private final Deque<Copia> enCurso = new ArrayDeque<>();
+        private int siguiente;
+        /** Fila de la plantilla que se está escribiendo y su fila de salida. */
+        private int actual = -1;
+        private int salidaActual;
+        private boolean avisado;
+
+        private Escritor(Sheet hoja, int indiceHoja, Captura captura, Map<String, String> globales,
+                         XSSFEvaluationWorkbook evaluacion) {
+            this.hoja = hoja;
+            this.indiceHoja = indiceHoja;
+            this.captura = captura;
+            this.filas = captura.filas;
+            this.siguiente = captura.inicio;
+            this.globales = globales;
+            this.evaluacion = evaluacion;
+            this.ultimas = new int[filas.size()];
+            Arrays.fill(ultimas, -1);
+            enCurso.push(new Copia(0, filas.size() - 1));
+        }
+
+        /**
+         * Escribe las filas [desde, hasta]. {@code contexto} contiene las filas de datos de los bloques que
+         * las contienen (la más interior primero) y {@code prefijo} la clave de los bloques anidados.
+         */
+        private void renderizar(int desde, int hasta,
+                                Map<String, ? extends Iterable<? extends Map<String, String>>> bloques,
+                                Deque<Map<String, String>> contexto, String prefijo) {
+            int i = desde;
+            while (i <= hasta) {
+                FilaPlantilla fila = filas.get(i);
+                if (fila == null || fila.blockId == null || fila.cierre < 0) {
+                    escribir(i, contexto);
+                    i++;
+                    continue;
+                }
+                Iterable<? extends Map<String, String>> datos = prefijo.isEmpty() ? null : bloques.get(prefijo + fila.blockId);
+                if (datos == null) datos = bloques.get(fila.blockId);
+                if (datos == null) {
+                    // Sin datos: el bloque se deja con sus marcadores, como en DOCX.
+                    escribir(i, contexto);
+                    renderizar(i + 1, fila.cierre - 1, bloques, contexto, prefijo);
+                    escribir(fila.cierre, contexto);
+                } else {
+                    // Los marcadores no se escriben: el de apertura equivale a la primera fila del bloque
+                    // y el de cierre a la última, para los rangos que los incluyen.
+                    registrar(i, siguiente);
+                    Copia copia = new Copia(i + 1, fila.cierre - 1);
+                    enCurso.push(copia);
+                    int copias = 0;
+                    for (Map<String, String> dato : datos) {
+                        copia.reiniciar();
+                        contexto.push(dato);
+                        renderizar(i + 1, fila.cierre - 1, bloques, contexto,
+                                Marcadores.prefijoAnidado(prefijo, fila.blockId, copias++));
+                        contexto.pop();
+                    }
+                    enCurso.pop();
+                    registrar(fila.cierre, siguiente - 1);
+                    Metricas.contarBloques(copias);
+                }
+                i = fila.cierre + 1;
+            }
+        }
+
+        private void escribir(int indice, Deque<Map<String, String>> contexto) {
+            actual = indice;
+            salidaActual = siguiente;
+            registrar(indice, siguiente);
+            FilaPlantilla plantilla = filas.get(indice);
+            siguiente++;
+            if (plantilla != null) {
+                Row fila = hoja.createRow(salidaActual);
+                fila.setHeight(plantilla.altura);
+                if (plantilla.estilo != null) fila.setRowStyle(plantilla.estilo);
+                for (CeldaPlantilla origen : plantilla.celdas) {
+                    Cell celda = fila.createCell(origen.columna);
+                    celda.setCellStyle(origen.estilo);
+                    switch (origen.tipo) {
+                        case STRING:
+                            String texto = origen.texto;
+                            for (Map<String, String> datos : contexto) {
+                                texto = MotorSustitucion.sustituir(texto, datos);
+                            }
+                            asignar(celda, origen.texto, MotorSustitucion.sustituir(texto, globales), origen.formatoNumerico);
+                            break;
+                        case NUMERIC:
+                            celda.setCellValue(origen.numero);
+                            break;
+                        case BOOLEAN:
+                            celda.setCellValue(origen.booleano);
+                            break;
+                        case FORMULA:
+                            celda.setCellFormula(ajustar(origen));
+                            break;
+                        default:
+                            break;
+                    }
+                }
+            }
+            List<CellRangeAddress> combinadas = captura.combinadas.get(indice);
+            if (combinadas != null) {
+                for (CellRangeAddress region : combinadas) {
+                    combinar(region);
+                }
+            }
+        }
+
+        private void registrar(int indice, int salida) {
+            ultimas[indice] = salida;
+            for (Copia copia : enCurso) {
+                copia.registrar(indice, salida);
+            }
+        }
+
+        /**
+         * Ajusta las fórmulas de las filas anteriores al primer marcador, que siguen en la hoja original,
+         * una vez escritas todas las filas de la plantilla.
+         */
+        private void ajustarAnteriores(Sheet original) {
+            actual = filas.size() - 1;
+            salidaActual = siguiente - 1;
+            for (Row fila : original) {
+                if (fila.getRowNum() >= captura.inicio) break;
+                for (Cell celda : fila) {
+                    if (celda.getCellType() != CellType.FORMULA) continue;
+                    CeldaPlantilla origen = new CeldaPlantilla(celda);
+                    String ajustada = ajustar(origen);
+                    if (!ajustada.equals(origen.texto)) {
+                        celda.setCellFormula(ajustada);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Vuelve a combinar en la salida una región de la plantilla que acaba en la fila que se acaba de escribir.
+         */
+        private void combinar(CellRangeAddress region) {
+            int primera = fila(region.getFirstRow(), false);
+            if (primera < 0 || primera > salidaActual) return;
+            CellRangeAddress copia = new CellRangeAddress(primera, salidaActual, region.getFirstColumn(), region.getLastColumn());
+            if (copia.getNumberOfCells() < 2) return;
+            // Las regiones de la plantilla ya eran válidas y cada copia ocupa filas nuevas: no pueden
+            // solaparse, y validarlas contra todas las anteriores haría cuadrática la escritura.
+            hoja.addMergedRegionUnsafe(copia);
+        }
+
+        /**
+         * Devuelve la fórmula de una celda con sus referencias a filas de esta hoja ajustadas a las filas de
+         * salida, vista desde la fila que se está escribiendo.
+         */
+        private String ajustar(CeldaPlantilla celda) {
+            if (celda.formula == null) {
+                try {
+                    celda.formula = FormulaParser.parse(celda.texto, evaluacion, FormulaType.CELL, indiceHoja);
+                } catch (FormulaParseException e) {
+                    avisar("no se pudo analizar la fórmula " + celda.texto + "; se copia sin ajustar.");
+                    celda.formula = new Ptg[0];
+                }
+            }
+            if (celda.formula.length == 0) return celda.texto;
+            Ptg[] ptgs = celda.formula.clone();
+            boolean cambiada = false;
+            for (int k = 0; k < ptgs.length; k++) {
+                Ptg ptg = ptgs[k];
+                if (!deEstaHoja(ptg)) continue;
+                if (ptg instanceof AreaPtgBase) {
+                    AreaPtgBase area = (AreaPtgBase) ptg;
+                    if (area.getFirstRow() == 0 && area.getLastRow() == SpreadsheetVersion.EXCEL2007.getLastRowIndex()) continue;
+                    int primera = fila(area.getFirstRow(), false);
+                    int ultima = fila(area.getLastRow(), true);
+                    if (primera < 0 || ultima < primera) {
+                        ptgs[k] = new AreaErrPtg();
+                    } else if (primera != area.getFirstRow() || ultima != area.getLastRow()) {
+                        AreaPtgBase ajustada = (AreaPtgBase) area.copy();
+                        ajustada.setFirstRow(primera);
+                        ajustada.setLastRow(ultima);
+                        ptgs[k] = ajustada;
+                    } else {
+                        continue;
+                    }
+                    cambiada = true;
+                } else if (ptg instanceof RefPtgBase) {
+                    RefPtgBase ref = (RefPtgBase) ptg;
+                    int fila = fila(ref.getRow(), false);
+                    if (fila < 0) {
+                        ptgs[k] = new RefErrorPtg();
+                    } else if (fila != ref.getRow()) {
+                        RefPtgBase ajustada = (RefPtgBase) ref.copy();
+                        ajustada.setRow(fila);
+                        ptgs[k] = ajustada;
+                    } else {
+                        continue;
+                    }
+                    cambiada = true;
+                }
+            }
+            return cambiada ? FormulaRenderer.toFormulaString(evaluacion, ptgs) : celda.texto;
+        }
+
+        private boolean deEstaHoja(Ptg ptg) {
+            if (!(ptg instanceof Pxg)) return true;
+            Pxg externa = (Pxg) ptg;
+            return externa.getExternalWorkbookNumber() < 1 && hoja.getSheetName().equalsIgnoreCase(externa.getSheetName());
+        }
+
+        /**
+         * Fila de salida que corresponde a una fila de la plantilla, vista desde la fila que se está escribiendo.
+         * @param fila Fila de la plantilla.
+         * @param fin  {@code true} si es el final de un rango: de una fila repetida se toma la última copia.
+         * @return La fila de salida, o -1 si esa fila de la plantilla no ha generado ninguna (un bloque sin filas).
+         */
+        private int fila(int fila, boolean fin) {
+            int indice = fila - captura.inicio;
+            if (indice < 0) return fila;
+            if (indice > actual) {
+                // Fila posterior: solo se puede calcular si no hay ningún bloque entre medias.
+                Copia copia = enCurso.peek();
+                boolean fuera = enCurso.size() > 1 && indice > copia.hasta;
+                if (fuera || hayBloque(actual + 1, Math.min(indice, filas.size() - 1))) {
+                    avisar("la fórmula de la fila " + (salidaActual + 1) + " hace referencia a una fila posterior a un"
+                            + " bloque; se desplaza sin tener en cuenta las filas que genere ese bloque.");
+                }
+                return salidaActual + indice - actual;
+            }
+            for (Copia copia : enCurso) {
+                if (indice >= copia.desde && indice <= copia.hasta) {
+                    int primera = copia.primeras[indice - copia.desde];
+                    if (primera < 0) return -1;
+                    return fin ? ultimas[indice] : primera;
+                }
+            }
+            return -1;
+        }
+
+        private boolean hayBloque(int desde, int hasta) {
+            for (int i = desde; i <= hasta; i++) {
+                FilaPlantilla fila = filas.get(i);
+                if (fila != null && fila.blockId != null && fila.cierre >= 0) return true;
+            }
+            return false;
+        }
+
+        private void avisar(String mensaje) {
+            if (avisado) return;
+            avisado = true;
+            Metricas.avisar("Hoja " + hoja.getSheetName() + ": " + mensaje);
+        }
+    }
+
+    /**
+     * Copia en curso de un bloque (o la hoja entera): primera fila de salida de cada una de sus filas de plantilla.
+     */
+    private static final class Copia {
+        private final int desde;
+        private final int hasta;
+        private final int[] primeras;
+
+        private Copia(int desde, int hasta) {
+            this.desde = desde;
+            this.hasta = hasta;
+            this.primeras = new int[Math.max(0, hasta - desde + 1)];
+            reiniciar();
+        }
+
+        private void reiniciar() {
+            Arrays.fill(primeras, -1);
+        }
+
+        private void registrar(int indice, int salida) {
+            if (indice >= desde && indice <= hasta && primeras[indice - desde] < 0) {
+                primeras[indice - desde] = salida;
+            }
+        }
+    }
+
+    /**
+     * Asigna el texto sustituido a una celda. Si la celda era un único placeholder con formato numérico y el
+     * valor es un número que se puede representar sin perder nada, lo escribe como número para que la hoja
+     * de cálculo pueda operar con él.
+     */
+    private static void asignar(Cell celda, String original, String sustituido, boolean formatoNumerico) {
+        if (formatoNumerico && original.startsWith("{{") && original.endsWith("}}") && original.indexOf("{{", 2) < 0
+                && esNumero(sustituido)) {
+            celda.setCellValue(Double.parseDouble(sustituido));
+        } else {
+            celda.setCellValue(sustituido);
+        }
+    }
+
+    /**
+     * @return {@code true} si el formato de la celda no es "General" (0) ni texto ("@", 0x31).
+     */
+    private static boolean formatoNumerico(CellStyle estilo) {
+        short formato = estilo.getDataFormat();
+        return formato != 0 && formato != 0x31;
+    }
+
+    /**
+     * @return {@code true} si el texto es un número sin ceros a la izquierda y de hasta 15 dígitos, que un
+     *         double conserva exactamente.
+     */
+    private static boolean esNumero(String texto) {
+        if (!NUMERO.matcher(texto).matches()) return false;
+        int digitos = 0;
+        for (int i = 0; i < texto.length(); i++) {
+            if (Character.isDigit(texto.charAt(i))) digitos++;
+        }
+        return digitos <= 15;
+    }
+}
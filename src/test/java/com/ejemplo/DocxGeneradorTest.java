@@ -0,0 +1,79 @@
+package com.ejemplo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.poi.xwpf.usermodel.IBodyElement;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFTable;
+import org.apache.poi.xwpf.usermodel.XWPFTableRow;
+import org.junit.jupiter.api.Test;
+
+class DocxGeneradorTest {
+
+    @Test
+    void duplicateBlockExpandeDosBloquesDelMismoDocumento() throws IOException {
+        XWPFDocument documento = new XWPFDocument();
+        for (String texto : new String[] {"---A---", "a {{valor}}", "---A---", "medio", "---B---", "b {{valor}}", "---B---"}) {
+            documento.createParagraph().createRun().setText(texto);
+        }
+
+        DocxGenerador.duplicateBlock(documento, "A", filas("a"));
+        DocxGenerador.duplicateBlock(documento, "B", filas("b"));
+
+        assertEquals(List.of("a a1", "a a2", "a a3", "medio", "b b1", "b b2", "b b3"), textos(releer(documento)));
+    }
+
+    @Test
+    void duplicateTableRowsExpandeDosBloquesDeLaMismaTabla() throws IOException {
+        XWPFDocument documento = new XWPFDocument();
+        XWPFTable tabla = documento.createTable(1, 1);
+        tabla.getRow(0).getCell(0).setText("cabecera");
+        for (String texto : new String[] {"---X---", "x {{valor}}", "---X---", "---Y---", "y {{valor}}", "---Y---"}) {
+            tabla.createRow().getCell(0).setText(texto);
+        }
+
+        DocxGenerador.duplicateTableRows(tabla, "X", filas("x"));
+        DocxGenerador.duplicateTableRows(tabla, "Y", filas("y"));
+
+        assertEquals(List.of("cabecera", "x x1", "x x2", "x x3", "y y1", "y y2", "y y3"), textos(releer(documento)));
+    }
+
+    private static List<HashMap<String, String>> filas(String prefijo) {
+        List<HashMap<String, String>> filas = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            HashMap<String, String> fila = new HashMap<>();
+            fila.put("{{valor}}", prefijo + i);
+            filas.add(fila);
+        }
+        return filas;
+    }
+
+    // Las copias solo existen en el XML, así que se serializa y se vuelve a abrir el documento.
+    private static XWPFDocument releer(XWPFDocument documento) throws IOException {
+        ByteArrayOutputStream salida = new ByteArrayOutputStream();
+        documento.write(salida);
+        return new XWPFDocument(new ByteArrayInputStream(salida.toByteArray()));
+    }
+
+    private static List<String> textos(XWPFDocument documento) {
+        List<String> textos = new ArrayList<>();
+        for (IBodyElement elemento : documento.getBodyElements()) {
+            if (elemento instanceof XWPFParagraph parrafo) {
+                textos.add(parrafo.getText());
+            } else if (elemento instanceof XWPFTable tabla) {
+                for (XWPFTableRow fila : tabla.getRows()) {
+                    textos.add(fila.getCell(0).getText());
+                }
+            }
+        }
+        return textos;
+    }
+}